@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+public class TestDayLabelFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayLabelFormatter.class.getSimpleName();
+
+    private static final int BENCHMARK_ROUNDS = 200;
+    private static final int BENCHMARK_DAYS = 14;
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        DayLabelFormatter.invalidate();
+    }
+
+    /*
+        Every label, cached or not, has to be what Utility used to make.
+     */
+    public void testMatchesUncachedFormatting() {
+        // Twice over, so the second round comes from the cache
+        for (int round = 0; round < 2; round++) {
+            for (int day = -10; day <= 45; day++) {
+                assertSameLabels(mToday + day * DateUtils.DAY_IN_MILLIS);
+            }
+        }
+    }
+
+    public void testLocaleChangeDropsLabels() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            long nextWeek = mToday + 8 * DateUtils.DAY_IN_MILLIS;
+            assertSameLabels(nextWeek);
+
+            Locale.setDefault(Locale.FRANCE);
+            assertEquals(formatDayName(mContext, nextWeek),
+                    DayLabelFormatter.getDayName(mContext, nextWeek));
+            assertEquals(formatMonthDay(nextWeek),
+                    DayLabelFormatter.getFormattedMonthDay(mContext, nextWeek));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    /*
+        Labels for a fortnight, the way a list or the detail widget asks for them, from the
+        formatting Utility used to do and from the formatter.
+     */
+    public void testLabelCost() {
+        // Warm both up, so neither pays for class loading or filling the cache
+        runUncached();
+        runCached();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        runUncached();
+        long uncachedNanos = System.nanoTime() - start;
+        int uncachedAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        start = System.nanoTime();
+        runCached();
+        long cachedNanos = System.nanoTime() - start;
+        int cachedAllocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        int labels = BENCHMARK_ROUNDS * BENCHMARK_DAYS * 2;
+        Log.i(LOG_TAG, "Uncached: " + uncachedNanos / labels + " ns/label, " +
+                uncachedAllocations / labels + " allocations/label; cached: " +
+                cachedNanos / labels + " ns/label, " + cachedAllocations + " allocations");
+        assertTrue(cachedAllocations < uncachedAllocations);
+    }
+
+    private void runUncached() {
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                long date = mToday + day * DateUtils.DAY_IN_MILLIS;
+                formatFriendlyDay(mContext, date, day == 0);
+                formatFullFriendlyDay(mContext, date);
+            }
+        }
+    }
+
+    private void runCached() {
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                long date = mToday + day * DateUtils.DAY_IN_MILLIS;
+                DayLabelFormatter.getFriendlyDayString(mContext, date, day == 0);
+                DayLabelFormatter.getFullFriendlyDayString(mContext, date);
+            }
+        }
+    }
+
+    private void assertSameLabels(long date) {
+        assertEquals(formatFriendlyDay(mContext, date, true),
+                DayLabelFormatter.getFriendlyDayString(mContext, date, true));
+        assertEquals(formatFriendlyDay(mContext, date, false),
+                DayLabelFormatter.getFriendlyDayString(mContext, date, false));
+        assertEquals(formatFullFriendlyDay(mContext, date),
+                DayLabelFormatter.getFullFriendlyDayString(mContext, date));
+        assertEquals(formatDayName(mContext, date),
+                DayLabelFormatter.getDayName(mContext, date));
+        assertEquals(formatMonthDay(date),
+                DayLabelFormatter.getFormattedMonthDay(mContext, date));
+    }
+
+    // What Utility did before DayLabelFormatter, for comparison
+
+    private static String formatFriendlyDay(Context context, long dateInMillis,
+                                            boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today), formatMonthDay(dateInMillis));
+        } else if (julianDay < currentJulianDay + 7) {
+            return formatDayName(context, dateInMillis);
+        } else {
+            return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+        }
+    }
+
+    private static String formatFullFriendlyDay(Context context, long dateInMillis) {
+        return context.getString(R.string.format_full_friendly_date,
+                formatDayName(context, dateInMillis), formatMonthDay(dateInMillis));
+    }
+
+    private static String formatDayName(Context context, long dateInMillis) {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+    }
+
+    private static String formatMonthDay(long dateInMillis) {
+        return new SimpleDateFormat("MMMM dd").format(dateInMillis);
+    }
+}
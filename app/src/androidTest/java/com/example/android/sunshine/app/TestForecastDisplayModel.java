@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.ForecastSnapshotCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+public class TestForecastDisplayModel extends AndroidTestCase {
+
+    private static final String[] COLUMNS = {"date", "weather_id", "short_desc", "max", "min"};
+
+    private SharedPreferences mPrefs;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key), null);
+        setUnits(R.string.pref_units_metric);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mUnits == null) {
+            editor.remove(mContext.getString(R.string.pref_units_key));
+        } else {
+            editor.putString(mContext.getString(R.string.pref_units_key), mUnits);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    /*
+        The model has to show exactly what binding used to work out for itself.
+     */
+    public void testMatchesUtility() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{today, 800, "Clear", 21.4, 9.6});
+        cursor.addRow(new Object[]{today + DateUtils.DAY_IN_MILLIS, 501, "Rain", 18.0, 7.0});
+        cursor.addRow(new Object[]{today + 9 * DateUtils.DAY_IN_MILLIS, 211, "Storm", 25.0, 15.0});
+
+        ForecastDisplayModel model = ForecastDisplayModel.fromCursor(mContext, cursor, 0, 1, 2,
+                3, 4);
+        assertEquals(3, model.size());
+        for (int row = 0; row < model.size(); row++) {
+            assertTrue(cursor.moveToPosition(row));
+            long date = cursor.getLong(0);
+            int weatherId = cursor.getInt(1);
+            assertEquals(date, model.getDate(row));
+            assertEquals(Utility.getFriendlyDayString(mContext, date, false),
+                    model.getDayLabel(row, false));
+            assertEquals(Utility.getFriendlyDayString(mContext, date, true),
+                    model.getDayLabel(row, true));
+            assertEquals(cursor.getString(2), model.getShortDesc(row));
+            assertEquals(Utility.getStringForWeatherCondition(mContext, weatherId),
+                    model.getDescription(row));
+            assertEquals(Utility.formatTemperature(mContext, cursor.getDouble(3)),
+                    model.getHigh(row));
+            assertEquals(Utility.formatTemperature(mContext, cursor.getDouble(4)),
+                    model.getLow(row));
+            assertEquals(Utility.getIconResourceForWeatherCondition(weatherId),
+                    model.getIconResource(row));
+            assertEquals(Utility.getArtResourceForWeatherCondition(weatherId),
+                    model.getArtResource(row));
+        }
+    }
+
+    public void testUnitsChangeMakesModelStale() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{System.currentTimeMillis(), 800, "Clear", 20.0, 10.0});
+        ForecastDisplayModel metric = ForecastDisplayModel.fromCursor(mContext, cursor, 0, 1, 2,
+                3, 4);
+        assertTrue(metric.isCurrent(mContext));
+
+        setUnits(R.string.pref_units_imperial);
+        assertFalse(metric.isCurrent(mContext));
+        ForecastDisplayModel imperial = ForecastDisplayModel.fromCursor(mContext, cursor, 0, 1,
+                2, 3, 4);
+        assertFalse(metric.getHigh(0).equals(imperial.getHigh(0)));
+    }
+
+    public void testSnapshotModelIsReused() {
+        ForecastSnapshot snapshot = ForecastSnapshotCache.getInstance().get(mContext, "nowhere",
+                System.currentTimeMillis());
+        ForecastDisplayModel model = ForecastDisplayModel.forSnapshot(mContext, snapshot);
+        assertSame(model, ForecastDisplayModel.forSnapshot(mContext, snapshot));
+
+        setUnits(R.string.pref_units_imperial);
+        assertNotSame(model, ForecastDisplayModel.forSnapshot(mContext, snapshot));
+    }
+
+    private void setUnits(int unitsId) {
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(unitsId)).commit();
+        // The listener only hears of it once the main thread is free
+        SettingsSnapshot.refresh(mContext);
+    }
+}
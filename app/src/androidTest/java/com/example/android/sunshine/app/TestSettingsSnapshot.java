@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mUnits == null) {
+            editor.remove(mUnitsKey);
+        } else {
+            editor.putString(mUnitsKey, mUnits);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testSameSnapshotUntilChanged() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        assertSame(settings, SettingsSnapshot.get(mContext));
+        assertSame(settings, SettingsSnapshot.refresh(mContext));
+    }
+
+    public void testUnitsChangeMakesNewSnapshot() {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        SettingsSnapshot metric = SettingsSnapshot.refresh(mContext);
+        assertTrue(metric.isMetric());
+        assertTrue(Utility.isMetric(mContext));
+
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        SettingsSnapshot imperial = SettingsSnapshot.refresh(mContext);
+        assertNotSame(metric, imperial);
+        assertFalse(imperial.isMetric());
+        assertFalse(Utility.isMetric(mContext));
+        // The old snapshot is as it was
+        assertTrue(metric.isMetric());
+    }
+
+    /*
+        The location status changes with every sync, and mustn't look like a change of settings.
+     */
+    public void testOtherKeysKeepSnapshot() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        Utility.resetLocationStatus(mContext);
+        assertSame(settings, SettingsSnapshot.refresh(mContext));
+        mPrefs.edit().putInt(mContext.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_OK).commit();
+        assertSame(settings, SettingsSnapshot.refresh(mContext));
+    }
+}
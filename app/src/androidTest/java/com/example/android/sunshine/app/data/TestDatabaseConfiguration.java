@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TestDatabaseConfiguration extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDatabaseConfiguration.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "weather-configuration-test.db";
+
+    // Enough rows that the write transaction takes a good while on any device
+    private static final int LOCATION_COUNT = 5;
+    private static final int DAYS_PER_LOCATION = 1000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testConfigurationIsApplied() {
+        SQLiteDatabase db = open(new WeatherDbHelper.Configuration(true, 1, 4096));
+
+        assertEquals("wal", queryPragma(db, "journal_mode").toLowerCase());
+        assertEquals("1", queryPragma(db, "synchronous"));
+        assertEquals("-4096", queryPragma(db, "cache_size"));
+    }
+
+    public void testLocationLookups() {
+        SQLiteDatabase db = open(WeatherDbHelper.Configuration.fromResources(mContext));
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+
+        // Twice each, so the second goes through the already compiled statement
+        for (int i = 0; i < 2; i++) {
+            assertEquals(locationRowId, mHelper.queryLocationId(TestUtilities.TEST_LOCATION));
+            assertEquals(TestUtilities.TEST_LOCATION,
+                    mHelper.queryLocationSetting(locationRowId));
+        }
+        assertEquals(-1, mHelper.queryLocationId("nowhere"));
+        assertNull(mHelper.queryLocationSetting(locationRowId + 1));
+    }
+
+    /*
+        A sync writes a large batch in one transaction while the forecast list keeps querying.
+        With write-ahead logging the reads see the last committed state and carry on, so none of
+        them should have to wait out the whole write.  The rollback journal is measured too, and
+        logged for comparison.
+     */
+    public void testReadersAreNotBlockedByWriter() throws Throwable {
+        measureReadsDuringWrite(new WeatherDbHelper.Configuration(true, 1, 2048));
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        measureReadsDuringWrite(new WeatherDbHelper.Configuration(false, 2, 2048));
+    }
+
+    private void measureReadsDuringWrite(WeatherDbHelper.Configuration configuration)
+            throws Throwable {
+        final SQLiteDatabase db = open(configuration);
+        final long[] locationIds = new long[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "location" + i);
+            locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, location);
+        }
+
+        final long[] writeMillis = new long[1];
+        final Throwable[] writeFailure = new Throwable[1];
+        Thread writer = new Thread("TestDatabaseConfiguration writer") {
+            @Override
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    db.beginTransaction();
+                    try {
+                        for (long locationId : locationIds) {
+                            ContentValues values = TestUtilities.createWeatherValues(locationId);
+                            for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                                values.put(WeatherEntry.COLUMN_DATE,
+                                        TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                                db.insert(WeatherEntry.TABLE_NAME, null, values);
+                            }
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    writeMillis[0] = (System.nanoTime() - start) / 1000000;
+                } catch (Throwable t) {
+                    writeFailure[0] = t;
+                }
+            }
+        };
+
+        String sql = WeatherProvider.buildWeatherByLocationSettingQuery(null,
+                WeatherProvider.sLocationSettingSelection, WeatherEntry.COLUMN_DATE + " ASC");
+        List<Long> latencies = new ArrayList<Long>();
+        writer.start();
+        while (writer.isAlive()) {
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery(sql, new String[]{"location0"});
+            cursor.getCount();
+            cursor.close();
+            latencies.add((System.nanoTime() - start) / 1000000);
+        }
+        writer.join();
+        if (writeFailure[0] != null) {
+            throw writeFailure[0];
+        }
+
+        Collections.sort(latencies);
+        long worst = latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1);
+        long median = latencies.isEmpty() ? 0 : latencies.get(latencies.size() / 2);
+        Log.i(LOG_TAG, (configuration.writeAheadLogging ? "WAL" : "rollback journal") +
+                ": wrote " + LOCATION_COUNT * DAYS_PER_LOCATION + " rows in " + writeMillis[0] +
+                "ms, " + latencies.size() + " reads meanwhile, median " + median +
+                "ms, worst " + worst + "ms");
+
+        if (configuration.writeAheadLogging) {
+            assertTrue("Error: only " + latencies.size() + " reads ran during the write",
+                    latencies.size() > 1);
+            assertTrue("Error: a read waited " + worst + "ms for a " + writeMillis[0] +
+                    "ms write", worst < writeMillis[0]);
+        }
+    }
+
+    private SQLiteDatabase open(WeatherDbHelper.Configuration configuration) {
+        mHelper = new WeatherDbHelper(mContext, DATABASE_NAME, configuration);
+        return mHelper.getWritableDatabase();
+    }
+
+    private static String queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastBatch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBatch.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // From a single forecast up to a multi-city history import
+    private static final int[] BENCHMARK_SIZES = {14, 140, 1400, 5000};
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testParcelRoundTrip() {
+        // More rows than the starting capacity, so the arrays have to grow, and rows naming
+        // their location both ways
+        ForecastBatch batch = createBatch(mLocationRowId, 40);
+        batch.addAll(createBatch(TestUtilities.TEST_LOCATION, 3));
+        assertEquals(43, batch.size());
+
+        Parcel parcel = Parcel.obtain();
+        batch.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        ForecastBatch copy = ForecastBatch.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertEquals(batch.size(), copy.size());
+        for (int row = 0; row < batch.size(); row++) {
+            assertEquals(batch.getLocationId(row), copy.getLocationId(row));
+            assertEquals(batch.getLocationSetting(row), copy.getLocationSetting(row));
+            assertEquals(batch.getDate(row), copy.getDate(row));
+            assertEquals(batch.getWeatherId(row), copy.getWeatherId(row));
+            assertEquals(batch.getShortDesc(row), copy.getShortDesc(row));
+            assertEquals(batch.getMinTemp(row), copy.getMinTemp(row));
+            assertEquals(batch.getMaxTemp(row), copy.getMaxTemp(row));
+            assertEquals(batch.getHumidity(row), copy.getHumidity(row));
+            assertEquals(batch.getPressure(row), copy.getPressure(row));
+            assertEquals(batch.getWindSpeed(row), copy.getWindSpeed(row));
+            assertEquals(batch.getDegrees(row), copy.getDegrees(row));
+        }
+
+        batch.clear();
+        assertEquals(0, batch.size());
+    }
+
+    /*
+        The batch should end up stored exactly as bulkInsert would have stored the same rows.
+     */
+    public void testInsertMatchesBulkInsert() {
+        ContentValues[] values = createValues(mLocationRowId, 14);
+        assertEquals(14, insertBatch(createBatch(mLocationRowId, 14)));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(values.length, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(values[i].getAsLong(WeatherEntry.COLUMN_DATE)));
+            TestUtilities.validateCurrentRecord("Error validating batch row " + i,
+                    cursor, values[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        Rows naming their location by setting are stored under that location's id.
+     */
+    public void testInsertByLocationSetting() {
+        assertEquals(14, insertBatch(createBatch(TestUtilities.TEST_LOCATION, 14)));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_LOC_KEY}, null, null, null);
+        assertEquals(14, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals(mLocationRowId, cursor.getLong(0));
+        }
+        cursor.close();
+    }
+
+    public void testInsertUnknownLocationSettingFails() {
+        try {
+            insertBatch(createBatch("nowhere", 3));
+            fail("Inserted weather for a location that isn't stored");
+        } catch (IllegalArgumentException expected) {
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testInsertNotifiesOnce() throws Throwable {
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                observer);
+
+        insertBatch(createBatch(mLocationRowId, 14));
+
+        // Give a second notification time to show up before counting
+        Thread.sleep(500);
+        observer.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(observer);
+        assertEquals(1, observer.mChangeCount);
+    }
+
+    /*
+        A sync's commit with the weather as a batch: rows name their location by setting, and
+        only the days that differ from what's stored are written.
+     */
+    public void testCommitForecastBatch() {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        Bundle counts = commitForecast(location, createBatch(TestUtilities.TEST_LOCATION, 14));
+        assertEquals(14, counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(14, cursor.getCount());
+        cursor.close();
+
+        ForecastBatch changed = new ForecastBatch();
+        ForecastBatch original = createBatch(TestUtilities.TEST_LOCATION, 14);
+        for (int row = 0; row < original.size(); row++) {
+            changed.add(TestUtilities.TEST_LOCATION, original.getDate(row),
+                    original.getWeatherId(row), original.getShortDesc(row),
+                    original.getMinTemp(row),
+                    row == 3 ? 99 : original.getMaxTemp(row),
+                    original.getHumidity(row), original.getPressure(row),
+                    original.getWindSpeed(row), original.getDegrees(row));
+        }
+        counts = commitForecast(location, changed);
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT));
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_CHANGED_COUNT));
+        assertEquals(13, counts.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT));
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        WeatherContract.normalizeDate(changed.getDate(3))),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(99.0, cursor.getDouble(0));
+        cursor.close();
+    }
+
+    /*
+        Rows per second through bulkInsert with ContentValues, and through a ForecastBatch, for
+        each batch size.  Building the rows is part of what's timed, since not having to build
+        a map per row is half the point.
+     */
+    public void testInsertThroughput() {
+        for (int size : BENCHMARK_SIZES) {
+            deleteWeather();
+            long start = System.nanoTime();
+            int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    createValues(mLocationRowId, size));
+            long valuesNanos = System.nanoTime() - start;
+            assertEquals(size, inserted);
+
+            deleteWeather();
+            start = System.nanoTime();
+            inserted = insertBatch(createBatch(mLocationRowId, size));
+            long batchNanos = System.nanoTime() - start;
+            assertEquals(size, inserted);
+
+            Log.i(LOG_TAG, size + " rows: ContentValues " + rowsPerSecond(size, valuesNanos) +
+                    " rows/s, ForecastBatch " + rowsPerSecond(size, batchNanos) + " rows/s");
+        }
+    }
+
+    private int insertBatch(ForecastBatch batch) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_BATCH, batch);
+        Bundle counts = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_INSERT_WEATHER, null, extras);
+        return counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT);
+    }
+
+    private Bundle commitForecast(ContentValues location, ForecastBatch batch) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_LOCATIONS, new ContentValues[]{location});
+        extras.putParcelable(WeatherContract.EXTRA_BATCH, batch);
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMMIT_FORECAST, null, extras);
+    }
+
+    private static ForecastBatch createBatch(String locationSetting, int days) {
+        ForecastBatch batch = new ForecastBatch();
+        for (int i = 0; i < days; i++) {
+            batch.add(locationSetting, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, 321,
+                    "Asteroids", 65 + i, 75 + i, 1.2, 1.3 + i, 5.5 + i, 1.1 + i);
+        }
+        return batch;
+    }
+
+    private static ForecastBatch createBatch(long locationRowId, int days) {
+        ForecastBatch batch = new ForecastBatch();
+        for (int i = 0; i < days; i++) {
+            batch.add(locationRowId, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, 321,
+                    "Asteroids", 65 + i, 75 + i, 1.2, 1.3 + i, 5.5 + i, 1.1 + i);
+        }
+        return batch;
+    }
+
+    // The same rows as createBatch
+    private static ContentValues[] createValues(long locationRowId, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues value = new ContentValues();
+            value.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            value.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            value.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            value.put(WeatherEntry.COLUMN_MIN_TEMP, 65.0 + i);
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0 + i);
+            value.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            value.put(WeatherEntry.COLUMN_PRESSURE, 1.3 + i);
+            value.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5 + i);
+            value.put(WeatherEntry.COLUMN_DEGREES, 1.1 + i);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return rows * 1000000000L / Math.max(nanos, 1);
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private void deleteAllRecords() {
+        deleteWeather();
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                null, null);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastSnapshotCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSnapshotCache.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_READS = 500;
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] days = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            days[day] = TestUtilities.createWeatherValues(locationRowId);
+            days[day].put(WeatherEntry.COLUMN_DATE, mToday + day * DateUtils.DAY_IN_MILLIS);
+            days[day].put(WeatherEntry.COLUMN_MAX_TEMP, 70 + day);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    public void testSecondReadIsAHit() {
+        ForecastSnapshotCache cache = new ForecastSnapshotCache();
+        ForecastSnapshot first = cache.get(mContext, TestUtilities.TEST_LOCATION, mToday);
+        assertEquals(DAYS, first.size());
+        assertEquals(mToday, first.getDate(0));
+        assertEquals(70.0, first.getMaxTemp(0));
+        assertEquals("Asteroids", first.getShortDesc(0));
+
+        assertSame(first, cache.get(mContext, TestUtilities.TEST_LOCATION, mToday));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testOtherLocationIsAMiss() {
+        ForecastSnapshotCache cache = new ForecastSnapshotCache();
+        cache.get(mContext, TestUtilities.TEST_LOCATION, mToday);
+        assertTrue(cache.get(mContext, "nowhere", mToday).isEmpty());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /*
+        Once the day turns over the cached snapshot still has everything asked for, minus
+        yesterday.
+     */
+    public void testLaterDayIsTrimmedFromCache() {
+        ForecastSnapshotCache cache = new ForecastSnapshotCache();
+        cache.get(mContext, TestUtilities.TEST_LOCATION, mToday);
+
+        long tomorrow = mToday + DateUtils.DAY_IN_MILLIS;
+        ForecastSnapshot snapshot = cache.get(mContext, TestUtilities.TEST_LOCATION, tomorrow);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(DAYS - 1, snapshot.size());
+        assertEquals(tomorrow, snapshot.getDate(0));
+        assertEquals(71.0, snapshot.getMaxTemp(0));
+
+        // An earlier day than the snapshot starts from has to be read again
+        cache.get(mContext, TestUtilities.TEST_LOCATION, mToday);
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /*
+        The provider invalidates the process's cache on every write, so the next read sees it.
+     */
+    public void testProviderWriteInvalidates() {
+        ForecastSnapshotCache cache = ForecastSnapshotCache.getInstance();
+        cache.get(mContext, TestUtilities.TEST_LOCATION, mToday);
+        long misses = cache.getMissCount();
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(mToday)});
+
+        ForecastSnapshot snapshot = cache.get(mContext, TestUtilities.TEST_LOCATION, mToday);
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(99.0, snapshot.getMaxTemp(0));
+    }
+
+    public void testRowOutOfRangeThrows() {
+        ForecastSnapshot snapshot = ForecastSnapshot.empty(TestUtilities.TEST_LOCATION, mToday);
+        try {
+            snapshot.getWeatherId(0);
+            fail("Read a row of an empty snapshot");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    /*
+        Average time to get today's forecast the way the widgets used to, with a query and a
+        walk over the cursor, and from the cache.
+     */
+    public void testReadLatency() {
+        long start = System.nanoTime();
+        double sum = 0;
+        for (int i = 0; i < BENCHMARK_READS; i++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithStartDate(
+                            TestUtilities.TEST_LOCATION, mToday),
+                    ForecastSnapshot.COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            while (cursor.moveToNext()) {
+                sum += cursor.getDouble(4);
+            }
+            cursor.close();
+        }
+        long cursorNanos = System.nanoTime() - start;
+
+        ForecastSnapshotCache cache = new ForecastSnapshotCache();
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_READS; i++) {
+            ForecastSnapshot snapshot = cache.get(mContext, TestUtilities.TEST_LOCATION, mToday);
+            for (int row = 0; row < snapshot.size(); row++) {
+                sum -= snapshot.getMaxTemp(row);
+            }
+        }
+        long cacheNanos = System.nanoTime() - start;
+
+        // Both read the same days
+        assertEquals(0.0, sum);
+        assertEquals(BENCHMARK_READS - 1, cache.getHitCount());
+        Log.i(LOG_TAG, DAYS + " days: cursor " + cursorNanos / BENCHMARK_READS / 1000 +
+                " us/read, snapshot cache " + cacheNanos / BENCHMARK_READS / 1000 + " us/read");
+    }
+}
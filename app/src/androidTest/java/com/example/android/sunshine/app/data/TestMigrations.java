@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+    Builds databases the way older versions of the app left them, then opens them with the
+    current WeatherDbHelper and checks what survived the upgrade.
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    private static final String FIXTURE_NAME = "weather-migration-test.db";
+    private static final String FRESH_NAME = "weather-migration-fresh.db";
+
+    // The schema as version 2 created it, kept verbatim: it must not follow later changes
+    private static final String[] SCHEMA_V2 = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                    "coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL,  FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                    " UNIQUE (date, location_id) ON CONFLICT REPLACE);",
+    };
+
+    // A version that predates every migration step
+    private static final String[] SCHEMA_V1 = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT);",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY, location_id INTEGER, date TEXT);",
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(FIXTURE_NAME);
+        mContext.deleteDatabase(FRESH_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(FIXTURE_NAME);
+        mContext.deleteDatabase(FRESH_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeFromV2KeepsRows() {
+        SQLiteDatabase fixture = createFixture(2, SCHEMA_V2);
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = fixture.insert(LocationEntry.TABLE_NAME, null, locationValues);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        fixture.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        fixture.close();
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext, FIXTURE_NAME).getWritableDatabase();
+        try {
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: location lost in the upgrade from v2",
+                    cursor, locationValues);
+            cursor.close();
+
+            cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: weather lost in the upgrade from v2",
+                    cursor, weatherValues);
+            cursor.close();
+
+            assertTrue("Error: the location/date index wasn't added",
+                    describeSchema(db).containsKey("index " +
+                            WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+        } finally {
+            db.close();
+        }
+    }
+
+    /*
+        Whatever path a database takes to the current version, it should end up with exactly
+        the tables, columns and indexes a fresh install gets.
+     */
+    public void testUpgradeFromV2MatchesFreshSchema() {
+        createFixture(2, SCHEMA_V2).close();
+
+        SQLiteDatabase migrated = new WeatherDbHelper(mContext, FIXTURE_NAME)
+                .getReadableDatabase();
+        SQLiteDatabase fresh = new WeatherDbHelper(mContext, FRESH_NAME).getReadableDatabase();
+        try {
+            assertEquals(describeSchema(fresh), describeSchema(migrated));
+        } finally {
+            migrated.close();
+            fresh.close();
+        }
+    }
+
+    public void testUpgradeWithoutMigrationRecreates() {
+        SQLiteDatabase fixture = createFixture(1, SCHEMA_V1);
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION);
+        fixture.insert(LocationEntry.TABLE_NAME, null, values);
+        fixture.close();
+
+        SQLiteDatabase migrated = new WeatherDbHelper(mContext, FIXTURE_NAME)
+                .getReadableDatabase();
+        SQLiteDatabase fresh = new WeatherDbHelper(mContext, FRESH_NAME).getReadableDatabase();
+        try {
+            assertEquals(describeSchema(fresh), describeSchema(migrated));
+            Cursor cursor = migrated.query(LocationEntry.TABLE_NAME, null, null, null,
+                    null, null, null);
+            assertEquals("Error: the unmigratable database should start empty",
+                    0, cursor.getCount());
+            cursor.close();
+        } finally {
+            migrated.close();
+            fresh.close();
+        }
+    }
+
+    public void testMigrationsCoverEveryVersion() {
+        TreeSet<Integer> versions = new TreeSet<Integer>();
+        for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+            assertTrue("Error: two migrations from version " + migration.fromVersion,
+                    versions.add(migration.fromVersion));
+        }
+        int current = new WeatherDbHelper(mContext, FRESH_NAME).getReadableDatabase()
+                .getVersion();
+        assertEquals("Error: no migration to the current version",
+                current - 1, (int) versions.last());
+        assertEquals("Error: gap in the migrations",
+                versions.last() - versions.first() + 1, versions.size());
+    }
+
+    private SQLiteDatabase createFixture(int version, String[] schema) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(FIXTURE_NAME, 0, null);
+        for (String sql : schema) {
+            db.execSQL(sql);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    /**
+     * @return every table's columns, with their types and constraints, and every index's
+     *         columns, keyed by "table name" and "index name"
+     */
+    private static TreeMap<String, String> describeSchema(SQLiteDatabase db) {
+        TreeMap<String, String> schema = new TreeMap<String, String>();
+        Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master " +
+                "WHERE type IN ('table', 'index') AND name NOT LIKE 'sqlite_%' " +
+                "AND name != 'android_metadata'", null);
+        while (objects.moveToNext()) {
+            String type = objects.getString(0);
+            String name = objects.getString(1);
+            StringBuilder description = new StringBuilder();
+            Cursor info = db.rawQuery("PRAGMA " + ("table".equals(type) ? "table_info" :
+                    "index_info") + "(" + name + ")", null);
+            while (info.moveToNext()) {
+                for (int i = 0; i < info.getColumnCount(); i++) {
+                    description.append(info.getString(i)).append(' ');
+                }
+                description.append('\n');
+            }
+            info.close();
+            schema.put(type + " " + name, description.toString());
+        }
+        objects.close();
+        return schema;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestNotificationCoalescer extends AndroidTestCase {
+
+    private static final long WINDOW_MILLIS = 200;
+    // Long enough for the window to pass and the notifications to be delivered
+    private static final long SETTLE_MILLIS = WINDOW_MILLIS + 800;
+
+    private static final String LOCATION_A = "coalescer-a";
+    private static final String LOCATION_B = "coalescer-b";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long DATE = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+    private HandlerThread mThread;
+    private NotificationCoalescer mCoalescer;
+    private TestUtilities.TestContentObserver mRootObserver;
+    private TestUtilities.TestContentObserver mLocationAObserver;
+    private TestUtilities.TestContentObserver mLocationBDayObserver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("TestNotificationCoalescer");
+        mThread.start();
+        ContentResolver resolver = mContext.getContentResolver();
+        mCoalescer = new NotificationCoalescer(resolver, new Handler(mThread.getLooper()),
+                WINDOW_MILLIS);
+
+        // Only hears about the root itself, not about any location under it
+        mRootObserver = register(WeatherEntry.CONTENT_URI, false);
+        mLocationAObserver = register(WeatherEntry.buildWeatherLocation(LOCATION_A), true);
+        mLocationBDayObserver = register(
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_B, DATE), false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.unregisterContentObserver(mRootObserver);
+        resolver.unregisterContentObserver(mLocationAObserver);
+        resolver.unregisterContentObserver(mLocationBDayObserver);
+        mRootObserver.mHT.quit();
+        mLocationAObserver.mHT.quit();
+        mLocationBDayObserver.mHT.quit();
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testBatchIsNotifiedPerLocation() throws Throwable {
+        mCoalescer.beginBatch();
+        mCoalescer.weatherChanged(LOCATION_A, DATE);
+        mCoalescer.weatherChanged(LOCATION_A, DATE + DAY_IN_MILLIS);
+        mCoalescer.weatherChanged(LOCATION_B, DATE);
+        mCoalescer.weatherChanged(LOCATION_B, DATE);
+
+        // Nested batches don't flush on their own
+        mCoalescer.beginBatch();
+        mCoalescer.endBatch();
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals("Error: notified before the batch ended", 0, mLocationAObserver.mChangeCount);
+
+        mCoalescer.endBatch();
+        Thread.sleep(SETTLE_MILLIS);
+
+        assertEquals("Error: two days of one location should be one notification",
+                1, mLocationAObserver.mChangeCount);
+        assertEquals("Error: a single day should be notified on its own uri",
+                1, mLocationBDayObserver.mChangeCount);
+        assertEquals("Error: the weather root should not be notified",
+                0, mRootObserver.mChangeCount);
+    }
+
+    public void testChangesOutsideBatchWaitForWindow() throws Throwable {
+        for (int i = 0; i < 5; i++) {
+            mCoalescer.weatherChanged(LOCATION_A, DATE + i * DAY_IN_MILLIS);
+        }
+        Thread.sleep(SETTLE_MILLIS);
+
+        assertEquals("Error: changes inside one window should be one notification",
+                1, mLocationAObserver.mChangeCount);
+        assertEquals(0, mRootObserver.mChangeCount);
+    }
+
+    public void testRootChangeCoversLocations() throws Throwable {
+        mCoalescer.beginBatch();
+        mCoalescer.weatherChanged(LOCATION_A, DATE);
+        mCoalescer.uriChanged(WeatherEntry.CONTENT_URI);
+        mCoalescer.endBatch();
+        Thread.sleep(SETTLE_MILLIS);
+
+        assertEquals(1, mRootObserver.mChangeCount);
+        assertEquals("Error: the location was told twice", 1, mLocationAObserver.mChangeCount);
+    }
+
+    private TestUtilities.TestContentObserver register(Uri uri, boolean notifyForDescendants) {
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(uri, notifyForDescendants, observer);
+        return observer;
+    }
+}
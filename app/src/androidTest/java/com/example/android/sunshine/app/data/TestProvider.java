@@ -24,11 +24,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.Arrays;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -512,4 +516,329 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Upserting the same forecast twice should leave every row alone the second time, and
+    // changing a couple of days should only touch those days.
+    public void testBulkUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        Bundle counts = upsertWeather(createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT));
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_CHANGED_COUNT));
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT));
+
+        long[] rowIds = getWeatherRowIds();
+
+        counts = upsertWeather(createBulkInsertWeatherValues(locationRowId));
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT));
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_CHANGED_COUNT));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, counts.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT));
+
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[2].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        changedValues[7].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        counts = upsertWeather(changedValues);
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT));
+        assertEquals(2, counts.getInt(WeatherContract.EXTRA_CHANGED_COUNT));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 2, counts.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT));
+
+        // Changed rows are updated in place rather than replaced, so no row ids move
+        long[] upsertedRowIds = getWeatherRowIds();
+        assertEquals(rowIds.length, upsertedRowIds.length);
+        for (int i = 0; i < rowIds.length; i++) {
+            assertEquals("Error: row " + i + " was rewritten", rowIds[i], upsertedRowIds[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testBulkUpsert.  Error validating WeatherEntry " + i,
+                    cursor, changedValues[i]);
+        }
+        cursor.close();
+
+        // The upsert flavor of bulkInsert reports how many rows it wrote: going back to the
+        // original values only rewrites the two days we changed above
+        assertEquals(2, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherUpsertUri(), createBulkInsertWeatherValues(locationRowId)));
+    }
+
+    /*
+        The provider's methods all need extras, and inserting a batch needs the batch; a call
+        without them is refused rather than failing part way through.
+     */
+    public void testCallWithoutExtrasRejected() {
+        String[] methods = {
+                WeatherContract.METHOD_UPSERT_WEATHER,
+                WeatherContract.METHOD_COMMIT_FORECAST,
+                WeatherContract.METHOD_APPLY_RETENTION,
+                WeatherContract.METHOD_INSERT_WEATHER
+        };
+        for (String method : methods) {
+            try {
+                mContext.getContentResolver().call(WeatherEntry.CONTENT_URI, method, null, null);
+                fail("Error: " + method + " accepted null extras");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_INSERT_WEATHER, null, new Bundle());
+            fail("Error: " + WeatherContract.METHOD_INSERT_WEATHER + " accepted no batch");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /*
+        A whole sync in one call: the location is added on the way in, the weather rows refer
+        to it by location setting, and stale weather is pruned in the same transaction.
+     */
+    public void testCommitForecast() throws Exception {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        Bundle counts = commitForecast(location, createCommitWeatherValues(), null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT));
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_DELETED_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: commit should have added exactly one location", 1, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testCommitForecast.  Error validating LocationEntry",
+                cursor, location);
+        long locationRowId = cursor.getLong(cursor.getColumnIndex(LocationEntry._ID));
+        cursor.close();
+
+        // A day from before the forecast, which the next commit should prune
+        ContentValues staleValues = TestUtilities.createWeatherValues(locationRowId);
+        staleValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 10 * DAY_IN_MILLIS);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, staleValues);
+
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, observer);
+
+        ContentValues[] changedValues = createCommitWeatherValues();
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        counts = commitForecast(location, changedValues, TestUtilities.TEST_DATE - DAY_IN_MILLIS);
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT));
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_CHANGED_COUNT));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, counts.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT));
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_DELETED_COUNT));
+
+        // Give a second notification time to show up before counting
+        Thread.sleep(500);
+        observer.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(observer);
+        assertEquals("Error: a commit should notify observers exactly once",
+                1, observer.mChangeCount);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the location should have been reused", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A summary over part of the forecast, and the same summary after a day in it changes, which
+        must not come back from the provider's result cache.
+     */
+    public void testWeatherSummary() {
+        long locationRowId = insertBulkWeather(null);
+        Uri summaryUri = WeatherEntry.buildWeatherSummary(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE + 2 * DAY_IN_MILLIS,
+                TestUtilities.TEST_DATE + 5 * DAY_IN_MILLIS);
+        String[] projection = {WeatherEntry.COLUMN_DAY_COUNT, WeatherEntry.COLUMN_LOW,
+                WeatherEntry.COLUMN_HIGH, WeatherEntry.COLUMN_AVERAGE_HIGH,
+                WeatherEntry.COLUMN_FIRST_DATE};
+
+        Cursor cursor = mContext.getContentResolver().query(summaryUri, projection,
+                null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(4, cursor.getInt(0));
+        assertEquals(60.0, cursor.getDouble(1));
+        assertEquals(80.0, cursor.getDouble(2));
+        assertEquals(78.5, cursor.getDouble(3));
+        assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 2 * DAY_IN_MILLIS),
+                cursor.getLong(4));
+        cursor.close();
+
+        ContentValues hotter = new ContentValues();
+        hotter.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, hotter,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(locationRowId), Long.toString(
+                        WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 3 * DAY_IN_MILLIS))});
+
+        cursor = mContext.getContentResolver().query(summaryUri, projection, null, null, null);
+        cursor.moveToFirst();
+        assertEquals("Error: summary served from the cache after the weather changed",
+                99.0, cursor.getDouble(2));
+        cursor.close();
+
+        // A location with no weather still gets its one row
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherSummary("nowhere", 0, TestUtilities.TEST_DATE),
+                projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.getInt(0));
+        cursor.close();
+    }
+
+    /*
+        A next query's condition matches the days the app shows with its kinds of icon, so the
+        provider and WeatherConditions can't disagree about what a day's weather is.
+     */
+    public void testConditionsFollowWeatherConditions() {
+        assertConditionHas(WeatherEntry.CONDITION_SNOW, 511, true);
+        assertConditionHas(WeatherEntry.CONDITION_RAIN, 511, false);
+        assertConditionHas(WeatherEntry.CONDITION_RAIN, 211, false);
+        assertConditionHas(WeatherEntry.CONDITION_STORM, 211, true);
+        assertConditionHas(WeatherEntry.CONDITION_STORM, 781, true);
+        assertConditionHas(WeatherEntry.CONDITION_FOG, 741, true);
+        assertConditionHas(WeatherEntry.CONDITION_CLOUDS, 801, true);
+
+        String[] conditions = {WeatherEntry.CONDITION_STORM, WeatherEntry.CONDITION_RAIN,
+                WeatherEntry.CONDITION_SNOW, WeatherEntry.CONDITION_FOG,
+                WeatherEntry.CONDITION_CLEAR, WeatherEntry.CONDITION_CLOUDS};
+        for (int weatherId = 0; weatherId <= WeatherConditions.MAX_ID; weatherId++) {
+            int matches = 0;
+            for (String condition : conditions) {
+                if (Arrays.binarySearch(
+                        WeatherProvider.getConditionWeatherIds(condition), weatherId) >= 0) {
+                    matches++;
+                }
+            }
+            assertEquals("Error: conditions matching weather id " + weatherId,
+                    WeatherConditions.getKind(weatherId) == WeatherConditions.KIND_UNKNOWN ? 0 : 1,
+                    matches);
+        }
+    }
+
+    private static void assertConditionHas(String condition, int weatherId, boolean expected) {
+        assertEquals("Error: " + condition + " and weather id " + weatherId, expected,
+                Arrays.binarySearch(WeatherProvider.getConditionWeatherIds(condition),
+                        weatherId) >= 0);
+    }
+
+    public void testNextMatchingWeather() {
+        insertBulkWeather(new int[]{321, 321, 321, 321, 601, 321, 800, 321, 601, 321});
+        String[] projection = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_WEATHER_ID};
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherNext(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + 5 * DAY_IN_MILLIS,
+                        WeatherEntry.CONDITION_SNOW),
+                projection, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 8 * DAY_IN_MILLIS),
+                cursor.getLong(0));
+        assertEquals(601, cursor.getInt(1));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherNext(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, WeatherEntry.CONDITION_STORM),
+                projection, null, null, null);
+        assertEquals("Error: no day has a thunderstorm", 0, cursor.getCount());
+        cursor.close();
+
+        try {
+            mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherNext(TestUtilities.TEST_LOCATION,
+                            TestUtilities.TEST_DATE, "locusts"),
+                    projection, null, null, null);
+            fail("Error: an unknown condition should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testWeatherDateRange() {
+        insertBulkWeather(null);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + DAY_IN_MILLIS,
+                        TestUtilities.TEST_DATE + 3 * DAY_IN_MILLIS),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(3, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE + DAY_IN_MILLIS),
+                cursor.getLong(0));
+        cursor.close();
+    }
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Ten days of weather for the test location, from TEST_DATE on, optionally with the given
+    // weather ids
+    private long insertBulkWeather(int[] weatherIds) {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        for (int i = 0; weatherIds != null && i < values.length; i++) {
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+        }
+        assertEquals(values.length,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+        return locationRowId;
+    }
+
+    private static ContentValues[] createCommitWeatherValues() {
+        ContentValues[] values = createBulkInsertWeatherValues(0);
+        for (ContentValues value : values) {
+            value.remove(WeatherEntry.COLUMN_LOC_KEY);
+            value.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION);
+        }
+        return values;
+    }
+
+    private Bundle commitForecast(ContentValues location, ContentValues[] values, Long pruneDate) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_LOCATIONS, new ContentValues[]{location});
+        extras.putParcelableArray(WeatherContract.EXTRA_VALUES, values);
+        if (pruneDate != null) {
+            extras.putLong(WeatherContract.EXTRA_PRUNE_DATE, pruneDate);
+        }
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMMIT_FORECAST, null, extras);
+    }
+
+    private Bundle upsertWeather(ContentValues[] values) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_VALUES, values);
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_WEATHER, null, extras);
+    }
+
+    private long[] getWeatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return rowIds;
+    }
 }
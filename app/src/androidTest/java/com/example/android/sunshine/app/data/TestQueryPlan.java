@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on every query shape WeatherProvider issues, and fails if SQLite
+    would answer any of them by walking a whole table.
+ */
+public class TestQueryPlan extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlan.class.getSimpleName();
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    // "weather/*", as ForecastFragment and the widgets sort it
+    public void testWeatherByLocationSetting() {
+        List<String> plan = explain(WeatherProvider.buildWeatherByLocationSettingQuery(null,
+                WeatherProvider.sLocationSettingSelection, SORT_BY_DATE),
+                TestUtilities.TEST_LOCATION);
+        assertNoTableScan(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        assertNoSort(plan);
+    }
+
+    // "weather/*?date=", the forecast from today on
+    public void testWeatherByLocationSettingWithStartDate() {
+        List<String> plan = explain(WeatherProvider.buildWeatherByLocationSettingQuery(null,
+                WeatherProvider.sLocationSettingWithStartDateSelection, SORT_BY_DATE),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+        assertNoTableScan(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        assertNoSort(plan);
+    }
+
+    // "weather/*/#", a single day
+    public void testWeatherByLocationSettingAndDate() {
+        List<String> plan = explain(WeatherProvider.buildWeatherByLocationSettingQuery(null,
+                WeatherProvider.sLocationSettingAndDaySelection, null),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+        assertNoTableScan(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+    }
+
+    // "weather/*?date=&end_date=", a window of days
+    public void testWeatherByLocationSettingWithDateRange() {
+        List<String> plan = explain(WeatherProvider.buildWeatherByLocationSettingQuery(null,
+                WeatherProvider.sLocationSettingWithDateRangeSelection, SORT_BY_DATE),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE),
+                Long.toString(TestUtilities.TEST_DATE));
+        assertNoTableScan(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        assertNoSort(plan);
+    }
+
+    // "weather/*/summary", aggregated over a window of days
+    public void testWeatherSummary() {
+        List<String> plan = explain(WeatherProvider.buildWeatherSummaryQuery(null),
+                "1", Long.toString(TestUtilities.TEST_DATE), Long.toString(TestUtilities.TEST_DATE));
+        assertNoTableScan(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+    }
+
+    // "weather/*/next", the first matching day from a date on
+    public void testNextMatchingWeather() {
+        List<String> plan = explain("SELECT * FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherProvider.getNextMatchingSelection(WeatherEntry.CONDITION_RAIN) +
+                " ORDER BY " + SORT_BY_DATE + " LIMIT 1",
+                "1", Long.toString(TestUtilities.TEST_DATE));
+        assertNoTableScan(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        assertNoSort(plan);
+    }
+
+    // The upsert's lookup of the stored row for a day
+    public void testWeatherByDateAndLocationId() {
+        assertNoTableScan(explain("SELECT * FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherProvider.sWeatherDateAndLocationSelection + " LIMIT 1",
+                Long.toString(TestUtilities.TEST_DATE), "1"));
+    }
+
+    // Pruning the days before today
+    public void testWeatherOnOrBeforeDate() {
+        assertNoTableScan(explain("SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + " FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherProvider.sWeatherOnOrBeforeDateSelection,
+                Long.toString(TestUtilities.TEST_DATE)));
+    }
+
+    // Finding a location by its setting, and by its id
+    public void testLocationLookups() {
+        assertNoTableScan(explain("SELECT * FROM " + LocationEntry.TABLE_NAME + " WHERE " +
+                WeatherProvider.sLocationSettingOnlySelection + " LIMIT 1",
+                TestUtilities.TEST_LOCATION));
+        assertNoTableScan(explain("SELECT * FROM " + LocationEntry.TABLE_NAME + " WHERE " +
+                WeatherProvider.sLocationIdSelection, "1"));
+    }
+
+    private List<String> explain(String sql, String... selectionArgs) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        List<String> plan = new ArrayList<String>();
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        Log.d(LOG_TAG, sql + " -> " + plan);
+        return plan;
+    }
+
+    private static void assertNoTableScan(List<String> plan) {
+        assertFalse("Error: empty query plan", plan.isEmpty());
+        for (String step : plan) {
+            // Older SQLite says "SCAN TABLE weather", newer just "SCAN weather"; either way
+            // only SEARCH steps are allowed
+            assertFalse("Error: full scan in query plan " + plan, step.startsWith("SCAN"));
+        }
+    }
+
+    private static void assertUsesIndex(List<String> plan, String index) {
+        for (String step : plan) {
+            if (step.contains(WeatherEntry.TABLE_NAME + " USING") && step.contains(index)) {
+                return;
+            }
+        }
+        fail("Error: " + index + " not used by query plan " + plan);
+    }
+
+    private static void assertNoSort(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Error: rows are sorted instead of read in index order " + plan,
+                    step.contains("TEMP B-TREE"));
+        }
+    }
+}
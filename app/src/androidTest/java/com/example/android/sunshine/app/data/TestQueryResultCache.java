@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+public class TestQueryResultCache extends AndroidTestCase {
+
+    private static final String[] COLUMNS = {"day_count", "high"};
+
+    public void testHitAfterPut() {
+        QueryResultCache cache = new QueryResultCache(4);
+        assertNull(cache.get("a"));
+
+        Cursor copy = cache.put("a", cache.generation(), createCursor(14, 80.5));
+        assertRow(copy, 14, 80.5);
+        assertRow(cache.get("a"), 14, 80.5);
+        // Every hit gets a cursor of its own
+        assertRow(cache.get("a"), 14, 80.5);
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testInvalidateDropsResults() {
+        QueryResultCache cache = new QueryResultCache(4);
+        cache.put("a", cache.generation(), createCursor(14, 80.5)).close();
+        cache.invalidate();
+        assertNull(cache.get("a"));
+    }
+
+    /*
+        A result read while a write was going on could be from before it, so it mustn't be kept.
+     */
+    public void testPutAfterInvalidateIsNotKept() {
+        QueryResultCache cache = new QueryResultCache(4);
+        long generation = cache.generation();
+        cache.invalidate();
+
+        // The caller still gets its rows, they just aren't cached
+        assertRow(cache.put("a", generation, createCursor(14, 80.5)), 14, 80.5);
+        assertNull(cache.get("a"));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        QueryResultCache cache = new QueryResultCache(2);
+        cache.put("a", cache.generation(), createCursor(1, 1)).close();
+        cache.put("b", cache.generation(), createCursor(2, 2)).close();
+        // Touch a, so b is the eldest when c arrives
+        cache.get("a").close();
+        cache.put("c", cache.generation(), createCursor(3, 3)).close();
+
+        assertNull(cache.get("b"));
+        assertRow(cache.get("a"), 1, 1);
+        assertRow(cache.get("c"), 3, 3);
+    }
+
+    private static Cursor createCursor(int dayCount, double high) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{dayCount, high});
+        return cursor;
+    }
+
+    private static void assertRow(Cursor cursor, int dayCount, double high) {
+        assertNotNull(cursor);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(dayCount, cursor.getInt(0));
+        assertEquals(high, cursor.getDouble(1));
+        cursor.close();
+    }
+}
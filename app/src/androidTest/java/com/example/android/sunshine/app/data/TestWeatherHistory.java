@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherHistory extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherHistory.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "weather-history-test.db";
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long TODAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new WeatherDbHelper(mContext, DATABASE_NAME);
+        mDb = mHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /*
+        Values come back rounded to what the encoding keeps: tenths for temperatures, pressure
+        and wind, whole numbers for humidity and direction.
+     */
+    public void testCodecRoundTrip() {
+        ForecastBatch days = createDays(42, -500, 500);
+        ForecastBatch decoded = new ForecastBatch();
+        HistoryCodec.decode(HistoryCodec.encode(days, 0, days.size()), 42, decoded);
+
+        assertEquals(days.size(), decoded.size());
+        for (int row = 0; row < days.size(); row++) {
+            assertEquals(42, decoded.getLocationId(row));
+            assertEquals(days.getDate(row), decoded.getDate(row));
+            assertEquals(days.getWeatherId(row), decoded.getWeatherId(row));
+            assertNull(decoded.getShortDesc(row));
+            assertEquals(days.getMinTemp(row), decoded.getMinTemp(row), 0.05);
+            assertEquals(days.getMaxTemp(row), decoded.getMaxTemp(row), 0.05);
+            assertEquals(days.getHumidity(row), decoded.getHumidity(row), 0.5);
+            assertEquals(days.getPressure(row), decoded.getPressure(row), 0.05);
+            assertEquals(days.getWindSpeed(row), decoded.getWindSpeed(row), 0.05);
+            assertEquals(days.getDegrees(row), decoded.getDegrees(row), 0.5);
+        }
+    }
+
+    public void testCodecIsCompact() {
+        ForecastBatch days = createDays(1, -3650, 3650);
+        byte[] encoded = HistoryCodec.encode(days, 0, days.size());
+        Log.i(LOG_TAG, "Ten years of history: " + encoded.length + " bytes");
+        assertTrue("Error: more than 14 bytes a day", encoded.length <= 8 + days.size() * 14);
+    }
+
+    public void testCodecRejectsGarbage() {
+        try {
+            HistoryCodec.decode(new byte[]{7, 1, 2}, 1, new ForecastBatch());
+            fail("Error: an unknown version should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            HistoryCodec.decode(new byte[]{1, 5, 1}, 1, new ForecastBatch());
+            fail("Error: truncated history should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /*
+        Archiving across segment boundaries, then a range that starts and ends part way into
+        segments.  Archiving a day again replaces it rather than adding a second copy.
+     */
+    public void testArchiveAndQueryRange() {
+        long locationRowId = insertLocation();
+        insertWeather(locationRowId, -200, 200, 10);
+        assertEquals(200, WeatherHistory.archive(mDb, locationRowId, TODAY));
+
+        insertWeather(locationRowId, -5, 5, 20);
+        assertEquals(5, WeatherHistory.archive(mDb, locationRowId, TODAY));
+
+        long start = TODAY - 150 * DAY_IN_MILLIS;
+        long end = TODAY - 3 * DAY_IN_MILLIS;
+        Cursor cursor = WeatherHistory.query(mDb, locationRowId, null, start, end);
+        assertEquals(148, cursor.getCount());
+        int dateColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        int maxColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        long expected = start;
+        while (cursor.moveToNext()) {
+            assertEquals(expected, cursor.getLong(dateColumn));
+            boolean rearchived = expected >= TODAY - 5 * DAY_IN_MILLIS;
+            assertEquals(rearchived ? 20.0 : 10.0, cursor.getDouble(maxColumn));
+            expected += DAY_IN_MILLIS;
+        }
+        cursor.close();
+
+        assertEquals(200, countHistoryDays(locationRowId));
+    }
+
+    public void testQueryProjectionAndUnknownLocation() {
+        long locationRowId = insertLocation();
+        insertWeather(locationRowId, -3, 3, 10);
+        WeatherHistory.archive(mDb, locationRowId, TODAY);
+
+        Cursor cursor = WeatherHistory.query(mDb, locationRowId,
+                new String[]{WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_DATE},
+                Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, cursor.getColumnCount());
+        assertEquals(3, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(TODAY - 3 * DAY_IN_MILLIS, cursor.getLong(1));
+        cursor.close();
+
+        cursor = WeatherHistory.query(mDb, -1, null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Retention moves pruned days into the history, and it's read back through the provider.
+     */
+    public void testRetentionArchivesThroughProvider() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        for (int day = -10; day <= 0; day++) {
+            values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_TODAY, TestUtilities.TEST_DATE);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_APPLY_RETENTION, null, extras);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationWithRange(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE - 4 * DAY_IN_MILLIS,
+                        TestUtilities.TEST_DATE),
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        // Today is still in the weather table, so the range holds the four days before it
+        assertEquals(4, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(TODAY - 4 * DAY_IN_MILLIS, cursor.getLong(0));
+        assertEquals(values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                cursor.getInt(1));
+        cursor.close();
+
+        assertEquals(HistoryEntry.CONTENT_TYPE, mContext.getContentResolver().getType(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION)));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static ForecastBatch createDays(long locationRowId, int firstDay, int days) {
+        ForecastBatch batch = new ForecastBatch(days);
+        for (int i = 0; i < days; i++) {
+            int day = firstDay + i;
+            batch.add(locationRowId, TODAY + day * DAY_IN_MILLIS, 200 + (i % 600), null,
+                    -40.04 + (i % 700) / 7.0, -20.06 + (i % 900) / 9.0, i % 101,
+                    950.0 + (i % 1000) / 10.0, (i % 400) / 10.0, i % 360);
+        }
+        return batch;
+    }
+
+    private long insertLocation() {
+        long locationRowId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        return locationRowId;
+    }
+
+    // One row a day, from firstDay days after today, for the given number of days
+    private void insertWeather(long locationRowId, int firstDay, int days, double maxTemp) {
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        for (int day = firstDay; day < firstDay + days; day++) {
+            values.put(WeatherEntry.COLUMN_DATE, TODAY + day * DAY_IN_MILLIS);
+            mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    private long countHistoryDays(long locationRowId) {
+        Cursor cursor = mDb.rawQuery("SELECT SUM(" + HistoryEntry.COLUMN_DAY_COUNT + ") FROM " +
+                HistoryEntry.TABLE_NAME + " WHERE " + HistoryEntry.COLUMN_LOC_KEY + " = " +
+                locationRowId, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherRetention extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "weather-retention-test.db";
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long TODAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    private static final long NOW = TODAY + DAY_IN_MILLIS / 2;
+
+    private static final int HISTORY_DAYS = 2;
+    private static final int HISTORY_MAX_DAYS = 3650;
+    private static final int UNUSED_LOCATION_DAYS = 30;
+    // The preferred location and the most recently used other one are synced
+    private static final int TRACKED_LOCATIONS = 2;
+    // Small, so every delete below takes several chunks
+    private static final int CHUNK_ROWS = 3;
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new WeatherDbHelper(mContext, DATABASE_NAME);
+        mDb = mHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testKeepsHistoryDaysPerLocation() {
+        long home = insertLocation("home", NOW);
+        long away = insertLocation("away", NOW - DAY_IN_MILLIS);
+        // Ten days back to three days ahead
+        insertWeather(home, -10, 14);
+        insertWeather(away, -10, 14);
+
+        WeatherRetention.Result result = apply(null);
+
+        // Each keeps the two days of history, today and the three days ahead
+        assertEquals(2 * 8, result.weatherDeleted);
+        assertEquals(0, result.locationsEvicted);
+        assertEquals(2, result.prunedLocations.size());
+        assertEquals(6, countWeather(home));
+        assertEquals(6, countWeather(away));
+        assertEquals(TODAY - HISTORY_DAYS * DAY_IN_MILLIS, oldestDate(home));
+
+        // Nothing left to do the second time round
+        result = apply(null);
+        assertEquals(0, result.weatherDeleted);
+        assertTrue(result.prunedLocations.isEmpty());
+    }
+
+    public void testEvictsUnusedLocations() {
+        long home = insertLocation("home", NOW);
+        long stale = insertLocation("stale", NOW - (UNUSED_LOCATION_DAYS + 1) * DAY_IN_MILLIS);
+        // Just as stale, but about to be marked as the one in use
+        long preferred = insertLocation("preferred",
+                NOW - (UNUSED_LOCATION_DAYS + 1) * DAY_IN_MILLIS);
+        insertWeather(home, 0, 10);
+        insertWeather(stale, 0, 10);
+        insertWeather(preferred, 0, 10);
+
+        WeatherRetention.Result result = apply("preferred");
+
+        assertEquals(1, result.locationsEvicted);
+        assertEquals("stale", result.evictedLocations.get(0));
+        assertEquals(10, result.weatherDeleted);
+        assertEquals(0, countWeather(stale));
+        assertEquals(10, countWeather(home));
+        assertEquals(10, countWeather(preferred));
+
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING,
+                        LocationEntry.COLUMN_LAST_USED},
+                null, null, null, null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("home", cursor.getString(0));
+        cursor.moveToNext();
+        assertEquals("preferred", cursor.getString(0));
+        assertEquals("Error: the location in use should be marked as used", NOW, cursor.getLong(1));
+        cursor.close();
+    }
+
+    /*
+        A location every sync refreshes is in use however long ago the user last looked at it,
+        or a sync would keep fetching it only for it to be evicted, and then stop.
+     */
+    public void testKeepsSyncedLocations() {
+        long old = NOW - 2 * UNUSED_LOCATION_DAYS * DAY_IN_MILLIS;
+        long preferred = insertLocation("preferred", old);
+        long synced = insertLocation("synced", old);
+        long older = insertLocation("older", old - DAY_IN_MILLIS);
+        insertWeather(preferred, 0, 10);
+        insertWeather(synced, 0, 10);
+        insertWeather(older, 0, 10);
+
+        WeatherRetention.Result result = apply("preferred");
+
+        assertEquals(1, result.locationsEvicted);
+        assertEquals("older", result.evictedLocations.get(0));
+        assertEquals(10, countWeather(synced));
+        assertEquals(0, countWeather(older));
+        assertEquals("Error: being synced shouldn't count as being looked at",
+                old, queryLong("SELECT " + LocationEntry.COLUMN_LAST_USED + " FROM " +
+                        LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = " + synced));
+    }
+
+    /*
+        A database created by this version vacuums incrementally, so deleting a lot of weather
+        should leave no free pages behind.
+     */
+    public void testFreesDeletedPages() {
+        long home = insertLocation("home", NOW);
+        insertWeather(home, -1000, 1000);
+        long pagesBefore = queryLong("PRAGMA page_count");
+
+        WeatherRetention.Result result = apply(null);
+
+        assertEquals(1000 - HISTORY_DAYS, result.weatherDeleted);
+        assertEquals(2, queryLong("PRAGMA auto_vacuum"));
+        assertEquals(0, queryLong("PRAGMA freelist_count"));
+        assertTrue("Error: the file didn't shrink", queryLong("PRAGMA page_count") < pagesBefore);
+    }
+
+    /*
+        Through the provider: the call reports what it removed, and a location added without a
+        last_used counts as used from the moment it's added.
+     */
+    public void testApplyRetentionThroughProvider() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues stale = TestUtilities.createWeatherValues(locationRowId);
+        stale.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 5 * DAY_IN_MILLIS);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, stale);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_TODAY, TestUtilities.TEST_DATE);
+        Bundle counts = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_APPLY_RETENTION, null, extras);
+
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_DELETED_COUNT));
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_EVICTED_COUNT));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private WeatherRetention.Result apply(String usedLocationSetting) {
+        return new WeatherRetention(HISTORY_DAYS, HISTORY_MAX_DAYS, UNUSED_LOCATION_DAYS,
+                TRACKED_LOCATIONS, CHUNK_ROWS, 25)
+                .apply(mDb, TODAY, NOW, usedLocationSetting);
+    }
+
+    private long insertLocation(String locationSetting, long lastUsed) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_LAST_USED, lastUsed);
+        long locationRowId = mDb.insert(LocationEntry.TABLE_NAME, null, values);
+        assertTrue(locationRowId != -1);
+        return locationRowId;
+    }
+
+    // One row a day, from firstDay days after today, for the given number of days
+    private void insertWeather(long locationRowId, int firstDay, int days) {
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        mDb.beginTransaction();
+        try {
+            for (int day = firstDay; day < firstDay + days; day++) {
+                values.put(WeatherEntry.COLUMN_DATE, TODAY + day * DAY_IN_MILLIS);
+                mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private int countWeather(long locationRowId) {
+        return (int) queryLong("SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherEntry.COLUMN_LOC_KEY + " = " + locationRowId);
+    }
+
+    private long oldestDate(long locationRowId) {
+        return queryLong("SELECT MIN(" + WeatherEntry.COLUMN_DATE + ") FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                locationRowId);
+    }
+
+    private long queryLong(String sql) {
+        Cursor cursor = mDb.rawQuery(sql, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
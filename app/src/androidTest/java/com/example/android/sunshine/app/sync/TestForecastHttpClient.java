@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class TestForecastHttpClient extends AndroidTestCase {
+
+    private static final int READ_TIMEOUT_MILLIS = 500;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private LocalHttpServer mServer;
+    private File mCacheDirectory;
+    private ForecastHttpClient mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalHttpServer();
+        mServer.start();
+        mCacheDirectory = new File(getContext().getCacheDir(), "test-http-client");
+        deleteDirectory(mCacheDirectory);
+        // Short timeouts and back-off so the failure cases don't slow the suite down
+        mClient = new ForecastHttpClient(new ForecastResponseCache(mCacheDirectory),
+                READ_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, MAX_ATTEMPTS, 10);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteDirectory(mCacheDirectory);
+        super.tearDown();
+    }
+
+    public void testGzipResponseIsDecoded() throws Throwable {
+        String json = TestForecastJsonReader.createForecastJson(14);
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(gzip(json.getBytes("UTF-8"))));
+
+        ForecastHttpClient.Response response = mClient.fetch(mServer.getUrl("/forecast"));
+        try {
+            assertEquals(200, response.code);
+            assertEquals("Error: gzipped body was not decoded", json, readString(response.getBody()));
+        } finally {
+            response.close();
+        }
+
+        LocalHttpServer.Request request = mServer.takeRequest();
+        assertTrue("Error: client didn't ask for gzip",
+                request.getHeader("Accept-Encoding").contains("gzip"));
+    }
+
+    public void testDeflateResponseIsDecoded() throws Throwable {
+        String json = TestForecastJsonReader.createForecastJson(3);
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("Content-Encoding", "deflate")
+                .setBody(deflate(json.getBytes("UTF-8"))));
+
+        ForecastHttpClient.Response response = mClient.fetch(mServer.getUrl("/forecast"));
+        try {
+            assertEquals(json, readString(response.getBody()));
+        } finally {
+            response.close();
+        }
+    }
+
+    /*
+        Requests made one after the other must share a socket, even when the body isn't read:
+        closing the response drains it so the connection can go back to the pool.
+     */
+    public void testConnectionIsReused() throws Throwable {
+        byte[] body = gzip(TestForecastJsonReader.createForecastJson(14).getBytes("UTF-8"));
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new LocalHttpServer.Response(200)
+                    .setHeader("Content-Encoding", "gzip")
+                    .setBody(body));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            ForecastHttpClient.Response response =
+                    mClient.fetch(mServer.getUrl("/forecast?q=" + i));
+            if (i == 0) {
+                // Only look at the first few bytes, close() has to take care of the rest
+                response.getBody().read(new byte[16]);
+            }
+            response.close();
+        }
+
+        assertEquals("Error: keep-alive connection was not reused", 1,
+                mServer.getConnectionCount());
+    }
+
+    public void testServerErrorIsRetried() throws Throwable {
+        String json = TestForecastJsonReader.createForecastJson(1);
+        mServer.enqueue(new LocalHttpServer.Response(503).setBody("busy"));
+        mServer.enqueue(new LocalHttpServer.Response(200).setBody(json));
+
+        ForecastHttpClient.Response response = mClient.fetch(mServer.getUrl("/forecast"));
+        try {
+            assertEquals(200, response.code);
+            assertEquals(json, readString(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertNotNull(mServer.takeRequest());
+        assertNotNull(mServer.takeRequest());
+    }
+
+    public void testStalledServerTimesOut() throws Throwable {
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            mServer.enqueue(new LocalHttpServer.Response(200)
+                    .setBody("{}")
+                    .setDelay(READ_TIMEOUT_MILLIS * 4));
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            mClient.fetch(mServer.getUrl("/forecast")).close();
+            fail("Error: a stalled server should time out");
+        } catch (SocketTimeoutException expected) {
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            assertNotNull("Error: attempt " + (i + 1) + " never reached the server",
+                    mServer.takeRequest());
+        }
+        assertTrue("Error: timeouts took " + elapsed + "ms",
+                elapsed < READ_TIMEOUT_MILLIS * 4 * MAX_ATTEMPTS);
+    }
+
+    public void testNotModifiedServesCachedBody() throws Throwable {
+        String json = TestForecastJsonReader.createForecastJson(14);
+        String url = mServer.getUrl("/forecast");
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(gzip(json.getBytes("UTF-8"))));
+        mServer.enqueue(new LocalHttpServer.Response(304));
+
+        ForecastHttpClient.Response response = mClient.fetch(url);
+        try {
+            assertFalse(response.isNotModified());
+            ForecastJsonReader.read(response.getBody(), new ForecastJsonReader.Forecast());
+            response.commit();
+        } finally {
+            response.close();
+        }
+
+        response = mClient.fetch(url);
+        try {
+            assertTrue("Error: 304 was not recognized", response.isNotModified());
+            // The cache holds the decoded body, not what went over the wire
+            assertEquals(json, readString(response.getBody()));
+        } finally {
+            response.close();
+        }
+
+        mServer.takeRequest();
+        assertEquals("\"v1\"", mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out);
+        deflate.write(bytes);
+        deflate.close();
+        return out.toByteArray();
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
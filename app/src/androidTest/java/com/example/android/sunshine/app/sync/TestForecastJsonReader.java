@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Locale;
+
+public class TestForecastJsonReader extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonReader.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    /*
+        Builds a response shaped like OWM's forecast/daily, including the fields we skip, so
+        the reader has to step over them just like it does against the real server.
+     */
+    static String createForecastJson(int days) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f," +
+                            "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"%s\",\"description\":\"light rain\"," +
+                            "\"icon\":\"10d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":%d,\"rain\":%.2f}",
+                    1419033600L + i * 86400L, 14.5 + i, 9.25 + i, 18.75 + i, 11.0, 15.0, 10.0,
+                    1012.5 + i, 60 + i, i % 2 == 0 ? 500 : 800, i % 2 == 0 ? "Rain" : "Clear",
+                    3.25 + i, 180 + i, 20, 0.5));
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    static InputStream toStream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testReadMatchesJsonObject() throws Throwable {
+        String json = createForecastJson(DAYS);
+        ForecastJsonReader.Forecast forecast = new ForecastJsonReader.Forecast();
+        ForecastJsonReader.read(toStream(json), forecast);
+
+        JSONObject forecastJson = new JSONObject(json);
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+
+        assertEquals(200, forecast.code);
+        assertTrue(forecast.hasCity);
+        assertEquals(cityJson.getString("name"), forecast.cityName);
+        assertEquals(cityJson.getJSONObject("coord").getDouble("lat"), forecast.cityLatitude);
+        assertEquals(cityJson.getJSONObject("coord").getDouble("lon"), forecast.cityLongitude);
+        assertEquals(weatherArray.length(), forecast.getDayCount());
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            ForecastJsonReader.Day day = forecast.getDay(i);
+
+            assertEquals("Day " + i, dayForecast.getDouble("pressure"), day.pressure);
+            assertEquals("Day " + i, dayForecast.getInt("humidity"), day.humidity);
+            assertEquals("Day " + i, dayForecast.getDouble("speed"), day.windSpeed);
+            assertEquals("Day " + i, dayForecast.getDouble("deg"), day.windDirection);
+            assertEquals("Day " + i, temperatureObject.getDouble("max"), day.high);
+            assertEquals("Day " + i, temperatureObject.getDouble("min"), day.low);
+            assertEquals("Day " + i, weatherObject.getString("main"), day.description);
+            assertEquals("Day " + i, weatherObject.getInt("id"), day.weatherId);
+        }
+    }
+
+    public void testRowsAreReused() throws Throwable {
+        ForecastJsonReader.Forecast forecast = new ForecastJsonReader.Forecast();
+        ForecastJsonReader.read(toStream(createForecastJson(DAYS)), forecast);
+        ForecastJsonReader.Day first = forecast.getDay(0);
+
+        ForecastJsonReader.read(toStream(createForecastJson(3)), forecast);
+        assertEquals(3, forecast.getDayCount());
+        assertSame("Error: Day rows should be recycled between reads", first, forecast.getDay(0));
+    }
+
+    public void testErrorCode() throws Throwable {
+        ForecastJsonReader.Forecast forecast = new ForecastJsonReader.Forecast();
+        ForecastJsonReader.read(toStream("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"),
+                forecast);
+        assertEquals(404, forecast.code);
+        assertFalse(forecast.hasCity);
+        assertEquals(0, forecast.getDayCount());
+    }
+
+    public void testMalformedResponse() throws Throwable {
+        ForecastJsonReader.Forecast forecast = new ForecastJsonReader.Forecast();
+        try {
+            ForecastJsonReader.read(toStream("{\"cod\":200,\"list\":[{\"pressure\":}]}"), forecast);
+            fail("Error: a malformed response should be reported as a JSONException");
+        } catch (JSONException expected) {
+        }
+
+        try {
+            ForecastJsonReader.read(toStream("{\"cod\":200,\"list\":[{\"pressure\":1000.0}]}"),
+                    forecast);
+            fail("Error: a day missing its values should be reported as a JSONException");
+        } catch (JSONException expected) {
+        }
+
+        try {
+            ForecastJsonReader.read(toStream(""), forecast);
+            fail("Error: an empty response should be reported as an EOFException");
+        } catch (EOFException expected) {
+        }
+    }
+
+    /*
+        Not a pass/fail benchmark in the strict sense, but it logs the cost of both paths so a
+        regression is easy to spot, and it fails if the streaming reader ever allocates more
+        than the String + JSONObject path it replaced.
+     */
+    @SuppressWarnings("deprecation")
+    public void testParseCostAgainstJsonObject() throws Throwable {
+        byte[] response = createForecastJson(DAYS).getBytes("UTF-8");
+        ForecastJsonReader.Forecast forecast = new ForecastJsonReader.Forecast();
+
+        // Warm up both paths so class loading doesn't count against either
+        for (int i = 0; i < 10; i++) {
+            parseWithJsonObject(new ByteArrayInputStream(response));
+            ForecastJsonReader.read(new ByteArrayInputStream(response), forecast);
+        }
+
+        Debug.startAllocCounting();
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            parseWithJsonObject(new ByteArrayInputStream(response));
+        }
+        long treeNanos = System.nanoTime() - start;
+        long treeCount = Debug.getThreadAllocCount();
+        long treeBytes = Debug.getThreadAllocSize();
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            ForecastJsonReader.read(new ByteArrayInputStream(response), forecast);
+        }
+        long streamNanos = System.nanoTime() - start;
+        long streamCount = Debug.getThreadAllocCount();
+        long streamBytes = Debug.getThreadAllocSize();
+
+        Debug.stopAllocCounting();
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "JSONObject: %d us/parse, %d objects, %d bytes per parse",
+                treeNanos / BENCHMARK_ITERATIONS / 1000,
+                treeCount / BENCHMARK_ITERATIONS, treeBytes / BENCHMARK_ITERATIONS));
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "ForecastJsonReader: %d us/parse, %d objects, %d bytes per parse",
+                streamNanos / BENCHMARK_ITERATIONS / 1000,
+                streamCount / BENCHMARK_ITERATIONS, streamBytes / BENCHMARK_ITERATIONS));
+
+        assertTrue("Error: streaming parse allocated more than the JSONObject path",
+                streamBytes <= treeBytes);
+    }
+
+    /*
+        The path SunshineSyncAdapter used before: read everything into a String, then build
+        the JSONObject tree and pull the same values out of it.
+     */
+    private static double parseWithJsonObject(InputStream inputStream)
+            throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        double checksum = cityJson.getJSONObject("coord").getDouble("lat");
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            checksum += dayForecast.getDouble("pressure");
+            checksum += dayForecast.getInt("humidity");
+            checksum += dayForecast.getDouble("speed");
+            checksum += dayForecast.getDouble("deg");
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            checksum += weatherObject.getString("main").length();
+            checksum += weatherObject.getInt("id");
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            checksum += temperatureObject.getDouble("max");
+            checksum += temperatureObject.getDouble("min");
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private static final String ETAG = "\"forecast-v1\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private LocalHttpServer mServer;
+    private File mCacheDirectory;
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalHttpServer();
+        mServer.start();
+        mCacheDirectory = new File(getContext().getCacheDir(), "test-forecast");
+        deleteDirectory(mCacheDirectory);
+        mCache = new ForecastResponseCache(mCacheDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteDirectory(mCacheDirectory);
+        super.tearDown();
+    }
+
+    /*
+        The whole round trip: the first response is cached with its validators, and the second
+        request sends them back so the server can answer 304 and we serve the cached body.
+     */
+    public void testConditionalRequest() throws Throwable {
+        String json = TestForecastJsonReader.createForecastJson(14);
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("ETag", ETAG)
+                .setHeader("Last-Modified", LAST_MODIFIED)
+                .setBody(json));
+        mServer.enqueue(new LocalHttpServer.Response(304).setHeader("ETag", ETAG));
+
+        String key = mServer.getUrl("/forecast?q=94043");
+        assertNull("Error: nothing should be cached yet", mCache.get(key));
+
+        HttpURLConnection connection = open(key);
+        assertEquals(200, connection.getResponseCode());
+        ForecastResponseCache.Writer writer =
+                mCache.beginWrite(key, connection, connection.getInputStream());
+        assertNotNull("Error: a response with validators should be cached", writer);
+        ForecastJsonReader.Forecast forecast = new ForecastJsonReader.Forecast();
+        ForecastJsonReader.read(writer, forecast);
+        writer.commit();
+        writer.close();
+        assertEquals(14, forecast.getDayCount());
+
+        LocalHttpServer.Request first = mServer.takeRequest();
+        assertNull(first.getHeader("If-None-Match"));
+        assertNull(first.getHeader("If-Modified-Since"));
+
+        ForecastResponseCache.Entry entry = mCache.get(key);
+        assertNotNull("Error: committed response was not cached", entry);
+        assertEquals(ETAG, entry.etag);
+        assertEquals(LAST_MODIFIED, entry.lastModified);
+
+        connection = open(key);
+        mCache.addValidators(connection, entry);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, connection.getResponseCode());
+        connection.getInputStream().close();
+
+        LocalHttpServer.Request second = mServer.takeRequest();
+        assertEquals(ETAG, second.getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, second.getHeader("If-Modified-Since"));
+
+        // The parser stops at the closing brace, commit() has to have drained the rest
+        InputStream body = mCache.openBody(entry);
+        try {
+            assertTrue("Error: cached body doesn't match the response",
+                    Arrays.equals(json.getBytes("UTF-8"), readFully(body)));
+        } finally {
+            body.close();
+        }
+    }
+
+    public void testAbortedWriteIsNotCached() throws Throwable {
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("ETag", ETAG)
+                .setBody("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"));
+
+        String key = mServer.getUrl("/forecast?q=nowhere");
+        HttpURLConnection connection = open(key);
+        ForecastResponseCache.Writer writer =
+                mCache.beginWrite(key, connection, connection.getInputStream());
+        assertNotNull(writer);
+        readFully(writer);
+        writer.abort();
+        writer.close();
+
+        assertNull("Error: an aborted response should not be cached", mCache.get(key));
+        String[] leftovers = mCacheDirectory.list();
+        assertTrue("Error: aborted write left files behind",
+                leftovers == null || leftovers.length == 0);
+    }
+
+    public void testResponseWithoutValidatorsIsNotCached() throws Throwable {
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setBody(TestForecastJsonReader.createForecastJson(1)));
+
+        String key = mServer.getUrl("/forecast?q=94043");
+        HttpURLConnection connection = open(key);
+        InputStream in = connection.getInputStream();
+        try {
+            assertNull("Error: nothing to revalidate with, so nothing should be cached",
+                    mCache.beginWrite(key, connection, in));
+        } finally {
+            in.close();
+        }
+        assertNull(mCache.get(key));
+    }
+
+    public void testRemove() throws Throwable {
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("Last-Modified", LAST_MODIFIED)
+                .setBody(TestForecastJsonReader.createForecastJson(1)));
+
+        String key = mServer.getUrl("/forecast?q=94043");
+        HttpURLConnection connection = open(key);
+        ForecastResponseCache.Writer writer =
+                mCache.beginWrite(key, connection, connection.getInputStream());
+        writer.commit();
+        writer.close();
+
+        ForecastResponseCache.Entry entry = mCache.get(key);
+        assertNotNull(entry);
+        assertNull(entry.etag);
+        assertEquals(LAST_MODIFIED, entry.lastModified);
+
+        mCache.remove(key);
+        assertNull("Error: removed entry is still returned", mCache.get(key));
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestForecastSyncEngine extends AndroidTestCase {
+
+    private static final int THREAD_COUNT = 3;
+    private static final long SLOW_RESPONSE_MILLIS = 800;
+
+    private LocalHttpServer mServer;
+    private File mCacheDirectory;
+    private ForecastSyncEngine mEngine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mServer = new LocalHttpServer();
+        mServer.start();
+        mCacheDirectory = new File(getContext().getCacheDir(), "test-sync-engine");
+        deleteDirectory(mCacheDirectory);
+        // One attempt only, so a failure shows up as a failure instead of a retry
+        ForecastHttpClient client = new ForecastHttpClient(
+                new ForecastResponseCache(mCacheDirectory), 5000, 5000, 1, 10);
+        mEngine = new ForecastSyncEngine(getContext(), client, mServer.getUrl("/forecast"),
+                THREAD_COUNT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteDirectory(mCacheDirectory);
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testSyncsEveryLocation() throws Throwable {
+        List<String> locations = Arrays.asList("94043", "10001", "60601");
+        for (int i = 0; i < locations.size(); i++) {
+            mServer.enqueue(new LocalHttpServer.Response(200)
+                    .setBody(TestForecastJsonReader.createForecastJson(14)));
+        }
+
+        ForecastSyncEngine.Result result = mEngine.sync(locations);
+
+        assertEquals(3, result.stored);
+        assertEquals(0, result.failed);
+        assertEquals(3 * 14, result.inserted);
+        for (String location : locations) {
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.getStatus(location));
+            assertEquals("Error: wrong number of days stored for " + location, 14,
+                    countWeatherRows(location));
+        }
+    }
+
+    /*
+        Every response is slow, but with a worker per location they are all waited on at
+        the same time, so the sync takes about as long as one of them.
+     */
+    public void testLocationsAreFetchedConcurrently() throws Throwable {
+        List<String> locations = Arrays.asList("94043", "10001", "60601");
+        for (int i = 0; i < locations.size(); i++) {
+            mServer.enqueue(new LocalHttpServer.Response(200)
+                    .setBody(TestForecastJsonReader.createForecastJson(14))
+                    .setDelay(SLOW_RESPONSE_MILLIS));
+        }
+
+        long start = System.currentTimeMillis();
+        ForecastSyncEngine.Result result = mEngine.sync(locations);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(3, result.stored);
+        assertTrue("Error: locations were fetched one after the other (" + elapsed + "ms)",
+                elapsed < SLOW_RESPONSE_MILLIS * locations.size());
+    }
+
+    public void testFailedLocationDoesNotStopOthers() throws Throwable {
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setBody(TestForecastJsonReader.createForecastJson(14)));
+        mServer.enqueue(new LocalHttpServer.Response(404)
+                .setBody("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"));
+
+        ForecastSyncEngine.Result result = mEngine.sync(Arrays.asList("94043", "nowhere"));
+
+        // Which location gets which answer depends on which request reaches the server first
+        assertEquals(1, result.stored);
+        assertEquals(1, result.failed);
+        assertEquals(14, countWeatherRows("94043") + countWeatherRows("nowhere"));
+    }
+
+    public void testUnchangedForecastIsNotStoredAgain() throws Throwable {
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("ETag", "\"v1\"")
+                .setBody(TestForecastJsonReader.createForecastJson(14)));
+        mServer.enqueue(new LocalHttpServer.Response(304));
+
+        List<String> locations = Arrays.asList("94043");
+        assertEquals(1, mEngine.sync(locations).stored);
+
+        ForecastSyncEngine.Result result = mEngine.sync(locations);
+        assertEquals(0, result.stored);
+        assertEquals(1, result.notModified);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.getStatus("94043"));
+    }
+
+    /*
+        Once the stored forecast is gone the cached copy can't replace it, since it doesn't say
+        which day it was fetched on, so the whole forecast is asked for again.
+     */
+    public void testLostForecastIsFetchedWhole() throws Throwable {
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("ETag", "\"v1\"")
+                .setBody(TestForecastJsonReader.createForecastJson(14)));
+        mServer.enqueue(new LocalHttpServer.Response(200)
+                .setHeader("ETag", "\"v1\"")
+                .setBody(TestForecastJsonReader.createForecastJson(14)));
+
+        List<String> locations = Arrays.asList("94043");
+        assertEquals(1, mEngine.sync(locations).stored);
+        getContext().getContentResolver().delete(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        ForecastSyncEngine.Result result = mEngine.sync(locations);
+        assertEquals(1, result.stored);
+        assertEquals(14, countWeatherRows("94043"));
+
+        mServer.takeRequest();
+        assertNull("Error: the forecast was asked for conditionally",
+                mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    public void testLocationsToSync() throws Throwable {
+        String preferred = Utility.getPreferredLocation(getContext());
+        int maxLocations = getContext().getResources().getInteger(R.integer.sync_max_locations);
+        for (int i = 0; i < maxLocations + 2; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "location" + i);
+            values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 10.0 + i);
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, 20.0 + i);
+            // Each used more recently than the one saved before it
+            values.put(WeatherContract.LocationEntry.COLUMN_LAST_USED, 1000L * (i + 1));
+            getContext().getContentResolver().insert(
+                    WeatherContract.LocationEntry.CONTENT_URI, values);
+        }
+
+        List<String> locations = ForecastSyncEngine.getLocationsToSync(getContext());
+        assertEquals("Error: the preferred location must be synced first",
+                preferred, locations.get(0));
+        assertEquals(maxLocations, locations.size());
+        assertEquals("Error: the most recently used locations must be synced, not the oldest",
+                "location" + (maxLocations + 1), locations.get(1));
+        assertFalse(locations.contains("location0"));
+    }
+
+    private int countWeatherRows(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        getContext().getContentResolver().delete(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        getContext().getContentResolver().delete(
+                WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP/1.1 server on localhost that stands in for OpenWeatherMap in tests.
+ *
+ * Responses are queued up front with {@link #enqueue(Response)} and served in order; the
+ * requests that came in can be inspected afterwards with {@link #takeRequest()}.  Connections
+ * are kept alive between requests, and {@link #getConnectionCount()} tells how many sockets
+ * the client actually opened.
+ */
+public class LocalHttpServer {
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        private final Map<String, String> mHeaders = new HashMap<String, String>();
+
+        Request(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        final int code;
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        byte[] body = new byte[0];
+        long delayMillis;
+
+        public Response(int code) {
+            this.code = code;
+        }
+
+        public Response setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response setBody(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        public Response setBody(String body) {
+            try {
+                return setBody(body.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        /**
+         * Holds the response back for a while, to look like a stalled server.
+         */
+        public Response setDelay(long delayMillis) {
+            this.delayMillis = delayMillis;
+            return this;
+        }
+    }
+
+    private final LinkedBlockingQueue<Response> mResponses = new LinkedBlockingQueue<Response>();
+    private final LinkedBlockingQueue<Request> mRequests = new LinkedBlockingQueue<Request>();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private ServerSocket mServerSocket;
+    private volatile boolean mShutdown;
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread("LocalHttpServer") {
+            @Override
+            public void run() {
+                while (!mShutdown) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnectionCount.incrementAndGet();
+                        new Thread("LocalHttpServer connection") {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        // Thrown when the server socket is closed by shutdown()
+                    }
+                }
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public void shutdown() throws IOException {
+        mShutdown = true;
+        if (mServerSocket != null) {
+            mServerSocket.close();
+        }
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public void enqueue(Response response) {
+        mResponses.add(response);
+    }
+
+    /**
+     * @return the next request the server received, waiting up to a few seconds for it.
+     */
+    public Request takeRequest() throws InterruptedException {
+        return mRequests.poll(5, TimeUnit.SECONDS);
+    }
+
+    public int getRequestCount() {
+        return mRequests.size();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            while (!mShutdown) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.length() == 0) {
+                    break;
+                }
+                String[] parts = requestLine.split(" ");
+                Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/");
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        request.mHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                mRequests.add(request);
+
+                Response response = mResponses.poll();
+                if (response == null) {
+                    response = new Response(500).setBody("No response queued");
+                }
+                if (response.delayMillis > 0) {
+                    Thread.sleep(response.delayMillis);
+                }
+                writeResponse(out, response);
+
+                if ("close".equalsIgnoreCase(request.getHeader("Connection"))
+                        || "close".equalsIgnoreCase(response.headers.get("Connection"))) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // The client went away, that's fine
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(' ')
+                .append(reasonPhrase(response.code)).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        // 304s never carry a body
+        boolean hasBody = response.code != 304;
+        if (hasBody) {
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("US-ASCII"));
+        if (hasBody) {
+            out.write(response.body);
+        }
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("US-ASCII");
+    }
+
+    private static String reasonPhrase(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Unknown";
+        }
+    }
+}
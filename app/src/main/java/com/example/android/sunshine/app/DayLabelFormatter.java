@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The day labels behind Utility's friendly date strings, kept per julian day for the days
+ * around today so that a list or widget row asking again gets the same string back without
+ * a Time or a SimpleDateFormat being made.
+ *
+ * Labels are only good for the locale, time zone and day they were made in.  The cache is
+ * dropped at midnight, when the locale changes, and when the system broadcasts a change of
+ * time zone or clock.
+ */
+public final class DayLabelFormatter {
+
+    // The days cached, either side of today; anything further out is formatted each time
+    private static final int DAYS_BEFORE = 7;
+    private static final int DAYS_AFTER = 31;
+    private static final int WINDOW = DAYS_BEFORE + 1 + DAYS_AFTER;
+
+    // Kinds of label
+    private static final int FRIENDLY = 0;
+    private static final int FRIENDLY_LONG_TODAY = 1;
+    private static final int DAY_NAME = 2;
+    private static final int MONTH_DAY = 3;
+    private static final int FULL_FRIENDLY = 4;
+    private static final int KINDS = 5;
+
+    // Even without a midnight the offset can change, at a daylight saving transition, so the
+    // day is looked at again at least this often
+    private static final long MAX_VALID_MILLIS = DateUtils.HOUR_IN_MILLIS;
+
+    /**
+     * Everything the labels depend on, and the labels.  Replaced, never changed, when any of it
+     * goes out of date; the labels are filled in as they're first asked for, and a thread that
+     * misses another's write only formats the label again.
+     */
+    private static final class Days {
+        final Locale locale;
+        final TimeZone timeZone;
+        final int gmtoff;
+        final int today;
+        final long validUntil;
+        final String[][] labels;
+
+        Days(Locale locale, TimeZone timeZone, int gmtoff, int today, long validUntil,
+             String[][] labels) {
+            this.locale = locale;
+            this.timeZone = timeZone;
+            this.gmtoff = gmtoff;
+            this.today = today;
+            this.validUntil = validUntil;
+            this.labels = labels;
+        }
+    }
+
+    // The formats are neither thread safe nor cheap to make, so each thread keeps its own
+    private static final class Formats {
+        final Days days;
+        final SimpleDateFormat dayName;
+        final SimpleDateFormat monthDay;
+        final SimpleDateFormat shortDate;
+
+        Formats(Days days) {
+            this.days = days;
+            dayName = new SimpleDateFormat("EEEE", days.locale);
+            monthDay = new SimpleDateFormat("MMMM dd", days.locale);
+            shortDate = new SimpleDateFormat("EEE MMM dd", days.locale);
+            dayName.setTimeZone(days.timeZone);
+            monthDay.setTimeZone(days.timeZone);
+            shortDate.setTimeZone(days.timeZone);
+        }
+    }
+
+    private static volatile Days sDays;
+
+    private static final ThreadLocal<Formats> sFormats = new ThreadLocal<Formats>();
+
+    private static final AtomicBoolean sReceiverRegistered = new AtomicBoolean();
+
+    private DayLabelFormatter() {
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    public static String getFriendlyDayString(Context context, long dateInMillis,
+                                              boolean displayLongToday) {
+        return getLabel(context, displayLongToday ? FRIENDLY_LONG_TODAY : FRIENDLY,
+                dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    public static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        return getLabel(context, FULL_FRIENDLY, dateInMillis);
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    public static String getDayName(Context context, long dateInMillis) {
+        return getLabel(context, DAY_NAME, dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay(Context, long)
+     */
+    public static String getFormattedMonthDay(Context context, long dateInMillis) {
+        return getLabel(context, MONTH_DAY, dateInMillis);
+    }
+
+    /**
+     * Drops every label, so the next ones are made for the locale, zone and day as they are now.
+     */
+    public static void invalidate() {
+        sDays = null;
+    }
+
+    private static String getLabel(Context context, int kind, long dateInMillis) {
+        registerReceiver(context);
+        Days days = currentDays();
+        int julianDay = Time.getJulianDay(dateInMillis, days.gmtoff);
+        int index = julianDay - days.today + DAYS_BEFORE;
+        if (index < 0 || index >= WINDOW) {
+            return format(context, days, kind, julianDay, dateInMillis);
+        }
+        String label = days.labels[kind][index];
+        if (label == null) {
+            label = format(context, days, kind, julianDay, dateInMillis);
+            days.labels[kind][index] = label;
+        }
+        return label;
+    }
+
+    private static Days currentDays() {
+        Days days = sDays;
+        long now = System.currentTimeMillis();
+        // Locale.getDefault() hands back the default itself, so comparing costs nothing
+        if (days != null && now < days.validUntil && days.locale == Locale.getDefault()) {
+            return days;
+        }
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        int gmtoff = timeZone.getOffset(now) / 1000;
+        int today = Time.getJulianDay(now, gmtoff);
+        long localNow = now + gmtoff * 1000L;
+        long nextMidnight = localNow - localNow % DateUtils.DAY_IN_MILLIS
+                + DateUtils.DAY_IN_MILLIS - gmtoff * 1000L;
+        long validUntil = Math.min(nextMidnight, now + MAX_VALID_MILLIS);
+        if (days != null && days.locale.equals(locale) && days.timeZone.hasSameRules(timeZone)
+                && days.gmtoff == gmtoff && days.today == today) {
+            // Nothing has changed but the time of the next look, so the labels, and each
+            // thread's formats, still stand
+            days = new Days(locale, days.timeZone, gmtoff, today, validUntil, days.labels);
+        } else {
+            days = new Days(locale, timeZone, gmtoff, today, validUntil,
+                    new String[KINDS][WINDOW]);
+        }
+        sDays = days;
+        return days;
+    }
+
+    private static Formats formats(Days days) {
+        Formats formats = sFormats.get();
+        if (formats == null || !formats.days.locale.equals(days.locale)
+                || formats.days.timeZone != days.timeZone) {
+            formats = new Formats(days);
+            sFormats.set(formats);
+        }
+        return formats;
+    }
+
+    private static String format(Context context, Days days, int kind, int julianDay,
+                                 long dateInMillis) {
+        switch (kind) {
+            case FRIENDLY_LONG_TODAY:
+                // For today: "Today, June 8"
+                if (julianDay == days.today) {
+                    return context.getString(R.string.format_full_friendly_date,
+                            context.getString(R.string.today),
+                            getLabel(context, MONTH_DAY, dateInMillis));
+                }
+                return getLabel(context, FRIENDLY, dateInMillis);
+            case FRIENDLY:
+                // For the next 5 days: "Wednesday" (just the day name)
+                // For all days after that: "Mon Jun 8"
+                if (julianDay < days.today + 7) {
+                    return getLabel(context, DAY_NAME, dateInMillis);
+                }
+                return formats(days).shortDate.format(dateInMillis);
+            case DAY_NAME:
+                // "Today", "Tomorrow", otherwise the day of the week
+                if (julianDay == days.today) {
+                    return context.getString(R.string.today);
+                } else if (julianDay == days.today + 1) {
+                    return context.getString(R.string.tomorrow);
+                }
+                return formats(days).dayName.format(dateInMillis);
+            case MONTH_DAY:
+                return formats(days).monthDay.format(dateInMillis);
+            case FULL_FRIENDLY:
+                return context.getString(R.string.format_full_friendly_date,
+                        getLabel(context, DAY_NAME, dateInMillis),
+                        getLabel(context, MONTH_DAY, dateInMillis));
+            default:
+                throw new IllegalArgumentException("Unknown label kind: " + kind);
+        }
+    }
+
+    // Midnight and the locale are noticed as labels are asked for, but a new time zone or a
+    // clock set by hand only show up as a broadcast
+    private static void registerReceiver(Context context) {
+        if (sReceiverRegistered.get() || !sReceiverRegistered.compareAndSet(false, true)) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_DATE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, filter);
+    }
+}
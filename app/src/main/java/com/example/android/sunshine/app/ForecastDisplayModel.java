@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A forecast formatted for display: day labels, temperatures in the preferred units,
+ * descriptions and the icon and art for each day, worked out once so that binding a list item
+ * or a widget row is just a lookup.
+ *
+ * A model is only good for the settings it was formatted with, see {@link #isCurrent}: the
+ * units, the locale, the art pack and the day, which the "Today" and "Tomorrow" labels depend on.
+ */
+public final class ForecastDisplayModel {
+
+    // The model of the snapshot the widgets and notifications read, see forSnapshot
+    private static final AtomicReference<ForecastDisplayModel> sCurrent =
+            new AtomicReference<ForecastDisplayModel>();
+
+    // What it was formatted from and with
+    private final ForecastSnapshot mSnapshot;
+    private final SettingsSnapshot mSettings;
+    private final Locale mLocale;
+    private final int mJulianDay;
+
+    private final int mSize;
+    private final long[] mDates;
+    private final String[] mDayLabels;
+    private final String[] mLongDayLabels;
+    private final String[] mShortDescs;
+    private final String[] mDescriptions;
+    private final String[] mDescriptionsA11y;
+    private final String[] mHighs;
+    private final String[] mHighsA11y;
+    private final String[] mLows;
+    private final String[] mLowsA11y;
+    private final int[] mIconResources;
+    private final int[] mArtResources;
+    private final String[] mArtUrls;
+
+    private ForecastDisplayModel(Context context, ForecastSnapshot snapshot, int size,
+                                 long[] dates, int[] weatherIds, String[] shortDescs,
+                                 double[] highs, double[] lows) {
+        mSnapshot = snapshot;
+        mSettings = SettingsSnapshot.get(context);
+        mLocale = Locale.getDefault();
+        mJulianDay = currentJulianDay();
+        boolean metric = mSettings.isMetric();
+        boolean localGraphics = mSettings.usingLocalGraphics();
+
+        mSize = size;
+        mDates = dates;
+        mShortDescs = shortDescs;
+        mDayLabels = new String[size];
+        mLongDayLabels = new String[size];
+        mDescriptions = new String[size];
+        mDescriptionsA11y = new String[size];
+        mHighs = new String[size];
+        mHighsA11y = new String[size];
+        mLows = new String[size];
+        mLowsA11y = new String[size];
+        mIconResources = new int[size];
+        mArtResources = new int[size];
+        mArtUrls = new String[size];
+        for (int row = 0; row < size; row++) {
+            int weatherId = weatherIds[row];
+            mDayLabels[row] = Utility.getFriendlyDayString(context, dates[row], false);
+            mLongDayLabels[row] = Utility.getFriendlyDayString(context, dates[row], true);
+            mDescriptions[row] = Utility.getStringForWeatherCondition(context, weatherId);
+            mDescriptionsA11y[row] = context.getString(R.string.a11y_forecast,
+                    mDescriptions[row]);
+            mHighs[row] = Utility.formatTemperature(context, highs[row], metric);
+            mHighsA11y[row] = context.getString(R.string.a11y_high_temp, mHighs[row]);
+            mLows[row] = Utility.formatTemperature(context, lows[row], metric);
+            mLowsA11y[row] = context.getString(R.string.a11y_low_temp, mLows[row]);
+            mIconResources[row] = Utility.getIconResourceForWeatherCondition(weatherId);
+            mArtResources[row] = Utility.getArtResourceForWeatherCondition(weatherId);
+            mArtUrls[row] = localGraphics ? null
+                    : Utility.getArtUrlForWeatherCondition(mSettings.getArtPack(), weatherId);
+        }
+    }
+
+    /**
+     * @return the snapshot formatted with the current settings; the one formatted last time if
+     * nothing has changed since, which after a sync is the one the sync adapter made
+     */
+    public static ForecastDisplayModel forSnapshot(Context context, ForecastSnapshot snapshot) {
+        ForecastDisplayModel current = sCurrent.get();
+        if (current != null && current.mSnapshot == snapshot && current.isCurrent(context)) {
+            return current;
+        }
+        int size = snapshot.size();
+        long[] dates = new long[size];
+        int[] weatherIds = new int[size];
+        String[] shortDescs = new String[size];
+        double[] highs = new double[size];
+        double[] lows = new double[size];
+        for (int row = 0; row < size; row++) {
+            dates[row] = snapshot.getDate(row);
+            weatherIds[row] = snapshot.getWeatherId(row);
+            shortDescs[row] = snapshot.getShortDesc(row);
+            highs[row] = snapshot.getMaxTemp(row);
+            lows[row] = snapshot.getMinTemp(row);
+        }
+        ForecastDisplayModel model = new ForecastDisplayModel(context, snapshot, size, dates,
+                weatherIds, shortDescs, highs, lows);
+        sCurrent.set(model);
+        return model;
+    }
+
+    /**
+     * Formats every row of a cursor, which is left where it was.
+     */
+    public static ForecastDisplayModel fromCursor(Context context, Cursor cursor, int dateColumn,
+                                                  int weatherIdColumn, int shortDescColumn,
+                                                  int highColumn, int lowColumn) {
+        int size = cursor.getCount();
+        int position = cursor.getPosition();
+        long[] dates = new long[size];
+        int[] weatherIds = new int[size];
+        String[] shortDescs = new String[size];
+        double[] highs = new double[size];
+        double[] lows = new double[size];
+        for (int row = 0; row < size && cursor.moveToPosition(row); row++) {
+            dates[row] = cursor.getLong(dateColumn);
+            weatherIds[row] = cursor.getInt(weatherIdColumn);
+            shortDescs[row] = cursor.getString(shortDescColumn);
+            highs[row] = cursor.getDouble(highColumn);
+            lows[row] = cursor.getDouble(lowColumn);
+        }
+        cursor.moveToPosition(position);
+        return new ForecastDisplayModel(context, null, size, dates, weatherIds, shortDescs,
+                highs, lows);
+    }
+
+    /**
+     * @return whether the units, locale and art pack are still the ones this was formatted
+     * with, and it's still the same day
+     */
+    public boolean isCurrent(Context context) {
+        // A change of settings always makes a new snapshot, so comparing them is enough
+        return mJulianDay == currentJulianDay()
+                && mLocale.equals(Locale.getDefault())
+                && mSettings == SettingsSnapshot.get(context);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getDate(int row) {
+        return mDates[row];
+    }
+
+    /**
+     * @param longToday whether today gets its date too, as in "Today, June 24"
+     */
+    public String getDayLabel(int row, boolean longToday) {
+        return longToday ? mLongDayLabels[row] : mDayLabels[row];
+    }
+
+    /**
+     * @return the description as the forecast had it, which the widgets show
+     */
+    public String getShortDesc(int row) {
+        return mShortDescs[row];
+    }
+
+    /**
+     * @return the description of the weather condition in the current locale
+     */
+    public String getDescription(int row) {
+        return mDescriptions[row];
+    }
+
+    public String getDescriptionContentDescription(int row) {
+        return mDescriptionsA11y[row];
+    }
+
+    public String getHigh(int row) {
+        return mHighs[row];
+    }
+
+    public String getHighContentDescription(int row) {
+        return mHighsA11y[row];
+    }
+
+    public String getLow(int row) {
+        return mLows[row];
+    }
+
+    public String getLowContentDescription(int row) {
+        return mLowsA11y[row];
+    }
+
+    public int getIconResource(int row) {
+        return mIconResources[row];
+    }
+
+    public int getArtResource(int row) {
+        return mArtResources[row];
+    }
+
+    /**
+     * @return the art pack's url for the day's art, or null when using the local graphics
+     */
+    public String getArtUrl(int row) {
+        return mArtUrls[row];
+    }
+
+    public boolean usingLocalGraphics() {
+        return mSettings.usingLocalGraphics();
+    }
+
+    private static int currentJulianDay() {
+        Time time = new Time();
+        time.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+    }
+}
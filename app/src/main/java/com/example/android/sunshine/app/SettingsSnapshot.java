@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The user's settings as they stand, read out of SharedPreferences once and then kept up to
+ * date by a change listener, so that formatting a temperature or choosing an icon doesn't look
+ * up a preference, or the string naming it, every time.
+ *
+ * A snapshot never changes; a change of settings makes a new one.  Code that formats a run of
+ * values should take one with {@link #get} and use it throughout, so they all agree.
+ */
+public final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+
+    // Registered once and never dropped.  SharedPreferences only keeps a weak reference to its
+    // listeners, so this one has to be held here
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private final String mLocationSetting;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mLocalGraphics;
+    private final boolean mNotificationsEnabled;
+
+    private SettingsSnapshot(String locationSetting, boolean metric, String artPack,
+                             boolean localGraphics, boolean notificationsEnabled) {
+        mLocationSetting = locationSetting;
+        mMetric = metric;
+        mArtPack = artPack;
+        mLocalGraphics = localGraphics;
+        mNotificationsEnabled = notificationsEnabled;
+    }
+
+    /**
+     * @return the current settings; the first call reads them and starts listening for changes
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot settings = sCurrent;
+        if (settings != null) {
+            return settings;
+        }
+        synchronized (SettingsSnapshot.class) {
+            if (sCurrent == null) {
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                        update(appContext, prefs);
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+                update(appContext, prefs);
+            }
+            return sCurrent;
+        }
+    }
+
+    /**
+     * Reads the settings again now.  The listener is told of a change made on another thread
+     * only once the main thread gets round to it, so code that has just changed a setting
+     * itself, off the main thread, calls this to see the change straight away.
+     */
+    public static SettingsSnapshot refresh(Context context) {
+        get(context);
+        Context appContext = context.getApplicationContext();
+        update(appContext, PreferenceManager.getDefaultSharedPreferences(appContext));
+        return sCurrent;
+    }
+
+    private static synchronized void update(Context context, SharedPreferences prefs) {
+        SettingsSnapshot settings = read(context, prefs);
+        // Most keys, the location status for one, aren't settings a snapshot holds, and keeping
+        // the same snapshot when they change lets callers compare snapshots by identity
+        if (!settings.equals(sCurrent)) {
+            sCurrent = settings;
+        }
+    }
+
+    private static SettingsSnapshot read(Context context, SharedPreferences prefs) {
+        String locationSetting = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        boolean metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        String artPack = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        boolean notificationsEnabled = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        return new SettingsSnapshot(locationSetting, metric, artPack,
+                artPack.equals(sunshineArtPack), notificationsEnabled);
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the art pack, which is the format of its art urls
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    public boolean usingLocalGraphics() {
+        return mLocalGraphics;
+    }
+
+    public boolean areNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SettingsSnapshot)) {
+            return false;
+        }
+        SettingsSnapshot other = (SettingsSnapshot) o;
+        return mLocationSetting.equals(other.mLocationSetting)
+                && mMetric == other.mMetric
+                && mArtPack.equals(other.mArtPack)
+                && mNotificationsEnabled == other.mNotificationsEnabled;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mLocationSetting.hashCode();
+        result = 31 * result + (mMetric ? 1 : 0);
+        result = 31 * result + mArtPack.hashCode();
+        result = 31 * result + (mNotificationsEnabled ? 1 : 0);
+        return result;
+    }
+}
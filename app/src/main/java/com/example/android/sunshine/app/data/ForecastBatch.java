@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+
+/**
+ * Weather rows held column by column in primitive arrays, for writing many days at once
+ * without a ContentValues, and its boxed values, per row.  Hand it to the provider with
+ * {@link WeatherContract#METHOD_INSERT_WEATHER}, or with
+ * {@link WeatherContract#METHOD_COMMIT_FORECAST} for a sync.
+ *
+ * A row names its location either by row id or, when the location may not be stored yet, by
+ * location setting, which the commit resolves in the same transaction.
+ */
+public final class ForecastBatch implements Parcelable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize;
+    private long[] mLocationIds;
+    private String[] mLocationSettings;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private String[] mShortDescs;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Adds a day of weather.  The date is normalized when the batch is stored.
+     *
+     * @return the row's index in the batch
+     */
+    public int add(long locationId, long date, int weatherId, String shortDesc,
+                   double minTemp, double maxTemp, double humidity, double pressure,
+                   double windSpeed, double degrees) {
+        return add(locationId, null, date, weatherId, shortDesc, minTemp, maxTemp, humidity,
+                pressure, windSpeed, degrees);
+    }
+
+    /**
+     * Adds a day of weather for a location known by its location setting.
+     *
+     * @return the row's index in the batch
+     */
+    public int add(String locationSetting, long date, int weatherId, String shortDesc,
+                   double minTemp, double maxTemp, double humidity, double pressure,
+                   double windSpeed, double degrees) {
+        return add(-1, locationSetting, date, weatherId, shortDesc, minTemp, maxTemp, humidity,
+                pressure, windSpeed, degrees);
+    }
+
+    /**
+     * Appends every row of another batch.
+     */
+    public void addAll(ForecastBatch other) {
+        while (mDates.length < mSize + other.mSize) {
+            grow();
+        }
+        int size = other.mSize;
+        System.arraycopy(other.mLocationIds, 0, mLocationIds, mSize, size);
+        System.arraycopy(other.mLocationSettings, 0, mLocationSettings, mSize, size);
+        System.arraycopy(other.mDates, 0, mDates, mSize, size);
+        System.arraycopy(other.mWeatherIds, 0, mWeatherIds, mSize, size);
+        System.arraycopy(other.mShortDescs, 0, mShortDescs, mSize, size);
+        System.arraycopy(other.mMinTemps, 0, mMinTemps, mSize, size);
+        System.arraycopy(other.mMaxTemps, 0, mMaxTemps, mSize, size);
+        System.arraycopy(other.mHumidities, 0, mHumidities, mSize, size);
+        System.arraycopy(other.mPressures, 0, mPressures, mSize, size);
+        System.arraycopy(other.mWindSpeeds, 0, mWindSpeeds, mSize, size);
+        System.arraycopy(other.mDegrees, 0, mDegrees, mSize, size);
+        mSize += size;
+    }
+
+    private int add(long locationId, String locationSetting, long date, int weatherId,
+                    String shortDesc, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        int row = mSize++;
+        mLocationIds[row] = locationId;
+        mLocationSettings[row] = locationSetting;
+        mDates[row] = date;
+        mWeatherIds[row] = weatherId;
+        mShortDescs[row] = shortDesc;
+        mMinTemps[row] = minTemp;
+        mMaxTemps[row] = maxTemp;
+        mHumidities[row] = humidity;
+        mPressures[row] = pressure;
+        mWindSpeeds[row] = windSpeed;
+        mDegrees[row] = degrees;
+        return row;
+    }
+
+    /**
+     * Empties the batch, keeping its arrays for the next use.
+     */
+    public void clear() {
+        Arrays.fill(mLocationSettings, 0, mSize, null);
+        Arrays.fill(mShortDescs, 0, mSize, null);
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the row's location id, or -1 if it was added by location setting
+     */
+    public long getLocationId(int row) {
+        return mLocationIds[row];
+    }
+
+    /**
+     * @return the row's location setting, or null if it was added by location id
+     */
+    public String getLocationSetting(int row) {
+        return mLocationSettings[row];
+    }
+
+    public long getDate(int row) {
+        return mDates[row];
+    }
+
+    public int getWeatherId(int row) {
+        return mWeatherIds[row];
+    }
+
+    public String getShortDesc(int row) {
+        return mShortDescs[row];
+    }
+
+    public double getMinTemp(int row) {
+        return mMinTemps[row];
+    }
+
+    public double getMaxTemp(int row) {
+        return mMaxTemps[row];
+    }
+
+    public double getHumidity(int row) {
+        return mHumidities[row];
+    }
+
+    public double getPressure(int row) {
+        return mPressures[row];
+    }
+
+    public double getWindSpeed(int row) {
+        return mWindSpeeds[row];
+    }
+
+    public double getDegrees(int row) {
+        return mDegrees[row];
+    }
+
+    private void allocate(int capacity) {
+        mLocationIds = new long[capacity];
+        mLocationSettings = new String[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    private void grow() {
+        int capacity = mDates.length * 2;
+        mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+        mLocationSettings = Arrays.copyOf(mLocationSettings, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    // Row by row, so only the rows in use are written and the reader can size its arrays exactly
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mSize);
+        for (int row = 0; row < mSize; row++) {
+            dest.writeLong(mLocationIds[row]);
+            dest.writeString(mLocationSettings[row]);
+            dest.writeLong(mDates[row]);
+            dest.writeInt(mWeatherIds[row]);
+            dest.writeString(mShortDescs[row]);
+            dest.writeDouble(mMinTemps[row]);
+            dest.writeDouble(mMaxTemps[row]);
+            dest.writeDouble(mHumidities[row]);
+            dest.writeDouble(mPressures[row]);
+            dest.writeDouble(mWindSpeeds[row]);
+            dest.writeDouble(mDegrees[row]);
+        }
+    }
+
+    public static final Creator<ForecastBatch> CREATOR = new Creator<ForecastBatch>() {
+        @Override
+        public ForecastBatch createFromParcel(Parcel source) {
+            int size = source.readInt();
+            ForecastBatch batch = new ForecastBatch(size);
+            for (int row = 0; row < size; row++) {
+                batch.add(source.readLong(), source.readString(), source.readLong(),
+                        source.readInt(), source.readString(), source.readDouble(),
+                        source.readDouble(), source.readDouble(), source.readDouble(),
+                        source.readDouble(), source.readDouble());
+            }
+            return batch;
+        }
+
+        @Override
+        public ForecastBatch[] newArray(int size) {
+            return new ForecastBatch[size];
+        }
+    };
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * One location's forecast from a day on, read out of the provider once and never changed
+ * afterwards, so any number of threads can read it without locking.  Get one from
+ * {@link ForecastSnapshotCache}.
+ *
+ * Rows are days in date order; row 0 is the first day on or after the date it was taken from.
+ */
+public final class ForecastSnapshot {
+
+    // What a snapshot is read with, in the order the columns are read back
+    static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private final String mLocationSetting;
+    private final long mStartDate;
+    // Snapshots trimmed to a later day share the arrays of the one they came from
+    private final int mOffset;
+    private final int mSize;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mShortDescs;
+    private final double[] mMinTemps;
+    private final double[] mMaxTemps;
+    private final double[] mHumidities;
+    private final double[] mPressures;
+    private final double[] mWindSpeeds;
+    private final double[] mDegrees;
+
+    private ForecastSnapshot(String locationSetting, long startDate, int offset, int size,
+                             long[] dates, int[] weatherIds, String[] shortDescs,
+                             double[] minTemps, double[] maxTemps, double[] humidities,
+                             double[] pressures, double[] windSpeeds, double[] degrees) {
+        mLocationSetting = locationSetting;
+        mStartDate = startDate;
+        mOffset = offset;
+        mSize = size;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mShortDescs = shortDescs;
+        mMinTemps = minTemps;
+        mMaxTemps = maxTemps;
+        mHumidities = humidities;
+        mPressures = pressures;
+        mWindSpeeds = windSpeeds;
+        mDegrees = degrees;
+    }
+
+    /**
+     * Reads a cursor over {@link #COLUMNS}, in date order, through to the end.
+     *
+     * @param startDate the normalized date the cursor's days start from
+     */
+    static ForecastSnapshot fromCursor(String locationSetting, long startDate, Cursor cursor) {
+        int size = cursor.getCount();
+        long[] dates = new long[size];
+        int[] weatherIds = new int[size];
+        String[] shortDescs = new String[size];
+        double[] minTemps = new double[size];
+        double[] maxTemps = new double[size];
+        double[] humidities = new double[size];
+        double[] pressures = new double[size];
+        double[] windSpeeds = new double[size];
+        double[] degrees = new double[size];
+        for (int row = 0; row < size && cursor.moveToPosition(row); row++) {
+            dates[row] = cursor.getLong(0);
+            weatherIds[row] = cursor.getInt(1);
+            shortDescs[row] = cursor.getString(2);
+            minTemps[row] = cursor.getDouble(3);
+            maxTemps[row] = cursor.getDouble(4);
+            humidities[row] = cursor.getDouble(5);
+            pressures[row] = cursor.getDouble(6);
+            windSpeeds[row] = cursor.getDouble(7);
+            degrees[row] = cursor.getDouble(8);
+        }
+        return new ForecastSnapshot(locationSetting, startDate, 0, size, dates, weatherIds,
+                shortDescs, minTemps, maxTemps, humidities, pressures, windSpeeds, degrees);
+    }
+
+    static ForecastSnapshot empty(String locationSetting, long startDate) {
+        return new ForecastSnapshot(locationSetting, startDate, 0, 0, new long[0], new int[0],
+                new String[0], new double[0], new double[0], new double[0], new double[0],
+                new double[0], new double[0]);
+    }
+
+    /**
+     * @return whether this snapshot holds the location's days from the given normalized date on
+     */
+    boolean covers(String locationSetting, long date) {
+        return mLocationSetting.equals(locationSetting) && mStartDate <= date;
+    }
+
+    /**
+     * @return this snapshot without the days before the given normalized date
+     */
+    ForecastSnapshot startingFrom(long date) {
+        int skip = 0;
+        while (skip < mSize && mDates[mOffset + skip] < date) {
+            skip++;
+        }
+        if (skip == 0 && mStartDate == date) {
+            return this;
+        }
+        return new ForecastSnapshot(mLocationSetting, date, mOffset + skip, mSize - skip, mDates,
+                mWeatherIds, mShortDescs, mMinTemps, mMaxTemps, mHumidities, mPressures,
+                mWindSpeeds, mDegrees);
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getDate(int row) {
+        return mDates[index(row)];
+    }
+
+    public int getWeatherId(int row) {
+        return mWeatherIds[index(row)];
+    }
+
+    public String getShortDesc(int row) {
+        return mShortDescs[index(row)];
+    }
+
+    public double getMinTemp(int row) {
+        return mMinTemps[index(row)];
+    }
+
+    public double getMaxTemp(int row) {
+        return mMaxTemps[index(row)];
+    }
+
+    public double getHumidity(int row) {
+        return mHumidities[index(row)];
+    }
+
+    public double getPressure(int row) {
+        return mPressures[index(row)];
+    }
+
+    public double getWindSpeed(int row) {
+        return mWindSpeeds[index(row)];
+    }
+
+    public double getDegrees(int row) {
+        return mDegrees[index(row)];
+    }
+
+    private int index(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + mSize);
+        }
+        return mOffset + row;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The process's current {@link ForecastSnapshot}: the preferred location's forecast from today
+ * on, which the widgets, Muzei, the notification and the watch all show.  The first of them to
+ * ask after a change reads it from the provider; the rest get the same snapshot back without
+ * going near SQLite.
+ *
+ * WeatherProvider runs in this process and invalidates the cache on every write it makes.  A
+ * snapshot records the generation it was read in, and is only served while that's still the
+ * current one, so a snapshot read while a write was going on is never handed out afterwards.
+ */
+public final class ForecastSnapshotCache {
+
+    private static final ForecastSnapshotCache sInstance = new ForecastSnapshotCache();
+
+    private static final class Entry {
+        final ForecastSnapshot snapshot;
+        final long generation;
+
+        Entry(ForecastSnapshot snapshot, long generation) {
+            this.snapshot = snapshot;
+            this.generation = generation;
+        }
+    }
+
+    private final AtomicReference<Entry> mEntry = new AtomicReference<Entry>();
+    private final AtomicLong mGeneration = new AtomicLong();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    public static ForecastSnapshotCache getInstance() {
+        return sInstance;
+    }
+
+    // For tests, which want counters of their own
+    ForecastSnapshotCache() {
+    }
+
+    /**
+     * @param today any time on the first day wanted, usually now
+     * @return the location's forecast from that day on, read from the provider only if the
+     * cached one isn't it
+     */
+    public ForecastSnapshot get(Context context, String locationSetting, long today) {
+        long startDate = WeatherContract.normalizeDate(today);
+        Entry entry = mEntry.get();
+        if (entry != null && entry.generation == mGeneration.get()
+                && entry.snapshot.covers(locationSetting, startDate)) {
+            mHits.incrementAndGet();
+            ForecastSnapshot snapshot = entry.snapshot.startingFrom(startDate);
+            if (snapshot != entry.snapshot) {
+                // The day turned over since it was read; keep the trimmed one for next time
+                mEntry.compareAndSet(entry, new Entry(snapshot, entry.generation));
+            }
+            return snapshot;
+        }
+        mMisses.incrementAndGet();
+        return load(context, locationSetting, startDate);
+    }
+
+    /**
+     * Reads the location's forecast from today on and makes it the current snapshot, so the
+     * readers after a sync all find it ready.
+     */
+    public ForecastSnapshot refresh(Context context, String locationSetting) {
+        return load(context, locationSetting,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+    }
+
+    /**
+     * Stops the current snapshot from being served.  Cheap enough to call on every write.
+     */
+    public void invalidate() {
+        mGeneration.incrementAndGet();
+        mEntry.set(null);
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    private ForecastSnapshot load(Context context, String locationSetting, long startDate) {
+        long generation = mGeneration.get();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, startDate),
+                ForecastSnapshot.COLUMNS,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return ForecastSnapshot.empty(locationSetting, startDate);
+        }
+        ForecastSnapshot snapshot;
+        try {
+            snapshot = ForecastSnapshot.fromCursor(locationSetting, startDate, cursor);
+        } finally {
+            cursor.close();
+        }
+        // A write that comes in between the check and the set only makes this entry stale on
+        // arrival, and a stale entry is never served
+        if (generation == mGeneration.get()) {
+            mEntry.set(new Entry(snapshot, generation));
+        }
+        return snapshot;
+    }
+}
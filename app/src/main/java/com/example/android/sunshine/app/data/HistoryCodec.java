@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.text.format.Time;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Packs days of weather into a few bytes each, for the history table.
+ *
+ * A day is written as varints: its Julian day as the gap from the day before (so usually a
+ * single byte of 1), the weather id, the low and high in tenths of a degree, humidity in whole
+ * percent, pressure as tenths of a hPa either side of 1000, wind speed in tenths and the wind
+ * direction in whole degrees.  The temperatures and pressure are zigzag encoded so that small
+ * negative values stay small.  That comes to about 13 bytes a day, against well over a hundred
+ * for a weather row and its index entries, so ten years of one location fit in 50 KB.
+ *
+ * The description isn't kept: it's the API's word for the weather id, which the app maps to
+ * its own strings anyway.
+ */
+final class HistoryCodec {
+
+    private static final int VERSION = 1;
+
+    // Pressure is stored relative to this, in tenths of a hPa, to keep it to two bytes
+    private static final int PRESSURE_BASE_TENTHS = 10000;
+
+    private HistoryCodec() {
+    }
+
+    /**
+     * Encodes rows [from, to) of the batch, which must be in date order with no day repeated.
+     */
+    static byte[] encode(ForecastBatch days, int from, int to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2 + (to - from) * 13);
+        out.write(VERSION);
+        writeVarint(out, to - from);
+        Time time = new Time();
+        int previousDay = 0;
+        for (int row = from; row < to; row++) {
+            int julianDay = toJulianDay(time, days.getDate(row));
+            writeVarint(out, julianDay - previousDay);
+            previousDay = julianDay;
+            writeVarint(out, days.getWeatherId(row));
+            writeVarint(out, zigzag(tenths(days.getMinTemp(row))));
+            writeVarint(out, zigzag(tenths(days.getMaxTemp(row))));
+            writeVarint(out, (int) Math.round(days.getHumidity(row)));
+            writeVarint(out, zigzag(tenths(days.getPressure(row)) - PRESSURE_BASE_TENTHS));
+            writeVarint(out, tenths(days.getWindSpeed(row)));
+            writeVarint(out, (int) Math.round(days.getDegrees(row)));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Appends the encoded days to the batch, as rows for the given location with no
+     * description.
+     *
+     * @throws IllegalArgumentException if the data isn't something encode() wrote
+     */
+    static void decode(byte[] data, long locationId, ForecastBatch out) {
+        int[] position = {0};
+        if (data.length == 0 || data[position[0]++] != VERSION) {
+            throw new IllegalArgumentException("Unknown history encoding");
+        }
+        int count = readVarint(data, position);
+        Time time = new Time();
+        int julianDay = 0;
+        for (int i = 0; i < count; i++) {
+            julianDay += readVarint(data, position);
+            int weatherId = readVarint(data, position);
+            double minTemp = unzigzag(readVarint(data, position)) / 10.0;
+            double maxTemp = unzigzag(readVarint(data, position)) / 10.0;
+            double humidity = readVarint(data, position);
+            double pressure =
+                    (unzigzag(readVarint(data, position)) + PRESSURE_BASE_TENTHS) / 10.0;
+            double windSpeed = readVarint(data, position) / 10.0;
+            double degrees = readVarint(data, position);
+            out.add(locationId, time.setJulianDay(julianDay), weatherId, null, minTemp, maxTemp,
+                    humidity, pressure, windSpeed, degrees);
+        }
+    }
+
+    /**
+     * @return the Julian day of a normalized date, in the local time zone it was normalized in
+     */
+    static int toJulianDay(Time time, long date) {
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    private static int tenths(double value) {
+        return (int) Math.round(value * 10);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // A negative value still round trips, in five bytes
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IllegalArgumentException("Truncated history");
+            }
+            byte b = data[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in history");
+    }
+}
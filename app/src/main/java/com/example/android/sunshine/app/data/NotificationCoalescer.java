@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the changes WeatherProvider makes and tells observers about them in as few, and as
+ * narrow, notifications as possible.
+ *
+ * Changes are held until the outermost batch ends, or, outside a batch, until a short window
+ * has passed without the provider flushing.  Weather changes are then reported per location:
+ * weather/[location]/[date] when a single day changed, weather/[location] when several did.
+ * The weather root is only used when a change can't be pinned to a location, such as an
+ * update with an arbitrary selection.
+ */
+class NotificationCoalescer {
+
+    /**
+     * The days that changed for one location.  Only one date is remembered: once a second one
+     * shows up the whole location is reported.
+     */
+    private static final class LocationChange {
+        long date;
+        boolean allDates;
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+
+    // All guarded by this
+    private final Map<String, LocationChange> mWeatherChanges =
+            new HashMap<String, LocationChange>();
+    private final LinkedHashSet<Uri> mOtherChanges = new LinkedHashSet<Uri>();
+    private boolean mAllWeatherChanged;
+    private int mBatchDepth;
+    private boolean mFlushScheduled;
+    private Runnable mChangeListener;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (NotificationCoalescer.this) {
+                mFlushScheduled = false;
+                if (mBatchDepth > 0) {
+                    // The batch will flush when it ends
+                    return;
+                }
+            }
+            flush();
+        }
+    };
+
+    /**
+     * @param handler where delayed flushes run
+     * @param windowMillis how long a change made outside a batch waits for others to join it
+     */
+    NotificationCoalescer(ContentResolver resolver, Handler handler, long windowMillis) {
+        mResolver = resolver;
+        mHandler = handler;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Runs the listener for every change as it's recorded, and again whenever changes are
+     * flushed, which for a batch is after its transaction has ended.  It's called with this
+     * object locked, so it must be quick and mustn't call back in.
+     */
+    synchronized void setChangeListener(Runnable listener) {
+        mChangeListener = listener;
+    }
+
+    /**
+     * Holds everything back until the matching {@link #endBatch()}.  Batches nest.
+     */
+    synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch, flushing right away if it was the outermost one.
+     */
+    void endBatch() {
+        synchronized (this) {
+            if (--mBatchDepth > 0) {
+                return;
+            }
+            mBatchDepth = 0;
+        }
+        flush();
+    }
+
+    /**
+     * One day of weather for the location changed.
+     */
+    synchronized void weatherChanged(String locationSetting, long date) {
+        changed();
+        if (locationSetting == null) {
+            // Don't know whose weather it is, so everybody needs to hear about it
+            mAllWeatherChanged = true;
+        } else {
+            LocationChange change = mWeatherChanges.get(locationSetting);
+            if (change == null) {
+                change = new LocationChange();
+                change.date = date;
+                mWeatherChanges.put(locationSetting, change);
+            } else if (change.date != date) {
+                change.allDates = true;
+            }
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Something about the location changed that every day of its weather depends on.
+     */
+    synchronized void locationChanged(String locationSetting) {
+        changed();
+        LocationChange change = mWeatherChanges.get(locationSetting);
+        if (change == null) {
+            change = new LocationChange();
+            mWeatherChanges.put(locationSetting, change);
+        }
+        change.allDates = true;
+        mOtherChanges.add(WeatherContract.LocationEntry.CONTENT_URI);
+        scheduleFlush();
+    }
+
+    /**
+     * Anything else: the uri is notified as it is.  The weather root covers every location.
+     */
+    synchronized void uriChanged(Uri uri) {
+        changed();
+        if (WeatherContract.WeatherEntry.CONTENT_URI.equals(uri)) {
+            mAllWeatherChanged = true;
+        } else {
+            mOtherChanges.add(uri);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Sends whatever is pending now.
+     */
+    void flush() {
+        List<Uri> uris = new ArrayList<Uri>();
+        synchronized (this) {
+            if (mFlushScheduled) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mFlushScheduled = false;
+            }
+            changed();
+            if (mAllWeatherChanged) {
+                // The root reaches every location's observers, so they needn't be told again
+                uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+            } else {
+                for (Map.Entry<String, LocationChange> entry : mWeatherChanges.entrySet()) {
+                    LocationChange change = entry.getValue();
+                    uris.add(change.allDates
+                            ? WeatherContract.WeatherEntry.buildWeatherLocation(entry.getKey())
+                            : WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                    entry.getKey(), change.date));
+                }
+            }
+            uris.addAll(mOtherChanges);
+            mWeatherChanges.clear();
+            mOtherChanges.clear();
+            mAllWeatherChanged = false;
+        }
+        // Outside the lock, observers in our own process may be called back synchronously
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    private void changed() {
+        if (mChangeListener != null) {
+            mChangeListener.run();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (mBatchDepth == 0 && !mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+        }
+    }
+}
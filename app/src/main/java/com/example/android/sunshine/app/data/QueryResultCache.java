@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The last few results of WeatherProvider's small queries, summaries and the like, kept as
+ * plain values so a widget or the watch asking again gets them without touching the database.
+ *
+ * Anything the provider writes empties the cache, see {@link #invalidate()}.  A result that was
+ * being read while a write went on could predate it, so it's only kept if no invalidation
+ * happened since the reader took its {@link #generation()}.
+ */
+final class QueryResultCache {
+
+    private static final class Result {
+        final String[] columns;
+        final Object[][] rows;
+
+        Result(String[] columns, Object[][] rows) {
+            this.columns = columns;
+            this.rows = rows;
+        }
+    }
+
+    // All guarded by this
+    private final LinkedHashMap<String, Result> mResults;
+    private long mGeneration;
+    private int mHits;
+    private int mMisses;
+
+    QueryResultCache(final int maxEntries) {
+        // In access order, so the eldest entry is the least recently used
+        mResults = new LinkedHashMap<String, Result>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Take this before running the query whose result may be {@link #put}.
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * @return a fresh cursor over the cached result, or null if there isn't one
+     */
+    synchronized Cursor get(String key) {
+        Result result = mResults.get(key);
+        if (result == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        MatrixCursor cursor = new MatrixCursor(result.columns, result.rows.length);
+        for (Object[] row : result.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Reads the cursor through, caching its rows if nothing was invalidated since the given
+     * generation, and closes it.
+     *
+     * @return a cursor over the same rows
+     */
+    Cursor put(String key, long generation, Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                for (int column = 0; column < columns.length; column++) {
+                    row[column] = valueOf(cursor, column);
+                }
+                rows[i] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+        Result result = new Result(columns, rows);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, result);
+            }
+        }
+        MatrixCursor copy = new MatrixCursor(columns, rows.length);
+        for (Object[] row : rows) {
+            copy.addRow(row);
+        }
+        return copy;
+    }
+
+    /**
+     * Drops every result.  Called for each change as it's made and again once it's committed
+     * and flushed, so neither a result from before the change nor one read while it was
+     * being written survives.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mResults.clear();
+    }
+
+    synchronized int getHitCount() {
+        return mHits;
+    }
+
+    synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    private static Object valueOf(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+}
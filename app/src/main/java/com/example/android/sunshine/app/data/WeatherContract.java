@@ -43,6 +43,50 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+    // Under weather/[location]: one row summing up a range of days, and the next day matching a
+    // condition.  Both results are cached by the provider until the location's weather changes.
+    public static final String PATH_SUMMARY = "summary";
+    public static final String PATH_NEXT = "next";
+
+    // Query parameter that switches a weather bulkInsert into upsert mode: only rows that are
+    // new, or that differ from the stored row for the same date and location, get written.
+    public static final String PARAM_UPSERT = "upsert";
+
+    // Provider call() that performs the same upsert and reports what it did.  The rows go in
+    // EXTRA_VALUES, and the returned Bundle carries the EXTRA_*_COUNT values.
+    public static final String METHOD_UPSERT_WEATHER = "upsert_weather";
+    public static final String EXTRA_VALUES = "values";
+    public static final String EXTRA_INSERTED_COUNT = "inserted";
+    public static final String EXTRA_CHANGED_COUNT = "changed";
+    public static final String EXTRA_UNCHANGED_COUNT = "unchanged";
+
+    // Provider call() that stores a whole sync in one transaction, notifying observers once.
+    // The locations in EXTRA_LOCATIONS are looked up by location setting and added or updated,
+    // then the weather rows in EXTRA_VALUES are upserted against them.  Those rows name their
+    // location by LocationEntry.COLUMN_LOCATION_SETTING instead of COLUMN_LOC_KEY, since the id
+    // isn't known yet.  The weather can come as a ForecastBatch in EXTRA_BATCH instead, whose
+    // rows may name their location either way.  If EXTRA_PRUNE_DATE is given, weather on or
+    // before that date is deleted as well, and the count comes back in EXTRA_DELETED_COUNT.
+    public static final String METHOD_COMMIT_FORECAST = "commit_forecast";
+    public static final String EXTRA_LOCATIONS = "locations";
+    public static final String EXTRA_PRUNE_DATE = "prune_date";
+    public static final String EXTRA_DELETED_COUNT = "deleted";
+
+    // Provider call() that enforces the retention policy: each location keeps its weather from
+    // a few days before EXTRA_TODAY on, locations that haven't been used for a while are removed
+    // along with their weather, and the freed space goes back to the file system.  Deletes run
+    // in small transactions so readers are never held up for long.  The weather rows deleted
+    // come back in EXTRA_DELETED_COUNT, the locations in EXTRA_EVICTED_COUNT.
+    public static final String METHOD_APPLY_RETENTION = "apply_retention";
+    public static final String EXTRA_TODAY = "today";
+    public static final String EXTRA_EVICTED_COUNT = "evicted";
+
+    // Provider call() that inserts the ForecastBatch in EXTRA_BATCH through one compiled
+    // statement, the same as a plain weather bulkInsert would but without a ContentValues per
+    // row.  The number of rows written comes back in EXTRA_INSERTED_COUNT.
+    public static final String METHOD_INSERT_WEATHER = "insert_weather";
+    public static final String EXTRA_BATCH = "batch";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,6 +125,15 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // When the location was last the one the user looks at, in milliseconds since the epoch.
+        // Locations that go unused long enough are evicted, see METHOD_APPLY_RETENTION.
+        public static final String COLUMN_LAST_USED = "last_used";
+
+        // Most recently used first.  A sync refreshes the preferred location and then the first
+        // locations in this order, and retention never evicts those.
+        public static final String SORT_ORDER_RECENTLY_USED =
+                COLUMN_LAST_USED + " DESC, " + _ID + " DESC";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,10 +179,49 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Columns of a summary query, computed over the days in its range
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        public static final String COLUMN_FIRST_DATE = "first_date";
+        public static final String COLUMN_LAST_DATE = "last_date";
+        // Lowest min and highest max
+        public static final String COLUMN_LOW = "low";
+        public static final String COLUMN_HIGH = "high";
+        public static final String COLUMN_AVERAGE_LOW = "average_low";
+        public static final String COLUMN_AVERAGE_HIGH = "average_high";
+        public static final String COLUMN_AVERAGE_HUMIDITY = "average_humidity";
+        public static final String COLUMN_MAX_WIND_SPEED = "max_wind";
+
+        // Query parameter ending a range of days, inclusive.  The range starts at COLUMN_DATE.
+        public static final String PARAM_END_DATE = "end_date";
+
+        // Query parameter naming what a next query looks for, one of the CONDITION_* values.
+        // Each matches the days shown with the same WeatherConditions kinds of icon.
+        public static final String PARAM_CONDITION = "condition";
+        // Thunderstorms, and the dust storms and tornadoes shown with the storm icon
+        public static final String CONDITION_STORM = "storm";
+        // Drizzle and rain; thunderstorms are CONDITION_STORM, and freezing rain, which is shown
+        // as snow, CONDITION_SNOW
+        public static final String CONDITION_RAIN = "rain";
+        public static final String CONDITION_SNOW = "snow";
+        // Mist, haze, fog and the like
+        public static final String CONDITION_FOG = "fog";
+        public static final String CONDITION_CLEAR = "clear";
+        // A few clouds or more
+        public static final String CONDITION_CLOUDS = "clouds";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_UPSERT, Boolean.toString(true)).build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -144,6 +236,38 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        public static Uri buildWeatherLocationWithRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        /**
+         * A single row of COLUMN_DAY_COUNT, COLUMN_LOW and the other summary columns, over the
+         * location's days from startDate to endDate.
+         */
+        public static Uri buildWeatherSummary(String locationSetting, long startDate,
+                                              long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_SUMMARY)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        /**
+         * The location's first day from startDate on whose weather matches the condition, as a
+         * weather row, or no row if there's none.
+         */
+        public static Uri buildWeatherNext(String locationSetting, long startDate,
+                                           String condition) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_NEXT)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_CONDITION, condition)
+                    .build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -164,5 +288,80 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        /**
+         * @return the end of the uri's range of days, or Long.MAX_VALUE if it has none
+         */
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            return dateString != null && dateString.length() > 0
+                    ? Long.parseLong(dateString) : Long.MAX_VALUE;
+        }
+
+        public static String getConditionFromUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_CONDITION);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the history table, which keeps the
+        forecast we had for each past day once it's been pruned from the weather table.  Each row
+        packs up to SEGMENT_DAYS days of one location into a BLOB, see HistoryCodec; the provider
+        unpacks them, so a history query returns the same columns as a weather one.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Julian day the segment starts on, always a multiple of SEGMENT_DAYS
+        public static final String COLUMN_SEGMENT_START = "segment_start";
+        // How many days the segment holds
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        // The days, encoded by HistoryCodec
+        public static final String COLUMN_DAYS = "days";
+
+        public static final int SEGMENT_DAYS = 64;
+
+        // Query parameters bounding a history query, both inclusive
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_DATE,
+                            Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE,
+                            Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START_DATE);
+            return dateString != null && dateString.length() > 0
+                    ? Long.parseLong(dateString) : Long.MIN_VALUE;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            return dateString != null && dateString.length() > 0
+                    ? Long.parseLong(dateString) : Long.MAX_VALUE;
+        }
     }
 }
@@ -16,9 +16,14 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -28,12 +33,150 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // The provider always reaches weather through one location: the location row comes from the
+    // UNIQUE location_setting index, then this index finds that location's days, in date order,
+    // whether it's asked for all of them, the ones from a start date on, or a single one.  The
+    // UNIQUE (date, location_id) constraint's index leads with the date, so it can't do that,
+    // but it still serves the upsert's exact match and pruning by date.
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ");";
+
+    // One row per location per SEGMENT_DAYS days, so a year of history is six rows.  The UNIQUE
+    // index is the only one the table needs: history is always read by location and a range of
+    // segments, and a segment that's archived again replaces the old one.
+    static final String SQL_CREATE_HISTORY_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + HistoryEntry.TABLE_NAME + " (" +
+                    HistoryEntry._ID + " INTEGER PRIMARY KEY, " +
+                    HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                    HistoryEntry.COLUMN_SEGMENT_START + " INTEGER NOT NULL, " +
+                    HistoryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                    HistoryEntry.COLUMN_DAYS + " BLOB NOT NULL, " +
+                    " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                    HistoryEntry.COLUMN_SEGMENT_START + ") ON CONFLICT REPLACE);";
+
+    static final String SQL_LOCATION_LAST_USED_COLUMN =
+            LocationEntry.COLUMN_LAST_USED + " INTEGER NOT NULL DEFAULT 0";
+
+    /**
+     * One step of the schema's history: takes a database at {@link #fromVersion} to the next
+     * version, keeping the rows already in it.
+     */
+    static abstract class Migration {
+        final int fromVersion;
+
+        Migration(int fromVersion) {
+            this.fromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Every version the schema has been through, in order.  When the schema changes, bump
+    // DATABASE_VERSION and add the step from the old version here.  A database older than the
+    // first step has no way forward and is rebuilt empty.
+    static final Migration[] MIGRATIONS = {
+            // 2 -> 3: index the weather by location and date
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+            // 3 -> 4: remember when each location was last used, counting from the upgrade
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            SQL_LOCATION_LAST_USED_COLUMN);
+                    db.execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                            LocationEntry.COLUMN_LAST_USED + " = " + System.currentTimeMillis());
+                }
+            },
+            // 4 -> 5: keep past days in a history table
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_HISTORY_TABLE);
+                }
+            },
+    };
+
+    /**
+     * How connections to the database are set up.
+     */
+    static final class Configuration {
+        // Write-ahead logging lets the provider's readers keep going while a sync writes, and
+        // turns each commit into an append to the log instead of a journal plus database fsync
+        final boolean writeAheadLogging;
+        // PRAGMA synchronous: 0 OFF, 1 NORMAL, 2 FULL.  With write-ahead logging NORMAL can
+        // only lose the last commits on power loss, never corrupt, which is fine for a cache
+        final int synchronous;
+        // PRAGMA cache_size, in KiB
+        final int cacheSizeKib;
+
+        Configuration(boolean writeAheadLogging, int synchronous, int cacheSizeKib) {
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.cacheSizeKib = cacheSizeKib;
+        }
+
+        static Configuration fromResources(Context context) {
+            return new Configuration(
+                    context.getResources().getBoolean(R.bool.db_write_ahead_logging),
+                    context.getResources().getInteger(R.integer.db_synchronous),
+                    context.getResources().getInteger(R.integer.db_cache_size_kib));
+        }
+    }
+
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    private static final String SQL_LOCATION_ID_BY_SETTING =
+            "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                    " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+    private static final String SQL_LOCATION_SETTING_BY_ID =
+            "SELECT " + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                    LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = ?";
+
+    private final Configuration mConfiguration;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, Configuration.fromResources(context));
+    }
+
+    // For tests, which open fixtures of older databases under their own names
+    WeatherDbHelper(Context context, String name) {
+        this(context, name, Configuration.fromResources(context));
+    }
+
+    WeatherDbHelper(Context context, String name, Configuration configuration) {
+        super(context, name, null, DATABASE_VERSION);
+        mConfiguration = configuration;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Runs on every open, before onCreate and onUpgrade
+        if (mConfiguration.writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        }
+        // After switching the journal mode, which resets the sync mode to the platform default.
+        // Readers get their own connections under write-ahead logging and keep SQLite's default
+        // cache size; these only apply to the connection that writes.
+        db.execSQL("PRAGMA synchronous = " + mConfiguration.synchronous);
+        // A negative cache_size is in KiB rather than pages
+        db.execSQL("PRAGMA cache_size = -" + mConfiguration.cacheSizeKib);
+        // Lets retention hand deleted pages back a few at a time.  It only takes effect on a
+        // new database, or on an older one after its next VACUUM.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     @Override
@@ -45,7 +188,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                SQL_LOCATION_LAST_USED_COLUMN +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -81,18 +225,86 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // SQLiteOpenHelper runs this inside a transaction, so a step that fails leaves the
+        // database at oldVersion rather than half way
+        if (migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            return;
+        }
+
+        // This database is only a cache for online data, so when there's no way to carry the
+        // rows over it's enough to discard them and start over
+        Log.w(LOG_TAG, "No migration from version " + oldVersion + " to " + newVersion +
+                ", recreating the database");
+        recreate(sqLiteDatabase);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // An older build can't know what a newer one changed
+        recreate(sqLiteDatabase);
+    }
+
+    /**
+     * Runs the migrations from oldVersion up to newVersion, one version at a time.
+     *
+     * @return false, without touching the database, if any step along the way is missing
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Migration[] steps = new Migration[newVersion - oldVersion];
+        for (Migration migration : MIGRATIONS) {
+            int step = migration.fromVersion - oldVersion;
+            if (step >= 0 && step < steps.length) {
+                steps[step] = migration;
+            }
+        }
+        for (Migration step : steps) {
+            if (step == null) {
+                return false;
+            }
+        }
+        for (Migration step : steps) {
+            step.migrate(db);
+        }
+        return true;
+    }
+
+    /**
+     * @return the row id of the location with this location setting, or -1 if there's none
+     */
+    long queryLocationId(String locationSetting) {
+        // A statement of its own each time: sharing one needs a lock, and without write-ahead
+        // logging a reader holding it can wait on the one connection while a sync's transaction
+        // holds that and waits on the lock
+        try {
+            return DatabaseUtils.longForQuery(getReadableDatabase(), SQL_LOCATION_ID_BY_SETTING,
+                    new String[]{locationSetting});
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the location setting of the location row, or null if there's no such row
+     */
+    String queryLocationSetting(long locationId) {
+        try {
+            return DatabaseUtils.stringForQuery(getReadableDatabase(),
+                    SQL_LOCATION_SETTING_BY_ID, new String[]{Long.toString(locationId)});
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The history table: past days of weather, kept per location in segments of
+ * {@link HistoryEntry#SEGMENT_DAYS} days encoded by {@link HistoryCodec}.
+ *
+ * Days get here from the weather table as retention prunes them, so the history holds the
+ * last forecast the app had for each day.  A day that's archived twice keeps the later copy.
+ */
+final class WeatherHistory {
+
+    // What a history query can return, named as the weather table names them
+    private static final String[] sColumns = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The weather columns that are archived, in ForecastBatch.add order
+    private static final String[] sArchivedColumns = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    //location_id = ? AND date < ?
+    private static final String sWeatherBeforeSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    //location_id = ? AND segment_start = ?
+    private static final String sSegmentSelection =
+            HistoryEntry.COLUMN_LOC_KEY + " = ? AND " + HistoryEntry.COLUMN_SEGMENT_START + " = ?";
+
+    //location_id = ? AND segment_start BETWEEN ? AND ?
+    private static final String sSegmentRangeSelection =
+            HistoryEntry.COLUMN_LOC_KEY + " = ? AND " + HistoryEntry.COLUMN_SEGMENT_START +
+                    " BETWEEN ? AND ?";
+
+    private WeatherHistory() {
+    }
+
+    /**
+     * Copies the location's weather dated before the given date into its history, before
+     * retention deletes it.  Copying a day that's already archived just replaces it.
+     *
+     * @return the number of days archived
+     */
+    static int archive(SQLiteDatabase db, long locationId, long before) {
+        ForecastBatch days = new ForecastBatch();
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, sArchivedColumns,
+                sWeatherBeforeSelection,
+                new String[]{Long.toString(locationId), Long.toString(before)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                days.add(locationId, cursor.getLong(0), cursor.getInt(1), null,
+                        cursor.getDouble(2), cursor.getDouble(3), cursor.getDouble(4),
+                        cursor.getDouble(5), cursor.getDouble(6), cursor.getDouble(7));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Time time = new Time();
+        int from = 0;
+        while (from < days.size()) {
+            int segmentStart = segmentStart(HistoryCodec.toJulianDay(time, days.getDate(from)));
+            int to = from + 1;
+            while (to < days.size() && segmentStart(
+                    HistoryCodec.toJulianDay(time, days.getDate(to))) == segmentStart) {
+                to++;
+            }
+            writeSegment(db, locationId, segmentStart, merge(
+                    readSegment(db, locationId, segmentStart), days, from, to, time));
+            from = to;
+        }
+        return days.size();
+    }
+
+    /**
+     * @param startDate the first normalized date to return, or Long.MIN_VALUE
+     * @param endDate   the last normalized date to return, or Long.MAX_VALUE
+     * @return the location's history in that range, in date order, with the weather table's
+     * column names; a day's _id is its Julian day
+     */
+    static Cursor query(SQLiteDatabase db, long locationId, String[] projection,
+                        long startDate, long endDate) {
+        String[] columns = projection != null ? projection : sColumns;
+        int[] columnIndexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnIndexes[i] = indexOf(columns[i]);
+        }
+        MatrixCursor result = new MatrixCursor(columns);
+        if (locationId == -1) {
+            return result;
+        }
+
+        Time time = new Time();
+        int startDay = startDate == Long.MIN_VALUE
+                ? 0 : HistoryCodec.toJulianDay(time, startDate);
+        int endDay = endDate == Long.MAX_VALUE
+                ? Integer.MAX_VALUE : HistoryCodec.toJulianDay(time, endDate);
+        Cursor segments = db.query(HistoryEntry.TABLE_NAME,
+                new String[]{HistoryEntry.COLUMN_DAYS},
+                sSegmentRangeSelection,
+                new String[]{Long.toString(locationId), Integer.toString(segmentStart(startDay)),
+                        Integer.toString(endDay)},
+                null, null, HistoryEntry.COLUMN_SEGMENT_START + " ASC");
+        ForecastBatch days = new ForecastBatch(HistoryEntry.SEGMENT_DAYS);
+        Object[] row = new Object[columns.length];
+        try {
+            while (segments.moveToNext()) {
+                days.clear();
+                HistoryCodec.decode(segments.getBlob(0), locationId, days);
+                for (int day = 0; day < days.size(); day++) {
+                    int julianDay = HistoryCodec.toJulianDay(time, days.getDate(day));
+                    if (julianDay < startDay || julianDay > endDay) {
+                        continue;
+                    }
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = value(days, day, julianDay, columnIndexes[i]);
+                    }
+                    result.addRow(row);
+                }
+            }
+        } finally {
+            segments.close();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of segments deleted
+     */
+    static int delete(SQLiteDatabase db, long locationId) {
+        return db.delete(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)});
+    }
+
+    /**
+     * Deletes the history of locations that are no longer in the location table.
+     *
+     * @return the number of segments deleted
+     */
+    static int deleteOrphans(SQLiteDatabase db) {
+        return db.delete(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME + ")", null);
+    }
+
+    /**
+     * Deletes every segment that ends before the given Julian day.  A segment that straddles
+     * it is kept whole, so up to SEGMENT_DAYS - 1 older days may stay behind.
+     *
+     * @return the number of segments deleted
+     */
+    static int deleteBefore(SQLiteDatabase db, int julianDay) {
+        return db.delete(HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_SEGMENT_START + " <= ?",
+                new String[]{Integer.toString(segmentStart(julianDay) - HistoryEntry.SEGMENT_DAYS)});
+    }
+
+    static int segmentStart(int julianDay) {
+        return julianDay - julianDay % HistoryEntry.SEGMENT_DAYS;
+    }
+
+    private static ForecastBatch readSegment(SQLiteDatabase db, long locationId,
+                                             int segmentStart) {
+        ForecastBatch days = new ForecastBatch(HistoryEntry.SEGMENT_DAYS);
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, new String[]{HistoryEntry.COLUMN_DAYS},
+                sSegmentSelection,
+                new String[]{Long.toString(locationId), Integer.toString(segmentStart)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                HistoryCodec.decode(cursor.getBlob(0), locationId, days);
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    private static void writeSegment(SQLiteDatabase db, long locationId, int segmentStart,
+                                     ForecastBatch days) {
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_LOC_KEY, locationId);
+        values.put(HistoryEntry.COLUMN_SEGMENT_START, segmentStart);
+        values.put(HistoryEntry.COLUMN_DAY_COUNT, days.size());
+        values.put(HistoryEntry.COLUMN_DAYS, HistoryCodec.encode(days, 0, days.size()));
+        // Replaces the segment's old row through the UNIQUE constraint
+        db.insert(HistoryEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Merges rows [from, to) of the new days into the stored ones, both in date order, with the
+     * new row winning where both have the same day.
+     */
+    private static ForecastBatch merge(ForecastBatch stored, ForecastBatch added, int from, int to,
+                                       Time time) {
+        ForecastBatch merged = new ForecastBatch(stored.size() + to - from);
+        int i = 0;
+        int j = from;
+        while (i < stored.size() || j < to) {
+            int storedDay = i < stored.size()
+                    ? HistoryCodec.toJulianDay(time, stored.getDate(i)) : Integer.MAX_VALUE;
+            int addedDay = j < to
+                    ? HistoryCodec.toJulianDay(time, added.getDate(j)) : Integer.MAX_VALUE;
+            if (addedDay <= storedDay) {
+                copyRow(added, j++, merged);
+                if (addedDay == storedDay) {
+                    i++;
+                }
+            } else {
+                copyRow(stored, i++, merged);
+            }
+        }
+        return merged;
+    }
+
+    private static void copyRow(ForecastBatch from, int row, ForecastBatch to) {
+        to.add(from.getLocationId(row), from.getDate(row), from.getWeatherId(row), null,
+                from.getMinTemp(row), from.getMaxTemp(row), from.getHumidity(row),
+                from.getPressure(row), from.getWindSpeed(row), from.getDegrees(row));
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < sColumns.length; i++) {
+            if (sColumns[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown history column: " + column);
+    }
+
+    private static Object value(ForecastBatch days, int row, int julianDay, int column) {
+        switch (column) {
+            case 0:
+                return julianDay;
+            case 1:
+                return days.getLocationId(row);
+            case 2:
+                return days.getDate(row);
+            case 3:
+                return days.getWeatherId(row);
+            case 4:
+                return days.getShortDesc(row);
+            case 5:
+                return days.getMinTemp(row);
+            case 6:
+                return days.getMaxTemp(row);
+            case 7:
+                return days.getHumidity(row);
+            case 8:
+                return days.getPressure(row);
+            case 9:
+                return days.getWindSpeed(row);
+            default:
+                return days.getDegrees(row);
+        }
+    }
+}
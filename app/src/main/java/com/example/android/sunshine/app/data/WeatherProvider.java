@@ -20,20 +20,42 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Parcelable;
+import android.os.Process;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private WeatherRetention mRetention;
+    private HandlerThread mNotifierThread;
+    private NotificationCoalescer mNotifier;
+    private QueryResultCache mResultCache;
+
+    // location._id -> location.location_setting, for naming the weather URIs that changed
+    private final HashMap<Long, String> mLocationSettings = new HashMap<Long, String>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_SUMMARY = 103;
+    static final int WEATHER_NEXT = 104;
     static final int LOCATION = 300;
+    static final int HISTORY_WITH_LOCATION = 400;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -52,30 +74,313 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //location.location_setting = ? AND date >= ? AND date <= ?
+    static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME+
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
+
+    //location_id = ? AND date >= ? AND date <= ?
+    static final String sLocationIdWithDateRangeSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
+
+    //location_id = ? AND date >= ? AND weather_id IN (...), the ids of a next query's condition
+    private static final String sNextMatchingSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " IN ";
+
+    private static final String[] CONDITIONS = {
+            WeatherContract.WeatherEntry.CONDITION_STORM,
+            WeatherContract.WeatherEntry.CONDITION_RAIN,
+            WeatherContract.WeatherEntry.CONDITION_SNOW,
+            WeatherContract.WeatherEntry.CONDITION_FOG,
+            WeatherContract.WeatherEntry.CONDITION_CLEAR,
+            WeatherContract.WeatherEntry.CONDITION_CLOUDS
+    };
+
+    // Each condition's next query selection, built once from WeatherConditions' tables
+    private static final HashMap<String, String> sNextMatchingSelections =
+            new HashMap<String, String>();
+
+    static {
+        for (String condition : CONDITIONS) {
+            StringBuilder selection = new StringBuilder(sNextMatchingSelection).append('(');
+            int[] weatherIds = getConditionWeatherIds(condition);
+            for (int i = 0; i < weatherIds.length; i++) {
+                selection.append(i == 0 ? "" : ",").append(weatherIds[i]);
+            }
+            sNextMatchingSelections.put(condition, selection.append(')').toString());
+        }
+    }
+
+    private static final SQLiteQueryBuilder sWeatherSummaryQueryBuilder;
+
+    static {
+        // Each summary column is an aggregate over the location's days in the range, and the
+        // query has no GROUP BY, so it always returns exactly one row
+        HashMap<String, String> columns = new HashMap<String, String>();
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_DAY_COUNT, "COUNT(*)");
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_FIRST_DATE,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")");
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_LAST_DATE,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")");
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_LOW,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_HIGH,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_AVERAGE_LOW,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_AVERAGE_HIGH,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_AVERAGE_HUMIDITY,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        addAggregate(columns, WeatherContract.WeatherEntry.COLUMN_MAX_WIND_SPEED,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ")");
+        sWeatherSummaryQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherSummaryQueryBuilder.setTables(WeatherContract.WeatherEntry.TABLE_NAME);
+        sWeatherSummaryQueryBuilder.setProjectionMap(columns);
+    }
+
+    private static void addAggregate(HashMap<String, String> columns, String name,
+                                     String expression) {
+        columns.put(name, expression + " AS " + name);
+    }
+
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //date = ? AND location_id = ?
+    static final String sWeatherDateAndLocationSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //INSERT INTO weather (location_id, date, ...) VALUES (?, ?, ...), for ForecastBatch rows
+    private static final String sInsertWeatherSql =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    //UPDATE weather SET weather_id = ?, ... WHERE _id = ?, in the same column order
+    private static final String sUpdateWeatherSql =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ? WHERE " +
+                    WeatherContract.WeatherEntry._ID + " = ?";
+
+    // What a ForecastBatch row is compared against, in the same column order again
+    private static final String[] sStoredWeatherColumns = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    //_id = ?
+    private static final String sWeatherIdSelection =
+            WeatherContract.WeatherEntry._ID + " = ? ";
+
+    //date <= ?
+    static final String sWeatherOnOrBeforeDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
+
+    //location_setting = ?
+    static final String sLocationSettingOnlySelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    //_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.LocationEntry._ID + " = ? ";
+
+    /**
+     * What an upsert did with the rows it was handed.
+     */
+    static final class UpsertResult {
+        int inserted;
+        int changed;
+        int unchanged;
+        int deleted;
+
+        int written() {
+            return inserted + changed;
+        }
+    }
+
+    /**
+     * @return the SQL the weather-by-location queries run with this selection, so tests
+     *         can check how SQLite plans it.
+     */
+    static String buildWeatherByLocationSettingQuery(String[] projection, String selection,
+                                                     String sortOrder) {
+        return sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, selection, null, null, sortOrder, null);
+    }
+
+    /**
+     * @return the SQL a summary query runs, for tests to check its plan
+     */
+    static String buildWeatherSummaryQuery(String[] projection) {
+        return sWeatherSummaryQueryBuilder.buildQuery(
+                projection, sLocationIdWithDateRangeSelection, null, null, null, null);
+    }
+
+    /**
+     * @return the WeatherConditions kinds a next query's condition looks for, so a day matches
+     * when the app would show it with one of their icons
+     * @throws IllegalArgumentException for a condition that isn't one of CONDITION_*
+     */
+    static int[] getConditionKinds(String condition) {
+        if (WeatherContract.WeatherEntry.CONDITION_STORM.equals(condition)) {
+            return new int[]{WeatherConditions.KIND_STORM};
+        } else if (WeatherContract.WeatherEntry.CONDITION_RAIN.equals(condition)) {
+            return new int[]{WeatherConditions.KIND_LIGHT_RAIN, WeatherConditions.KIND_RAIN};
+        } else if (WeatherContract.WeatherEntry.CONDITION_SNOW.equals(condition)) {
+            return new int[]{WeatherConditions.KIND_SNOW};
+        } else if (WeatherContract.WeatherEntry.CONDITION_FOG.equals(condition)) {
+            return new int[]{WeatherConditions.KIND_FOG};
+        } else if (WeatherContract.WeatherEntry.CONDITION_CLEAR.equals(condition)) {
+            return new int[]{WeatherConditions.KIND_CLEAR};
+        } else if (WeatherContract.WeatherEntry.CONDITION_CLOUDS.equals(condition)) {
+            return new int[]{WeatherConditions.KIND_LIGHT_CLOUDS, WeatherConditions.KIND_CLOUDS};
+        }
+        throw new IllegalArgumentException("Unknown condition: " + condition);
+    }
+
+    /**
+     * @return the weather ids of the condition's kinds, in ascending order
+     * @throws IllegalArgumentException for a condition that isn't one of CONDITION_*
+     */
+    static int[] getConditionWeatherIds(String condition) {
+        int[] kinds = getConditionKinds(condition);
+        int[] weatherIds = new int[WeatherConditions.MAX_ID + 1];
+        int count = 0;
+        for (int weatherId = 0; weatherId <= WeatherConditions.MAX_ID; weatherId++) {
+            int kind = WeatherConditions.getKind(weatherId);
+            for (int wanted : kinds) {
+                if (kind == wanted) {
+                    weatherIds[count++] = weatherId;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(weatherIds, count);
+    }
+
+    /**
+     * @return the selection of a next query for the condition, taking the location id and the
+     * first date as arguments
+     * @throws IllegalArgumentException for a condition that isn't one of CONDITION_*
+     */
+    static String getNextMatchingSelection(String condition) {
+        String selection = sNextMatchingSelections.get(condition);
+        if (selection == null) {
+            throw new IllegalArgumentException("Unknown condition: " + condition);
+        }
+        return selection;
+    }
+
+    // "weather/*/summary": one row of aggregates, cached until the weather changes
+    private Cursor getWeatherSummary(Uri uri, String[] projection) {
+        String key = cacheKey(uri, projection);
+        Cursor cached = mResultCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mResultCache.generation();
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        // By location id, so SQLite can go straight to the location's end of the
+        // (location_id, date) index without a join
+        Cursor cursor = sWeatherSummaryQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationIdWithDateRangeSelection,
+                new String[]{Long.toString(mOpenHelper.queryLocationId(locationSetting)),
+                        Long.toString(WeatherContract.WeatherEntry.getStartDateFromUri(uri)),
+                        Long.toString(WeatherContract.WeatherEntry.getEndDateFromUri(uri))},
+                null,
+                null,
+                null
+        );
+        return mResultCache.put(key, generation, cursor);
+    }
+
+    // "weather/*/next": the first matching day as a weather row, cached like a summary
+    private Cursor getNextMatchingWeather(Uri uri, String[] projection) {
+        String selection = getNextMatchingSelection(
+                WeatherContract.WeatherEntry.getConditionFromUri(uri));
+        String key = cacheKey(uri, projection);
+        Cursor cached = mResultCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mResultCache.generation();
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                selection,
+                new String[]{Long.toString(mOpenHelper.queryLocationId(locationSetting)),
+                        Long.toString(WeatherContract.WeatherEntry.getStartDateFromUri(uri))},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                "1"
+        );
+        return mResultCache.put(key, generation, cursor);
+    }
+
+    private static String cacheKey(Uri uri, String[] projection) {
+        return uri + "|" + Arrays.toString(projection);
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.WeatherEntry.getEndDateFromUri(uri);
 
         String[] selectionArgs;
         String selection;
 
-        if (startDate == 0) {
+        if (endDate != Long.MAX_VALUE) {
+            selection = sLocationSettingWithDateRangeSelection;
+            selectionArgs = new String[]{locationSetting, Long.toString(startDate),
+                    Long.toString(endDate)};
+        } else if (startDate == 0) {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
@@ -93,6 +398,15 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    // History is always returned in date order, whatever the sort order asks for
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        return WeatherHistory.query(mOpenHelper.getReadableDatabase(),
+                mOpenHelper.queryLocationId(locationSetting), projection,
+                WeatherContract.HistoryEntry.getStartDateFromUri(uri),
+                WeatherContract.HistoryEntry.getEndDateFromUri(uri));
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -128,8 +442,14 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_SUMMARY, WEATHER_SUMMARY);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_NEXT, WEATHER_NEXT);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,6 +460,24 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mRetention = WeatherRetention.fromResources(getContext());
+        mNotifierThread = new HandlerThread("WeatherProviderNotifier",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mNotifierThread.start();
+        mNotifier = new NotificationCoalescer(getContext().getContentResolver(),
+                new Handler(mNotifierThread.getLooper()),
+                getContext().getResources().getInteger(R.integer.provider_notify_window_millis));
+        mResultCache = new QueryResultCache(
+                getContext().getResources().getInteger(R.integer.provider_result_cache_entries));
+        // Every write the provider makes is reported to the notifier, so that's where the
+        // cached results, and the process's forecast snapshot, find out they're stale
+        mNotifier.setChangeListener(new Runnable() {
+            @Override
+            public void run() {
+                mResultCache.invalidate();
+                ForecastSnapshotCache.getInstance().invalidate();
+            }
+        });
         return true;
     }
 
@@ -158,12 +496,17 @@ public class WeatherProvider extends ContentProvider {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
+            case WEATHER_SUMMARY:
+            case WEATHER_NEXT:
+                return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,6 +518,7 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
+        Uri notificationUri = uri;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
@@ -182,6 +526,20 @@ public class WeatherProvider extends ContentProvider {
                 retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
                 break;
             }
+            // "weather/*/summary" and "weather/*/next" depend on every day of the location, so
+            // they listen to the location's weather rather than to their own uri
+            case WEATHER_SUMMARY: {
+                retCursor = getWeatherSummary(uri, projection);
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            }
+            case WEATHER_NEXT: {
+                retCursor = getNextMatchingWeather(uri, projection);
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
@@ -213,11 +571,16 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
@@ -238,20 +601,22 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyWeatherChanged(values);
                 break;
             }
             case LOCATION: {
+                markUsed(values);
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                mNotifier.uriChanged(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -270,17 +635,30 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                clearLocationSettings();
+                // A location's row id can be handed out again, so its history can't stay behind
+                if (rowsDeleted != 0 && WeatherHistory.deleteOrphans(db) != 0) {
+                    mNotifier.uriChanged(WeatherContract.HistoryEntry.CONTENT_URI);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        // Because a null deletes all rows
+        // Because a null deletes all rows.  The selection could have matched any row, so the
+        // whole table's observers are told.
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            mNotifier.uriChanged(uri);
         }
         return rowsDeleted;
     }
 
+    // A new location counts as used when it's added, so retention doesn't evict it right away
+    private static void markUsed(ContentValues values) {
+        if (!values.containsKey(WeatherContract.LocationEntry.COLUMN_LAST_USED)) {
+            values.put(WeatherContract.LocationEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -305,12 +683,13 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                clearLocationSettings();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            mNotifier.uriChanged(uri);
         }
         return rowsUpdated;
     }
@@ -321,6 +700,11 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    UpsertResult result = upsertWeather(db, values);
+                    return result.written();
+                }
+                mNotifier.beginBatch();
                 db.beginTransaction();
                 int returnCount = 0;
                 try {
@@ -329,25 +713,537 @@ public class WeatherProvider extends ContentProvider {
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            notifyWeatherChanged(value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
+                    mNotifier.endBatch();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_UPSERT_WEATHER.equals(method)) {
+            requireExtras(method, extras);
+            ContentValues[] values =
+                    toContentValues(extras.getParcelableArray(WeatherContract.EXTRA_VALUES));
+            return toCountsBundle(upsertWeather(mOpenHelper.getWritableDatabase(), values));
+        }
+        if (WeatherContract.METHOD_COMMIT_FORECAST.equals(method)) {
+            requireExtras(method, extras);
+            return toCountsBundle(commitForecast(mOpenHelper.getWritableDatabase(), extras));
+        }
+        if (WeatherContract.METHOD_APPLY_RETENTION.equals(method)) {
+            requireExtras(method, extras);
+            return applyRetention(arg, extras.getLong(WeatherContract.EXTRA_TODAY));
+        }
+        if (WeatherContract.METHOD_INSERT_WEATHER.equals(method)) {
+            requireExtras(method, extras);
+            // The batch may have come from another process, whose class loader Bundle can't know
+            extras.setClassLoader(ForecastBatch.class.getClassLoader());
+            ForecastBatch batch = extras.getParcelable(WeatherContract.EXTRA_BATCH);
+            if (batch == null) {
+                throw new IllegalArgumentException(
+                        method + " needs a " + WeatherContract.EXTRA_BATCH);
+            }
+            UpsertResult result = new UpsertResult();
+            result.inserted = insertWeather(mOpenHelper.getWritableDatabase(), batch);
+            return toCountsBundle(result);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the caller passed no extras, before anything is written
+     */
+    private static void requireExtras(String method, Bundle extras) {
+        if (extras == null) {
+            throw new IllegalArgumentException(method + " needs extras");
+        }
+    }
+
+    /**
+     * @param usedLocationSetting the location the user is looking at, which is never evicted
+     */
+    private Bundle applyRetention(String usedLocationSetting, long today) {
+        WeatherRetention.Result result;
+        mNotifier.beginBatch();
+        try {
+            result = mRetention.apply(mOpenHelper.getWritableDatabase(),
+                    WeatherContract.normalizeDate(today), System.currentTimeMillis(),
+                    usedLocationSetting);
+            for (String locationSetting : result.prunedLocations) {
+                mNotifier.locationChanged(locationSetting);
+                mNotifier.uriChanged(
+                        WeatherContract.HistoryEntry.buildHistoryLocation(locationSetting));
+            }
+            if (result.locationsEvicted > 0) {
+                clearLocationSettings();
+                for (String locationSetting : result.evictedLocations) {
+                    mNotifier.locationChanged(locationSetting);
+                    mNotifier.uriChanged(
+                            WeatherContract.HistoryEntry.buildHistoryLocation(locationSetting));
+                }
+            }
+        } finally {
+            mNotifier.endBatch();
+        }
+        Bundle counts = new Bundle();
+        counts.putInt(WeatherContract.EXTRA_DELETED_COUNT, result.weatherDeleted);
+        counts.putInt(WeatherContract.EXTRA_EVICTED_COUNT, result.locationsEvicted);
+        return counts;
+    }
+
+    /**
+     * @param locationIds the ids already resolved in this transaction, by location setting, which
+     *                    this adds to
+     * @throws IllegalArgumentException if the location setting isn't stored
+     */
+    private long resolveLocationId(String locationSetting, HashMap<String, Long> locationIds) {
+        Long id = locationIds.get(locationSetting);
+        if (id == null) {
+            id = mOpenHelper.queryLocationId(locationSetting);
+            if (id == -1) {
+                throw new IllegalArgumentException("Unknown location: " + locationSetting);
+            }
+            locationIds.put(locationSetting, id);
+        }
+        return id;
+    }
+
+    /**
+     * Inserts every row of the batch, as bulkInsert does, through a single compiled statement
+     * that's rebound for each row.
+     *
+     * @return the number of rows inserted
+     * @throws IllegalArgumentException if a row names a location setting that isn't stored
+     */
+    private int insertWeather(SQLiteDatabase db, ForecastBatch batch) {
+        int returnCount = 0;
+        mNotifier.beginBatch();
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(sInsertWeatherSql);
+        try {
+            // A batch is usually a run of days for one location, so remember the last one
+            // rather than going to the location setting cache for every row
+            long locationId = -1;
+            String locationSetting = null;
+            HashMap<String, Long> locationIds = new HashMap<String, Long>();
+            for (int row = 0; row < batch.size(); row++) {
+                String rowLocationSetting = batch.getLocationSetting(row);
+                if (rowLocationSetting == null) {
+                    if (batch.getLocationId(row) != locationId) {
+                        locationId = batch.getLocationId(row);
+                        locationSetting = getLocationSetting(locationId);
+                    }
+                } else if (!rowLocationSetting.equals(locationSetting)) {
+                    locationSetting = rowLocationSetting;
+                    locationId = resolveLocationId(locationSetting, locationIds);
+                }
+
+                long date = WeatherContract.normalizeDate(batch.getDate(row));
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, date);
+                bindWeatherValues(insert, 3, batch, row);
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                    mNotifier.weatherChanged(locationSetting, date);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+            mNotifier.endBatch();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Stores a whole sync: locations, their weather and the pruning of old weather, all in one
+     * transaction.  Observers are told once, at the end, and only about the locations and days
+     * that were actually written.
+     */
+    private UpsertResult commitForecast(SQLiteDatabase db, Bundle extras) {
+        // Before anything is read, since the whole Bundle is unparcelled on the first get
+        extras.setClassLoader(ForecastBatch.class.getClassLoader());
+        ContentValues[] locations =
+                toContentValues(extras.getParcelableArray(WeatherContract.EXTRA_LOCATIONS));
+        ContentValues[] values =
+                toContentValues(extras.getParcelableArray(WeatherContract.EXTRA_VALUES));
+        ForecastBatch batch = extras.getParcelable(WeatherContract.EXTRA_BATCH);
+
+        UpsertResult result = new UpsertResult();
+        HashMap<String, Long> locationIds = new HashMap<String, Long>();
+        mNotifier.beginBatch();
+        db.beginTransaction();
+        try {
+            for (ContentValues location : locations) {
+                locationIds.put(
+                        location.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING),
+                        upsertLocation(db, location, result));
+            }
+            for (ContentValues value : values) {
+                String locationSetting =
+                        value.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (locationSetting != null) {
+                    Long locationId = locationIds.get(locationSetting);
+                    if (locationId == null) {
+                        locationId = mOpenHelper.queryLocationId(locationSetting);
+                        if (locationId == -1) {
+                            throw new IllegalArgumentException(
+                                    "Unknown location: " + locationSetting);
+                        }
+                        locationIds.put(locationSetting, locationId);
+                    }
+                    value.remove(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    value.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+                normalizeDate(value);
+                upsertWeatherRow(db, value, result);
+            }
+            if (batch != null) {
+                upsertWeather(db, batch, locationIds, result);
+            }
+            if (extras.containsKey(WeatherContract.EXTRA_PRUNE_DATE)) {
+                result.deleted = pruneWeather(db,
+                        extras.getLong(WeatherContract.EXTRA_PRUNE_DATE));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mNotifier.endBatch();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the location, or updates the stored one with the same location setting if anything
+     * about it changed.
+     *
+     * @return the location's row id
+     */
+    private long upsertLocation(SQLiteDatabase db, ContentValues location, UpsertResult result) {
+        String locationSetting =
+                location.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+
+        String[] columns = new String[location.size() + 1];
+        location.keySet().toArray(columns);
+        columns[columns.length - 1] = WeatherContract.LocationEntry._ID;
+
+        Cursor existing = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                columns,
+                sLocationSettingOnlySelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null,
+                "1");
+        try {
+            if (!existing.moveToFirst()) {
+                markUsed(location);
+                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+                if (_id == -1) {
+                    throw new android.database.SQLException(
+                            "Failed to insert location " + locationSetting);
+                }
+                putLocationSetting(_id, locationSetting);
+                mNotifier.locationChanged(locationSetting);
+                return _id;
+            }
+            long _id = existing.getLong(columns.length - 1);
+            if (!matchesStoredRow(existing, location)) {
+                db.update(WeatherContract.LocationEntry.TABLE_NAME, location, sLocationIdSelection,
+                        new String[]{Long.toString(_id)});
+                mNotifier.locationChanged(locationSetting);
+            }
+            putLocationSetting(_id, locationSetting);
+            return _id;
+        } finally {
+            existing.close();
+        }
+    }
+
+    /**
+     * The ForecastBatch version of upsertWeatherRow: rows are compared column by column against
+     * what's stored, and written through compiled statements, without building a ContentValues
+     * for any of them.
+     *
+     * @param locationIds the ids of locations already resolved in this transaction, by location
+     *                    setting; rows naming any other location setting add to it
+     */
+    private void upsertWeather(SQLiteDatabase db, ForecastBatch batch,
+                               HashMap<String, Long> locationIds, UpsertResult result) {
+        SQLiteStatement insert = db.compileStatement(sInsertWeatherSql);
+        SQLiteStatement update = db.compileStatement(sUpdateWeatherSql);
+        String[] selectionArgs = new String[2];
+        try {
+            // Rows come a location at a time, so only resolve the location when it changes
+            long locationId = -1;
+            String locationSetting = null;
+            for (int row = 0; row < batch.size(); row++) {
+                String rowLocationSetting = batch.getLocationSetting(row);
+                if (rowLocationSetting == null) {
+                    if (batch.getLocationId(row) != locationId) {
+                        locationId = batch.getLocationId(row);
+                        locationSetting = getLocationSetting(locationId);
+                    }
+                } else if (!rowLocationSetting.equals(locationSetting)) {
+                    locationSetting = rowLocationSetting;
+                    locationId = resolveLocationId(locationSetting, locationIds);
+                }
+
+                long date = WeatherContract.normalizeDate(batch.getDate(row));
+                selectionArgs[0] = Long.toString(date);
+                selectionArgs[1] = Long.toString(locationId);
+                Cursor existing = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                        sStoredWeatherColumns,
+                        sWeatherDateAndLocationSelection,
+                        selectionArgs,
+                        null,
+                        null,
+                        null,
+                        "1");
+                try {
+                    if (!existing.moveToFirst()) {
+                        insert.bindLong(1, locationId);
+                        insert.bindLong(2, date);
+                        bindWeatherValues(insert, 3, batch, row);
+                        if (insert.executeInsert() != -1) {
+                            result.inserted++;
+                            mNotifier.weatherChanged(locationSetting, date);
+                        }
+                    } else if (matchesStoredRow(existing, batch, row)) {
+                        result.unchanged++;
+                    } else {
+                        bindWeatherValues(update, 1, batch, row);
+                        update.bindLong(sStoredWeatherColumns.length, existing.getLong(0));
+                        update.executeUpdateDelete();
+                        result.changed++;
+                        mNotifier.weatherChanged(locationSetting, date);
+                    }
+                } finally {
+                    existing.close();
+                }
+            }
+        } finally {
+            insert.close();
+            update.close();
+        }
+    }
+
+    /**
+     * Binds the row's values, from weather_id to degrees, starting at the given index.
+     */
+    private static void bindWeatherValues(SQLiteStatement statement, int index,
+                                          ForecastBatch batch, int row) {
+        statement.bindLong(index, batch.getWeatherId(row));
+        statement.bindString(index + 1, batch.getShortDesc(row));
+        statement.bindDouble(index + 2, batch.getMinTemp(row));
+        statement.bindDouble(index + 3, batch.getMaxTemp(row));
+        statement.bindDouble(index + 4, batch.getHumidity(row));
+        statement.bindDouble(index + 5, batch.getPressure(row));
+        statement.bindDouble(index + 6, batch.getWindSpeed(row));
+        statement.bindDouble(index + 7, batch.getDegrees(row));
+    }
+
+    /**
+     * @param stored positioned on a row read with sStoredWeatherColumns
+     */
+    private static boolean matchesStoredRow(Cursor stored, ForecastBatch batch, int row) {
+        return stored.getInt(1) == batch.getWeatherId(row)
+                && batch.getShortDesc(row).equals(stored.getString(2))
+                && stored.getDouble(3) == batch.getMinTemp(row)
+                && stored.getDouble(4) == batch.getMaxTemp(row)
+                && stored.getDouble(5) == batch.getHumidity(row)
+                && stored.getDouble(6) == batch.getPressure(row)
+                && stored.getDouble(7) == batch.getWindSpeed(row)
+                && stored.getDouble(8) == batch.getDegrees(row);
+    }
+
+    private static ContentValues[] toContentValues(Parcelable[] parcelables) {
+        if (parcelables == null) {
+            return new ContentValues[0];
+        }
+        ContentValues[] values = new ContentValues[parcelables.length];
+        for (int i = 0; i < parcelables.length; i++) {
+            values[i] = (ContentValues) parcelables[i];
+        }
+        return values;
+    }
+
+    private static Bundle toCountsBundle(UpsertResult result) {
+        Bundle counts = new Bundle();
+        counts.putInt(WeatherContract.EXTRA_INSERTED_COUNT, result.inserted);
+        counts.putInt(WeatherContract.EXTRA_CHANGED_COUNT, result.changed);
+        counts.putInt(WeatherContract.EXTRA_UNCHANGED_COUNT, result.unchanged);
+        counts.putInt(WeatherContract.EXTRA_DELETED_COUNT, result.deleted);
+        return counts;
+    }
+
+    /**
+     * Writes only the weather rows that are new or differ from what is stored for the same
+     * date and location.  Changed rows are updated in place instead of going through the
+     * ON CONFLICT REPLACE delete-and-insert, and observers are only notified if something
+     * was actually written.
+     */
+    private UpsertResult upsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        UpsertResult result = new UpsertResult();
+        mNotifier.beginBatch();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                upsertWeatherRow(db, value, result);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mNotifier.endBatch();
+        }
+        return result;
+    }
+
+    private void upsertWeatherRow(SQLiteDatabase db, ContentValues value, UpsertResult result) {
+        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (date == null || locationId == null) {
+            // Nothing to match on, so it can only be an insert
+            if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                result.inserted++;
+                notifyWeatherChanged(value);
+            }
+            return;
+        }
+
+        String[] columns = new String[value.size() + 1];
+        value.keySet().toArray(columns);
+        columns[columns.length - 1] = WeatherContract.WeatherEntry._ID;
+
+        Cursor existing = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                columns,
+                sWeatherDateAndLocationSelection,
+                new String[]{Long.toString(date), Long.toString(locationId)},
+                null,
+                null,
+                null,
+                "1");
+        try {
+            if (!existing.moveToFirst()) {
+                if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    result.inserted++;
+                    mNotifier.weatherChanged(getLocationSetting(locationId), date);
+                }
+            } else if (matchesStoredRow(existing, value)) {
+                result.unchanged++;
+            } else {
+                long _id = existing.getLong(columns.length - 1);
+                db.update(WeatherContract.WeatherEntry.TABLE_NAME, value, sWeatherIdSelection,
+                        new String[]{Long.toString(_id)});
+                result.changed++;
+                mNotifier.weatherChanged(getLocationSetting(locationId), date);
+            }
+        } finally {
+            existing.close();
+        }
+    }
+
+    /**
+     * Deletes weather on or before the date, telling the notifier which locations and days went.
+     */
+    private int pruneWeather(SQLiteDatabase db, long date) {
+        String[] selectionArgs = new String[]{Long.toString(date)};
+        Cursor doomed = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                sWeatherOnOrBeforeDateSelection,
+                selectionArgs,
+                null,
+                null,
+                null);
+        try {
+            while (doomed.moveToNext()) {
+                mNotifier.weatherChanged(getLocationSetting(doomed.getLong(0)),
+                        doomed.getLong(1));
+            }
+        } finally {
+            doomed.close();
+        }
+        return db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                sWeatherOnOrBeforeDateSelection, selectionArgs);
+    }
+
+    private void notifyWeatherChanged(ContentValues value) {
+        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (date == null || locationId == null) {
+            mNotifier.uriChanged(WeatherContract.WeatherEntry.CONTENT_URI);
+        } else {
+            mNotifier.weatherChanged(getLocationSetting(locationId), date);
+        }
+    }
+
+    /**
+     * @return the location setting for the location row, or null if there's no such row.
+     */
+    private String getLocationSetting(long locationId) {
+        synchronized (mLocationSettings) {
+            String locationSetting = mLocationSettings.get(locationId);
+            if (locationSetting != null) {
+                return locationSetting;
+            }
+        }
+        String locationSetting = mOpenHelper.queryLocationSetting(locationId);
+        if (locationSetting != null) {
+            putLocationSetting(locationId, locationSetting);
+        }
+        return locationSetting;
+    }
+
+    private void putLocationSetting(long locationId, String locationSetting) {
+        synchronized (mLocationSettings) {
+            mLocationSettings.put(locationId, locationSetting);
+        }
+    }
+
+    private void clearLocationSettings() {
+        synchronized (mLocationSettings) {
+            mLocationSettings.clear();
+        }
+    }
+
+    private static boolean matchesStoredRow(Cursor stored, ContentValues value) {
+        for (String column : value.keySet()) {
+            int index = stored.getColumnIndex(column);
+            Object expected = value.get(column);
+            if (expected == null) {
+                if (!stored.isNull(index)) return false;
+            } else if (stored.isNull(index)) {
+                return false;
+            } else if (expected instanceof Number) {
+                // REAL columns hand back exactly the double that went in, so no epsilon needed
+                if (((Number) expected).doubleValue() != stored.getDouble(index)) return false;
+            } else if (!expected.toString().equals(stored.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mNotifier.flush();
+        mNotifierThread.quit();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the weather database bounded: old weather is moved into the history location by
+ * location, locations nobody has used in a long time are deleted outright with their history,
+ * history past its limit is dropped, and the space all that took is given back.
+ *
+ * A location is in use if the user has looked at it lately, or if a sync refreshes it: the
+ * preferred location and the most recently used others, as many as sync_max_locations allows,
+ * see {@link LocationEntry#SORT_ORDER_RECENTLY_USED}.  Only the preferred location has its
+ * last_used stamped, so being synced keeps a location but doesn't make it any more recent.
+ *
+ * Every delete goes through the (location_id, date) index and removes at most a chunk of rows
+ * per transaction, so a device that has been installed for years catches up over a few short
+ * transactions instead of one long one that readers would wait on.
+ */
+class WeatherRetention {
+
+    private static final String LOG_TAG = WeatherRetention.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // PRAGMA auto_vacuum reports 2 once a database is in incremental mode
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * What one run removed, for the provider to notify and report.
+     */
+    static final class Result {
+        int weatherDeleted;
+        int daysArchived;
+        int locationsEvicted;
+        boolean vacuumed;
+        // Whose weather changed, and which locations are gone
+        final List<String> prunedLocations = new ArrayList<String>();
+        final List<String> evictedLocations = new ArrayList<String>();
+    }
+
+    // How many days before today each location keeps
+    private final int mHistoryDays;
+    // How many days of history each location keeps, counting back from today
+    private final int mHistoryMaxDays;
+    // How long a location can go unused before it's evicted
+    private final long mUnusedLocationMillis;
+    // How many locations a sync refreshes, the preferred one included; those are never evicted
+    private final int mTrackedLocations;
+    // Rows deleted per transaction
+    private final int mChunkRows;
+    // How much of the file may be free pages before a database that can't vacuum incrementally
+    // gets a full VACUUM
+    private final int mVacuumFreePercent;
+
+    WeatherRetention(int historyDays, int historyMaxDays, int unusedLocationDays,
+                     int trackedLocations, int chunkRows, int vacuumFreePercent) {
+        mHistoryDays = historyDays;
+        mHistoryMaxDays = historyMaxDays;
+        mUnusedLocationMillis = unusedLocationDays * DAY_IN_MILLIS;
+        mTrackedLocations = trackedLocations;
+        mChunkRows = chunkRows;
+        mVacuumFreePercent = vacuumFreePercent;
+    }
+
+    static WeatherRetention fromResources(Context context) {
+        Resources resources = context.getResources();
+        return new WeatherRetention(
+                resources.getInteger(R.integer.retention_history_days),
+                resources.getInteger(R.integer.retention_history_max_days),
+                resources.getInteger(R.integer.retention_unused_location_days),
+                resources.getInteger(R.integer.sync_max_locations),
+                resources.getInteger(R.integer.retention_delete_chunk_rows),
+                resources.getInteger(R.integer.retention_vacuum_free_percent));
+    }
+
+    /**
+     * @param today                the normalized date of the current day
+     * @param now                  the current time, which last_used is compared with
+     * @param usedLocationSetting  the location in use right now, which is marked as used before
+     *                             anything is evicted and takes the first of the synced places;
+     *                             may be null
+     */
+    Result apply(SQLiteDatabase db, long today, long now, String usedLocationSetting) {
+        Result result = new Result();
+        long keepFrom = today - mHistoryDays * DAY_IN_MILLIS;
+        long usedSince = now - mUnusedLocationMillis;
+
+        if (usedLocationSetting != null) {
+            ContentValues lastUsed = new ContentValues();
+            lastUsed.put(LocationEntry.COLUMN_LAST_USED, now);
+            db.update(LocationEntry.TABLE_NAME, lastUsed,
+                    WeatherProvider.sLocationSettingOnlySelection,
+                    new String[]{usedLocationSetting});
+        }
+
+        Cursor locations = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING,
+                        LocationEntry.COLUMN_LAST_USED},
+                null, null, null, null, LocationEntry.SORT_ORDER_RECENTLY_USED);
+        // Counted as the sync engine counts them, the preferred location first
+        int tracked = usedLocationSetting != null ? 1 : 0;
+        try {
+            while (locations.moveToNext()) {
+                long locationId = locations.getLong(0);
+                String locationSetting = locations.getString(1);
+                boolean synced = locationSetting.equals(usedLocationSetting);
+                if (!synced && tracked < mTrackedLocations) {
+                    synced = true;
+                    tracked++;
+                }
+                if (!synced && locations.getLong(2) < usedSince) {
+                    result.weatherDeleted += deleteWeather(db, locationId, Long.MAX_VALUE);
+                    WeatherHistory.delete(db, locationId);
+                    if (db.delete(LocationEntry.TABLE_NAME,
+                            WeatherProvider.sLocationIdSelection,
+                            new String[]{Long.toString(locationId)}) > 0) {
+                        result.locationsEvicted++;
+                        result.evictedLocations.add(locationSetting);
+                    }
+                } else {
+                    // Archiving the same days twice is harmless, so the archive doesn't need to
+                    // share a transaction with the chunked delete after it
+                    result.daysArchived += archive(db, locationId, keepFrom);
+                    int deleted = deleteWeather(db, locationId, keepFrom);
+                    if (deleted > 0) {
+                        result.weatherDeleted += deleted;
+                        result.prunedLocations.add(locationSetting);
+                    }
+                }
+            }
+        } finally {
+            locations.close();
+        }
+
+        Time time = new Time();
+        time.set(today);
+        WeatherHistory.deleteBefore(db, Time.getJulianDay(today, time.gmtoff) - mHistoryMaxDays);
+
+        if (result.weatherDeleted > 0 || result.locationsEvicted > 0) {
+            result.vacuumed = vacuum(db);
+        }
+        return result;
+    }
+
+    private static int archive(SQLiteDatabase db, long locationId, long before) {
+        db.beginTransactionNonExclusive();
+        try {
+            int archived = WeatherHistory.archive(db, locationId, before);
+            db.setTransactionSuccessful();
+            return archived;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the location's weather dated before the given date, a chunk per transaction.
+     *
+     * @return the number of rows deleted
+     */
+    private int deleteWeather(SQLiteDatabase db, long locationId, long before) {
+        // The subquery walks the location's end of the (location_id, date) index, oldest first
+        SQLiteStatement delete = db.compileStatement(
+                "DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry._ID +
+                        " IN (SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherEntry.COLUMN_DATE + " < ? ORDER BY " +
+                        WeatherEntry.COLUMN_DATE + " LIMIT " + mChunkRows + ")");
+        try {
+            delete.bindLong(1, locationId);
+            delete.bindLong(2, before);
+            int total = 0;
+            int deleted;
+            do {
+                db.beginTransactionNonExclusive();
+                try {
+                    deleted = delete.executeUpdateDelete();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                total += deleted;
+            } while (deleted == mChunkRows);
+            return total;
+        } finally {
+            delete.close();
+        }
+    }
+
+    /**
+     * Gives free pages back to the file system.
+     *
+     * @return whether a full VACUUM was needed
+     */
+    private boolean vacuum(SQLiteDatabase db) {
+        if (queryLong(db, "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+            // Frees every page on the free list.  Each freed page is a step of the statement,
+            // so it's read through to the end rather than executed once.
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            cursor.getCount();
+            cursor.close();
+            return false;
+        }
+
+        // Created before retention existed: the free list only shrinks with a full VACUUM,
+        // which also switches the database to incremental mode for next time
+        long freePages = queryLong(db, "PRAGMA freelist_count");
+        long pages = queryLong(db, "PRAGMA page_count");
+        if (pages == 0 || freePages * 100 / pages < mVacuumFreePercent) {
+            return false;
+        }
+        Log.i(LOG_TAG, "Vacuuming, " + freePages + " of " + pages + " pages free");
+        db.execSQL("VACUUM");
+        return true;
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The one place the sync path talks HTTP to OpenWeatherMap.
+ *
+ * A single instance is shared by every sync.  It asks for compressed responses and decodes them
+ * itself, puts explicit timeouts on every request, retries failed requests with a growing
+ * back-off, and answers from the {@link ForecastResponseCache} when the server says nothing
+ * changed.  Responses are always read to the end and closed rather than disconnected, so the
+ * platform keeps the socket alive and hands it to the next request to the same host.
+ */
+class ForecastHttpClient {
+    public static final String LOG_TAG = ForecastHttpClient.class.getSimpleName();
+
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+    static final int MAX_ATTEMPTS = 3;
+    static final long INITIAL_BACKOFF_MILLIS = 2 * 1000;
+
+    static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    static final String ENCODING_GZIP = "gzip";
+    static final String ENCODING_DEFLATE = "deflate";
+
+    private static ForecastHttpClient sInstance;
+
+    private final ForecastResponseCache mCache;
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final int mMaxAttempts;
+    private final long mInitialBackoffMillis;
+
+    static synchronized ForecastHttpClient getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastHttpClient(
+                    ForecastResponseCache.create(context.getApplicationContext()),
+                    CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, MAX_ATTEMPTS,
+                    INITIAL_BACKOFF_MILLIS);
+        }
+        return sInstance;
+    }
+
+    ForecastHttpClient(ForecastResponseCache cache, int connectTimeoutMillis,
+                       int readTimeoutMillis, int maxAttempts, long initialBackoffMillis) {
+        mCache = cache;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mMaxAttempts = maxAttempts;
+        mInitialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * GETs the url, retrying connection failures, timeouts and 5xx answers.  The returned
+     * response must be closed, which is what hands its connection back for reuse.
+     *
+     * @throws IOException if every attempt failed; the last failure is the one thrown
+     */
+    Response fetch(String url) throws IOException {
+        return fetch(url, true);
+    }
+
+    /**
+     * @param conditional whether to send the cached response's validators; without them the
+     *                    server always sends the whole body, which then replaces the cached one
+     */
+    Response fetch(String url, boolean conditional) throws IOException {
+        long backoffMillis = mInitialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Response response = execute(url, conditional);
+                if (response.code < HttpURLConnection.HTTP_INTERNAL_ERROR
+                        || attempt >= mMaxAttempts) {
+                    return response;
+                }
+                Log.w(LOG_TAG, "Attempt " + attempt + " got HTTP " + response.code);
+                response.close();
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException && Thread.interrupted()) {
+                    // The sync was cancelled, don't keep going
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                if (attempt >= mMaxAttempts) {
+                    throw e;
+                }
+                Log.w(LOG_TAG, "Attempt " + attempt + " failed", e);
+            }
+
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while backing off");
+            }
+            backoffMillis *= 2;
+        }
+    }
+
+    private Response execute(String url, boolean conditional) throws IOException {
+        ForecastResponseCache.Entry cached = conditional ? mCache.get(url) : null;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        // Asking for an encoding ourselves turns off the platform's transparent gzip, so the
+        // body has to be decoded below
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING,
+                ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+        mCache.addValidators(connection, cached);
+
+        int code = connection.getResponseCode();
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            return new Response(url, code, connection, connection.getInputStream(), cached);
+        }
+
+        // OWM describes errors like an unknown city in a JSON body, so hand that body out too
+        InputStream raw = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getErrorStream()
+                : connection.getInputStream();
+        return new Response(url, code, connection, raw, null);
+    }
+
+    private static InputStream decode(String contentEncoding, InputStream raw) throws IOException {
+        if (ENCODING_GZIP.equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(raw, 8192);
+        }
+        if (ENCODING_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+            // "deflate" is supposed to be zlib wrapped, but some servers send the raw stream
+            BufferedInputStream buffered = new BufferedInputStream(raw);
+            buffered.mark(1);
+            int first = buffered.read();
+            buffered.reset();
+            boolean zlibWrapped = (first & 0x0f) == 8;
+            return new InflaterInputStream(buffered, new Inflater(!zlibWrapped), 8192);
+        }
+        return raw;
+    }
+
+    /**
+     * One answer from the server, or from the cache when the server answered 304.
+     */
+    final class Response implements Closeable {
+        final int code;
+
+        private final String mUrl;
+        private final HttpURLConnection mConnection;
+        private final InputStream mRawStream;
+        private final ForecastResponseCache.Entry mCached;
+        private InputStream mDecoded;
+        private InputStream mBody;
+        private ForecastResponseCache.Writer mCacheWriter;
+        private boolean mReleased;
+
+        private Response(String url, int code, HttpURLConnection connection, InputStream raw,
+                         ForecastResponseCache.Entry cached) {
+            this.code = code;
+            mUrl = url;
+            mConnection = connection;
+            mRawStream = raw;
+            mCached = cached;
+        }
+
+        /**
+         * @return true if the server confirmed the cached forecast is still current.
+         */
+        boolean isNotModified() {
+            return mCached != null;
+        }
+
+        /**
+         * @return the decoded body.  For a 304 this is the cached body, for a 200 it is the
+         *         network body, teed into the cache when the server sent validators.
+         */
+        InputStream getBody() throws IOException {
+            if (mBody != null) {
+                return mBody;
+            }
+            if (mCached != null) {
+                mDecoded = mCache.openBody(mCached);
+                mBody = mDecoded;
+            } else if (mRawStream == null) {
+                throw new IOException("HTTP " + code + " without a body");
+            } else {
+                mDecoded = decode(mConnection.getContentEncoding(), mRawStream);
+                mBody = mDecoded;
+                if (code == HttpURLConnection.HTTP_OK) {
+                    mCacheWriter = mCache.beginWrite(mUrl, mConnection, mDecoded);
+                    if (mCacheWriter != null) {
+                        mBody = mCacheWriter;
+                    }
+                }
+            }
+            return mBody;
+        }
+
+        /**
+         * Reads the rest of the body into the pending cache entry and hands the connection
+         * back, without yet deciding whether the entry is kept.  Lets the caller parse on one
+         * thread and {@link #commit()} once the forecast is stored on another, without holding
+         * a socket in between.
+         */
+        void finish() throws IOException {
+            if (mCacheWriter != null) {
+                mCacheWriter.finish();
+            }
+            release();
+        }
+
+        /**
+         * Keeps the body that was read as the cached response for the next conditional request.
+         */
+        void commit() throws IOException {
+            if (mCacheWriter != null) {
+                mCacheWriter.commit();
+            }
+        }
+
+        /**
+         * Throws away the body that was read, and whatever was cached for this url before it.
+         */
+        void discard() {
+            if (mCacheWriter != null) {
+                mCacheWriter.abort();
+            }
+            mCache.remove(mUrl);
+        }
+
+        /**
+         * Drops the body unless it was committed, and hands the connection back.
+         */
+        @Override
+        public void close() {
+            if (mCacheWriter != null) {
+                mCacheWriter.abort();
+            }
+            release();
+        }
+
+        /**
+         * Drains and closes the streams without disconnecting, so the connection goes back to
+         * the keep-alive pool.  A connection is only reused once its body was read to the end.
+         */
+        private void release() {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            // Drain through the decoder first so a compressed body is consumed to its trailer
+            if (mDecoded != null && mCached == null) {
+                drain(mDecoded);
+            }
+            if (mRawStream != null) {
+                drain(mRawStream);
+            }
+            if (mDecoded != null) {
+                closeQuietly(mDecoded);
+            }
+            if (mRawStream != null) {
+                closeQuietly(mRawStream);
+            }
+        }
+    }
+
+    private static void drain(InputStream in) {
+        try {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // discard what's left so the connection can be reused
+            }
+        } catch (IOException e) {
+            // The connection won't be reused, which is all that's lost
+            Log.w(LOG_TAG, "Error draining response", e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing stream", e);
+        }
+    }
+}
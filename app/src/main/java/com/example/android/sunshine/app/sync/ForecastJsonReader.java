@@ -0,0 +1,276 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull-style reader for the OpenWeatherMap daily forecast response.
+ *
+ * The response is walked once, straight off the network stream, and every value we need is
+ * written into a reusable {@link Forecast}.  Neither the raw JSON string nor a JSONObject tree
+ * is ever built, so a sync no longer holds the whole payload twice in memory.
+ */
+class ForecastJsonReader {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits for the values every day must carry, so a short day fails the same way
+    // JSONObject.getDouble() used to.
+    private static final int DAY_PRESSURE = 1;
+    private static final int DAY_HUMIDITY = 1 << 1;
+    private static final int DAY_WIND_SPEED = 1 << 2;
+    private static final int DAY_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_HIGH = 1 << 4;
+    private static final int DAY_LOW = 1 << 5;
+    private static final int DAY_DESCRIPTION = 1 << 6;
+    private static final int DAY_WEATHER_ID = 1 << 7;
+    private static final int DAY_COMPLETE = (1 << 8) - 1;
+
+    /**
+     * One parsed response.  Instances are meant to be kept around and handed back to
+     * {@link #read(InputStream, Forecast)}: the day rows are recycled between reads.
+     */
+    static final class Forecast {
+        int code;
+        boolean hasCity;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        private Day[] mDays = new Day[16];
+        private int mDayCount;
+
+        void reset() {
+            code = HttpURLConnection.HTTP_OK;
+            hasCity = false;
+            cityName = null;
+            cityLatitude = 0;
+            cityLongitude = 0;
+            mDayCount = 0;
+        }
+
+        int getDayCount() {
+            return mDayCount;
+        }
+
+        Day getDay(int index) {
+            if (index >= mDayCount) {
+                throw new IndexOutOfBoundsException("Day " + index + " of " + mDayCount);
+            }
+            return mDays[index];
+        }
+
+        private Day nextDay() {
+            if (mDayCount == mDays.length) {
+                Day[] grown = new Day[mDays.length * 2];
+                System.arraycopy(mDays, 0, grown, 0, mDays.length);
+                mDays = grown;
+            }
+            Day day = mDays[mDayCount];
+            if (day == null) {
+                day = new Day();
+                mDays[mDayCount] = day;
+            }
+            mDayCount++;
+            return day;
+        }
+    }
+
+    /**
+     * The values we keep for a single day of the forecast.
+     */
+    static final class Day {
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+    }
+
+    private ForecastJsonReader() {
+    }
+
+    /**
+     * Reads a complete forecast response from the stream into {@code out}.  The stream is not
+     * closed.
+     *
+     * @throws IOException if the stream can't be read, or ends before the response does
+     * @throws JSONException if the response isn't the forecast we expect
+     */
+    static void read(InputStream in, Forecast out) throws IOException, JSONException {
+        out.reset();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // OWM sends this one as either a number or a string
+                    out.code = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, out);
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, out);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private static void readCity(JsonReader reader, Forecast out) throws IOException, JSONException {
+        boolean hasName = false;
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                out.cityName = reader.nextString();
+                hasName = true;
+            } else if (OWM_COORD.equals(name)) {
+                int found = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        out.cityLatitude = reader.nextDouble();
+                        found |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        out.cityLongitude = reader.nextDouble();
+                        found |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = found == 3;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!hasName || !hasCoord) {
+            throw new JSONException("Incomplete " + OWM_CITY + " in forecast response");
+        }
+        out.hasCity = true;
+    }
+
+    private static void readList(JsonReader reader, Forecast out) throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, out.nextDay());
+        }
+        reader.endArray();
+    }
+
+    private static void readDay(JsonReader reader, Day day) throws IOException, JSONException {
+        int found = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                found |= DAY_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // Truncate like JSONObject.getInt() did, in case a fraction ever shows up
+                day.humidity = (int) reader.nextDouble();
+                found |= DAY_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                found |= DAY_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+                found |= DAY_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        day.high = reader.nextDouble();
+                        found |= DAY_HIGH;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        day.low = reader.nextDouble();
+                        found |= DAY_LOW;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            day.description = reader.nextString();
+                            found |= DAY_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            day.weatherId = reader.nextInt();
+                            found |= DAY_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (found != DAY_COMPLETE) {
+            throw new JSONException("Incomplete day in forecast " + OWM_LIST);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Small on-disk cache of forecast responses, keyed by the forecast URI that was requested.
+ *
+ * Each entry keeps the validators the server sent (ETag and Last-Modified) along with the
+ * body, so the next sync can ask for the forecast conditionally and skip parsing and storing
+ * it altogether when the server answers 304 Not Modified.
+ */
+class ForecastResponseCache {
+    public static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "forecast";
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Bump this if the meta file layout ever changes, older entries are then ignored
+    private static final int META_VERSION = 1;
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final File mDirectory;
+
+    /**
+     * A cached response: the validators it came with and where its body lives.
+     */
+    static final class Entry {
+        final String key;
+        final String etag;
+        final String lastModified;
+        final File body;
+
+        Entry(String key, String etag, String lastModified, File body) {
+            this.key = key;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+
+    static ForecastResponseCache create(Context context) {
+        return new ForecastResponseCache(new File(context.getCacheDir(), CACHE_DIRECTORY));
+    }
+
+    ForecastResponseCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * @return the cached response for this key, or null if there isn't a usable one.
+     */
+    Entry get(String key) {
+        String fileName = fileNameForKey(key);
+        File meta = new File(mDirectory, fileName + META_SUFFIX);
+        File body = new File(mDirectory, fileName + BODY_SUFFIX);
+        if (!meta.exists() || !body.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+            if (in.readInt() != META_VERSION) {
+                return null;
+            }
+            // The file name is only a hash, so make sure this really is the entry we want
+            if (!key.equals(in.readUTF())) {
+                return null;
+            }
+            String etag = readNullableString(in);
+            String lastModified = readNullableString(in);
+            return new Entry(key, etag, lastModified, body);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading cache entry", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Asks the server to only send the forecast if it changed since the cached copy.  Must be
+     * called before the connection is connected.
+     */
+    void addValidators(HttpURLConnection connection, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        if (entry.etag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, entry.etag);
+        }
+        if (entry.lastModified != null) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, entry.lastModified);
+        }
+    }
+
+    InputStream openBody(Entry entry) throws IOException {
+        return new BufferedInputStream(new FileInputStream(entry.body));
+    }
+
+    /**
+     * Starts caching a response while it is being read.  Everything read through the returned
+     * stream is also written to disk, and only becomes the cached entry once
+     * {@link Writer#commit()} is called.
+     *
+     * @return the stream to read the body from, or null if the response carries no validators
+     *         and so isn't worth caching.
+     */
+    Writer beginWrite(String key, HttpURLConnection connection, InputStream in) throws IOException {
+        String etag = connection.getHeaderField(HEADER_ETAG);
+        String lastModified = connection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+        return new Writer(in, key, etag, lastModified);
+    }
+
+    void remove(String key) {
+        String fileName = fileNameForKey(key);
+        new File(mDirectory, fileName + META_SUFFIX).delete();
+        new File(mDirectory, fileName + BODY_SUFFIX).delete();
+    }
+
+    /**
+     * Tees a response body to a temporary file as it is read.
+     */
+    final class Writer extends FilterInputStream {
+        private final String mKey;
+        private final String mEtag;
+        private final String mLastModified;
+        private final File mTempBody;
+        private OutputStream mOut;
+        private boolean mDone;
+
+        private Writer(InputStream in, String key, String etag, String lastModified)
+                throws IOException {
+            super(in);
+            mKey = key;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mTempBody = new File(mDirectory, fileNameForKey(key) + BODY_SUFFIX + TEMP_SUFFIX);
+            mOut = new BufferedOutputStream(new FileOutputStream(mTempBody));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && mOut != null) {
+                mOut.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && mOut != null) {
+                mOut.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Skipped bytes still have to end up in the cached body
+            byte[] buffer = new byte[(int) Math.min(byteCount, 1024)];
+            long skipped = 0;
+            while (skipped < byteCount) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+                if (read == -1) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Reads whatever the parser left unread into the temporary file, so the response can be
+         * let go before deciding whether to {@link #commit()} it.
+         */
+        void finish() throws IOException {
+            if (mDone || mOut == null) {
+                return;
+            }
+            byte[] buffer = new byte[1024];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // drain the rest of the body into the cache
+            }
+            mOut.close();
+            mOut = null;
+        }
+
+        /**
+         * Reads whatever the parser left unread and makes this response the cached entry.
+         */
+        void commit() throws IOException {
+            if (mDone) {
+                return;
+            }
+            finish();
+
+            String fileName = fileNameForKey(mKey);
+            File meta = new File(mDirectory, fileName + META_SUFFIX);
+            File tempMeta = new File(mDirectory, fileName + META_SUFFIX + TEMP_SUFFIX);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempMeta)));
+            try {
+                out.writeInt(META_VERSION);
+                out.writeUTF(mKey);
+                writeNullableString(out, mEtag);
+                writeNullableString(out, mLastModified);
+            } finally {
+                out.close();
+            }
+
+            // Replace the body first: a meta file pointing at a newer body is still a valid
+            // entry, the server just sends us the newer body again next time
+            File body = new File(mDirectory, fileName + BODY_SUFFIX);
+            if (!mTempBody.renameTo(body) || !tempMeta.renameTo(meta)) {
+                abort();
+                remove(mKey);
+                throw new IOException("Unable to commit cache entry for " + mKey);
+            }
+            mDone = true;
+        }
+
+        /**
+         * Drops the partially written body, leaving the previous entry (if any) in place.
+         */
+        void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            closeQuietly(mOut);
+            mOut = null;
+            mTempBody.delete();
+        }
+
+        @Override
+        public void close() throws IOException {
+            abort();
+            super.close();
+        }
+    }
+
+    private static String fileNameForKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android device has MD5 and UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+    }
+}
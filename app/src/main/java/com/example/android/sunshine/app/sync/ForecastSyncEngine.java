@@ -0,0 +1,454 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Process;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes the forecast for every location we track, not just the preferred one.
+ *
+ * Each location is fetched and parsed on a small bounded pool, so one slow city doesn't hold up
+ * the others.  The calling (sync) thread does all the database work: as soon as any location is
+ * ready it takes that one, plus whatever else finished in the meantime, and writes them as one
+ * batch in a single transaction, while the remaining locations are still on the wire.
+ */
+class ForecastSyncEngine {
+    public static final String LOG_TAG = ForecastSyncEngine.class.getSimpleName();
+
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    // Idle workers go away between syncs, which are hours apart
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final Context mContext;
+    private final ForecastHttpClient mHttpClient;
+    private final String mBaseUrl;
+    private final ThreadPoolExecutor mExecutor;
+
+    // Each worker parses into its own Forecast, so the day rows are still recycled
+    private final ThreadLocal<ForecastJsonReader.Forecast> mForecasts =
+            new ThreadLocal<ForecastJsonReader.Forecast>() {
+                @Override
+                protected ForecastJsonReader.Forecast initialValue() {
+                    return new ForecastJsonReader.Forecast();
+                }
+            };
+
+    /**
+     * What a worker hands back to the sync thread for one location.
+     */
+    static final class LocationResult {
+        final String locationSetting;
+        @SunshineSyncAdapter.LocationStatus int status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+        // Null when there's nothing to write, because it failed or hasn't changed
+        ForecastBatch batch;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+        ForecastHttpClient.Response response;
+
+        LocationResult(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
+
+    /**
+     * The outcome of a whole sync.
+     */
+    static final class Result {
+        int stored;
+        int notModified;
+        int failed;
+        int inserted;
+        int changed;
+        int unchanged;
+        int deleted;
+        int evicted;
+        private final Map<String, Integer> mStatuses = new HashMap<String, Integer>();
+
+        @SunshineSyncAdapter.LocationStatus
+        int getStatus(String locationSetting) {
+            Integer status = mStatuses.get(locationSetting);
+            return status != null ? status : SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        }
+    }
+
+    static ForecastSyncEngine create(Context context) {
+        return new ForecastSyncEngine(context, ForecastHttpClient.getInstance(context),
+                FORECAST_BASE_URL, context.getResources().getInteger(R.integer.sync_thread_count));
+    }
+
+    ForecastSyncEngine(Context context, ForecastHttpClient httpClient, String baseUrl,
+                       int threadCount) {
+        mContext = context;
+        mHttpClient = httpClient;
+        mBaseUrl = baseUrl;
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, LOG_TAG + " #" + mCount.incrementAndGet());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the preferred location followed by the other saved locations, most recently used
+     *         first, at most as many as the sync_max_locations setting allows.
+     */
+    static List<String> getLocationsToSync(Context context) {
+        int maxLocations = context.getResources().getInteger(R.integer.sync_max_locations);
+        LinkedHashSet<String> locations = new LinkedHashSet<String>();
+        locations.add(Utility.getPreferredLocation(context));
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null,
+                WeatherContract.LocationEntry.SORT_ORDER_RECENTLY_USED);
+        if (cursor != null) {
+            while (locations.size() < maxLocations && cursor.moveToNext()) {
+                locations.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+        return new ArrayList<String>(locations);
+    }
+
+    /**
+     * Fetches every location and stores what changed.  Blocks until all of them are done.
+     *
+     * @throws InterruptedException if the sync was cancelled; locations already written stay
+     *                              written
+     */
+    Result sync(List<String> locationSettings) throws InterruptedException {
+        Result result = new Result();
+        if (locationSettings.isEmpty()) {
+            return result;
+        }
+
+        // Every location is dated from the same day, whichever finishes first
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        final int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        ExecutorCompletionService<LocationResult> completionService =
+                new ExecutorCompletionService<LocationResult>(mExecutor);
+        List<Future<LocationResult>> futures =
+                new ArrayList<Future<LocationResult>>(locationSettings.size());
+        for (final String locationSetting : locationSettings) {
+            futures.add(completionService.submit(new Callable<LocationResult>() {
+                @Override
+                public LocationResult call() {
+                    return fetch(locationSetting, julianStartDay);
+                }
+            }));
+        }
+
+        int remaining = futures.size();
+        List<LocationResult> batch = new ArrayList<LocationResult>(remaining);
+        try {
+            while (remaining > 0) {
+                // Wait for the next location, then sweep up anything else that's already done
+                Future<LocationResult> done = completionService.take();
+                do {
+                    remaining--;
+                    batch.add(getResult(done));
+                } while (remaining > 0 && (done = completionService.poll()) != null);
+
+                store(batch, result);
+                batch.clear();
+            }
+        } finally {
+            for (LocationResult pending : batch) {
+                closeResponse(pending);
+            }
+            if (remaining > 0) {
+                for (Future<LocationResult> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        applyRetention(result, new Time().setJulianDay(julianStartDay));
+        return result;
+    }
+
+    /**
+     * Once everything is stored: drop the days before today, and the locations that are no
+     * longer used, keeping the preferred one.
+     */
+    private void applyRetention(Result result, long today) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_TODAY, today);
+        Bundle counts = mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_APPLY_RETENTION,
+                Utility.getPreferredLocation(mContext), extras);
+        if (counts != null) {
+            result.deleted += counts.getInt(WeatherContract.EXTRA_DELETED_COUNT);
+            result.evicted += counts.getInt(WeatherContract.EXTRA_EVICTED_COUNT);
+        }
+    }
+
+    /**
+     * Runs on a worker: fetch and parse one location, and turn it into the rows to write.
+     */
+    private LocationResult fetch(String locationSetting, int julianStartDay) {
+        LocationResult result = new LocationResult(locationSetting);
+        ForecastHttpClient.Response response = null;
+        try {
+            // Ask for the forecast only if it changed since the copy we cached last time, as
+            // long as what that copy held is still stored.  Otherwise the whole forecast is
+            // needed, and the cached copy can't stand in for it: its days are dated from the
+            // day it was fetched, which toForecastBatch can't know.
+            response = mHttpClient.fetch(buildForecastUrl(locationSetting),
+                    hasForecast(locationSetting));
+            if (response.code >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                // Still failing after the client's retries
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+            if (response.isNotModified()) {
+                // Nothing changed since the last sync, so there's nothing to parse or store
+                return result;
+            }
+
+            // Parse straight off the stream.  An empty stream ends up as an EOFException, which
+            // is reported as the server being down.
+            ForecastJsonReader.Forecast forecast = mForecasts.get();
+            ForecastJsonReader.read(response.getBody(), forecast);
+
+            // do we have an error?
+            switch (forecast.code) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    response.discard();
+                    return result;
+                default:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    response.discard();
+                    return result;
+            }
+            if (!forecast.hasCity) {
+                throw new JSONException("No city in forecast response");
+            }
+
+            result.cityName = forecast.cityName;
+            result.cityLatitude = forecast.cityLatitude;
+            result.cityLongitude = forecast.cityLongitude;
+            result.batch = toForecastBatch(locationSetting, forecast, julianStartDay);
+
+            // Let go of the connection now, the cache entry is only kept once the rows are stored
+            response.finish();
+            result.response = response;
+            response = null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + locationSetting, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            // Closing without disconnecting lets the connection be reused by the next fetch
+            if (response != null) {
+                response.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs on the sync thread: write a batch of finished locations as one provider call, and so
+     * one transaction.
+     */
+    private void store(List<LocationResult> batch, Result result) {
+        List<ContentValues> locations = new ArrayList<ContentValues>();
+        int rowCount = 0;
+        for (LocationResult location : batch) {
+            if (location.batch != null) {
+                rowCount += location.batch.size();
+            }
+        }
+        ForecastBatch rows = new ForecastBatch(rowCount);
+        for (LocationResult location : batch) {
+            result.mStatuses.put(location.locationSetting, location.status);
+            if (location.status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                result.failed++;
+            } else if (location.batch == null) {
+                result.notModified++;
+            } else {
+                ContentValues locationValues = new ContentValues();
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        location.locationSetting);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                        location.cityName);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        location.cityLatitude);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                        location.cityLongitude);
+                locations.add(locationValues);
+                rows.addAll(location.batch);
+            }
+        }
+
+        if (!locations.isEmpty()) {
+            // add to database, only touching the days that actually changed.  Old data is
+            // deleted by applyRetention once every location is in.
+            Bundle extras = new Bundle();
+            extras.putParcelableArray(WeatherContract.EXTRA_LOCATIONS,
+                    locations.toArray(new ContentValues[locations.size()]));
+            extras.putParcelable(WeatherContract.EXTRA_BATCH, rows);
+            Bundle counts = mContext.getContentResolver().call(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_COMMIT_FORECAST, null, extras);
+            if (counts != null) {
+                result.inserted += counts.getInt(WeatherContract.EXTRA_INSERTED_COUNT);
+                result.changed += counts.getInt(WeatherContract.EXTRA_CHANGED_COUNT);
+                result.unchanged += counts.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT);
+                result.deleted += counts.getInt(WeatherContract.EXTRA_DELETED_COUNT);
+            }
+        }
+
+        for (LocationResult location : batch) {
+            if (location.status == SunshineSyncAdapter.LOCATION_STATUS_OK
+                    && location.batch != null) {
+                result.stored++;
+                try {
+                    location.response.commit();
+                } catch (IOException e) {
+                    // Only costs us the conditional request next time
+                    Log.w(LOG_TAG, "Unable to cache forecast for " + location.locationSetting, e);
+                }
+            }
+            closeResponse(location);
+        }
+    }
+
+    private static ForecastBatch toForecastBatch(String locationSetting,
+                                                 ForecastJsonReader.Forecast forecast,
+                                                 int julianStartDay) {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        int dayCount = forecast.getDayCount();
+        ForecastBatch batch = new ForecastBatch(dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            ForecastJsonReader.Day day = forecast.getDay(i);
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = dayTime.setJulianDay(julianStartDay + i);
+
+            // The provider resolves the location id, in the same transaction that stores it
+            batch.add(locationSetting, dateTime, day.weatherId, day.description, day.low,
+                    day.high, day.humidity, day.pressure, day.windSpeed, day.windDirection);
+        }
+        return batch;
+    }
+
+    String buildForecastUrl(String locationSetting) {
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build().toString();
+    }
+
+    /**
+     * @return whether the database holds a forecast for this location from today on.
+     */
+    private boolean hasForecast(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
+
+    private static LocationResult getResult(Future<LocationResult> future)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // fetch() catches everything it expects, so this is a bug and should surface as one
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void closeResponse(LocationResult location) {
+        if (location.response != null) {
+            location.response.close();
+            location.response = null;
+        }
+    }
+}
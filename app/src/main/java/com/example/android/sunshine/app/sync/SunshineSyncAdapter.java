@@ -8,15 +8,12 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -30,36 +27,30 @@ import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.ForecastDisplayModel;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.ForecastSnapshotCache;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.shared.ForecastPayload;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 // ---------------------------------------------------------------------------------------------
 // Jose: Implemented the GoogleApiClient ConnectionCallbacks and onConnectionFailedLister
@@ -76,34 +67,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
+    // How long a sync waits to reach the wearable API before giving up on updating the watch
+    private static final long WATCH_CONNECT_TIMEOUT_SECONDS = 30;
 
     // ---------------------------------------------------------------------------------------------
     // Jose: Created a GoogleApiClient variable, and generated Override methods for
     // Generated Override methods for GoogleApiClient
     // ConnectionCallbacks and OnconnectionFailedListener
     // ---------------------------------------------------------------------------------------------
-    private GoogleApiClient mGoogleApiClient;
+    private final GoogleApiClient mGoogleApiClient;
 
 
     @Override
     public void onConnected(Bundle bundle) {
         Log.v(LOG_TAG, "onConnect");
-        Wearable.DataApi.addListener(mGoogleApiClient, this);
     }
 
     @Override
@@ -123,38 +100,125 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     }
 
     /**
-     * Jose: This method creates the data map and passes it to the watch
+     * Jose: This method creates the data item and passes it to the watch
      * updateWatch method
+     *
+     * The watch gets the whole forecast as a {@link ForecastPayload}, and keeps it.  Once it
+     * has the full forecast, later syncs only send it the days that have changed since, unless
+     * that's most of them or the units have changed.
      */
-    private void updateWatch(){
-        // Get data from cursor
-        String locationQuery = Utility.getPreferredLocation(getContext());
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = getContext().getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-        Log.i(LOG_TAG, "Get cursor");
-        if (cursor != null && cursor.moveToFirst()) {
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
-            String description = cursor.getString(INDEX_SHORT_DESC);
-            int weather_id = cursor.getInt(INDEX_WEATHER_ID);
-            // Format the temperature for the watch
-            String watch_high = Utility.formatTemperature(getContext(), high);
-            String watch_low = Utility.formatTemperature(getContext(), low);
-            // Create data map
-            Log.i(LOG_TAG, "Creating DataMap for Watch");
-            PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/sunshine_data");
-            putDataMapReq.getDataMap().putString("sunshine_temperature_high", watch_high);
-            putDataMapReq.getDataMap().putString("sunshine_temperature_low", watch_low);
-            putDataMapReq.getDataMap().putString("sunshine_temperature_description", description);
-            putDataMapReq.getDataMap().putInt("sunshine_weather_id", weather_id);
-            putDataMapReq.getDataMap().putLong("sunshine_time_millis", System.currentTimeMillis());
-            Log.i(LOG_TAG, "High and low: " + watch_high + ", " + watch_low);
-            Log.i(LOG_TAG, "Weather id: " + weather_id);
-            // Pass data map to the watch
-            PutDataRequest putDataReq = putDataMapReq.asPutDataRequest().setUrgent();
-            PendingResult<DataApi.DataItemResult> pendingResult =
-                    Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq);
-            cursor.close();
+    private void updateWatch(SettingsSnapshot settings, ForecastSnapshot forecast){
+        if (forecast.isEmpty()) {
+            return;
+        }
+        try {
+            // Reading what the watch was sent last has to wait for the connection anyway
+            if (!mGoogleApiClient.blockingConnect(
+                    WATCH_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS).isSuccess()
+                    || !mGoogleApiClient.hasConnectedApi(Wearable.API)) {
+                Log.v(LOG_TAG, "No wearable connection, so the watch isn't updated");
+                return;
+            }
+            Wearable.DataApi.addListener(mGoogleApiClient, this);
+            sendWatchForecast(settings, forecast);
+        } finally {
+            // Connected only for the update: the adapter lives on between syncs, and a client
+            // left connected would hold it and its listener until the process dies
+            if (mGoogleApiClient.isConnected()) {
+                Wearable.DataApi.removeListener(mGoogleApiClient, this);
+            }
+            mGoogleApiClient.disconnect();
+        }
+    }
+
+    private void sendWatchForecast(SettingsSnapshot settings, ForecastSnapshot forecast) {
+        // The full forecast the watch was sent last, as the data layer still holds it here
+        ForecastPayload base;
+        try {
+            base = readWatchForecast();
+        } catch (IOException e) {
+            // Going on as if there were none would start the sequence again, so a delta saved
+            // for an earlier full forecast could match the new one; the next sync can send it
+            Log.w(LOG_TAG, "Watch not updated: " + e.getMessage());
+            return;
+        }
+
+        int size = forecast.size();
+        int[] days = new int[size];
+        int[] weatherIds = new int[size];
+        double[] highs = new double[size];
+        double[] lows = new double[size];
+        Time time = new Time();
+        for (int row = 0; row < size; row++) {
+            long date = forecast.getDate(row);
+            time.set(date);
+            days[row] = Time.getJulianDay(date, time.gmtoff);
+            weatherIds[row] = forecast.getWeatherId(row);
+            highs[row] = forecast.getMaxTemp(row);
+            lows[row] = forecast.getMinTemp(row);
+        }
+        ForecastPayload full;
+        try {
+            full = ForecastPayload.full(base != null ? base.getSequence() + 1 : 1,
+                    System.currentTimeMillis(), settings.isMetric(), days, weatherIds, highs,
+                    lows);
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Forecast doesn't fit the watch's payload", e);
+            return;
+        }
+
+        ForecastPayload payload = full;
+        String path = ForecastPayload.FULL_PATH;
+        if (base != null && base.isMetric() == full.isMetric()) {
+            ForecastPayload delta = ForecastPayload.diff(base, full);
+            if (delta.size() <= full.size() / 2) {
+                payload = delta;
+                path = ForecastPayload.DELTA_PATH;
+            }
+        }
+        Log.i(LOG_TAG, "Sending to watch: " + payload);
+        // Pass the payload to the watch
+        PutDataRequest putDataReq = PutDataRequest.create(path)
+                .setData(payload.encode())
+                .setUrgent();
+        // Waited for, since disconnecting straight after could drop it
+        DataApi.DataItemResult put = Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq)
+                .await(WATCH_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!put.getStatus().isSuccess()) {
+            Log.w(LOG_TAG, "Couldn't send the watch its forecast: " + put.getStatus());
+        }
+    }
+
+    /**
+     * @return the full forecast this phone last put in the data layer, or null if it hasn't put
+     * one there, or one it can decode
+     * @throws IOException if the data layer couldn't be asked
+     */
+    private ForecastPayload readWatchForecast() throws IOException {
+        NodeApi.GetLocalNodeResult localNode =
+                Wearable.NodeApi.getLocalNode(mGoogleApiClient).await();
+        if (!localNode.getStatus().isSuccess()) {
+            throw new IOException("Couldn't get the local node: " + localNode.getStatus());
+        }
+        Uri uri = new Uri.Builder()
+                .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                .authority(localNode.getNode().getId())
+                .path(ForecastPayload.FULL_PATH)
+                .build();
+        DataApi.DataItemResult result = Wearable.DataApi.getDataItem(mGoogleApiClient, uri)
+                .await();
+        if (!result.getStatus().isSuccess()) {
+            throw new IOException("Couldn't read " + uri + ": " + result.getStatus());
+        }
+        if (result.getDataItem() == null) {
+            return null;
+        }
+        try {
+            return ForecastPayload.decode(result.getDataItem().getData());
+        } catch (IllegalArgumentException e) {
+            // Put there by another version of the app; sending a new one replaces it
+            Log.v(LOG_TAG, "Ignoring watch forecast: " + e.getMessage());
+            return null;
         }
     }
 
@@ -169,293 +233,64 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    private final ForecastSyncEngine mSyncEngine;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mSyncEngine = ForecastSyncEngine.create(context);
 
-    }
-
-    @Override
-    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.v(LOG_TAG, "Starting sync");
-
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
         // ---------------------------------------------------------------------------------------------
-        // Jose: Create the GoogleApiClient and connect to it
+        // Jose: Create the GoogleApiClient once, for all the syncs this adapter runs; updateWatch
+        // connects to it when there's a forecast to send, and disconnects again once it's sent
         // ---------------------------------------------------------------------------------------------
-        mGoogleApiClient = new GoogleApiClient.Builder(getContext())
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
                 .addApiIfAvailable(Wearable.API)
                 .addConnectionCallbacks(this)
                 .addOnConnectionFailedListener(this)
                 .build();
-        mGoogleApiClient.connect();
-        Log.v(LOG_TAG, "Connected GoogleAPIClient");
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
-        }
-        return;
     }
 
-    /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
-     */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    @Override
+    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        Log.v(LOG_TAG, "Starting sync");
 
-        final String OWM_MESSAGE_CODE = "cod";
+        // The settings for the whole sync, read once
+        SettingsSnapshot settings = SettingsSnapshot.get(getContext());
+        String locationQuery = settings.getLocationSetting();
 
+        // The preferred location is always synced first, then the other saved locations
+        List<String> locations = ForecastSyncEngine.getLocationsToSync(getContext());
+        ForecastSyncEngine.Result result;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
-            }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-
-                //----------------------------------------------------------------------------------
-                // Jose: Call updateWatch
-                //----------------------------------------------------------------------------------
-                updateWatch();
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-
-            }
-            Log.v(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            result = mSyncEngine.sync(locations);
+        } catch (InterruptedException e) {
+            Log.v(LOG_TAG, "Sync cancelled");
+            Thread.currentThread().interrupt();
+            return;
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        if (result.stored > 0) {
+            // Read the new forecast once; the widgets and Muzei, told below, find the same
+            // snapshot waiting in the cache
+            ForecastSnapshot forecast =
+                    ForecastSnapshotCache.getInstance().refresh(getContext(), locationQuery);
+            // Format it now too, so the widgets only have to look the strings up
+            ForecastDisplayModel.forSnapshot(getContext(), forecast);
+            //----------------------------------------------------------------------------------
+            // Jose: Call updateWatch
+            //----------------------------------------------------------------------------------
+            updateWatch(settings, forecast);
+            updateWidgets();
+            updateMuzei();
+            notifyWeather(settings, forecast);
         }
+        Log.v(LOG_TAG, "Sync Complete. " + locations.size() + " Locations, " + result.stored
+                + " Stored, " + result.notModified + " Not Modified, " + result.failed + " Failed; "
+                + result.inserted + " Inserted, " + result.changed + " Changed, "
+                + result.unchanged + " Unchanged, " + result.deleted + " Deleted; "
+                + result.evicted + " Locations Evicted");
+        setLocationStatus(getContext(), result.getStatus(locationQuery));
     }
 
     private void updateWidgets() {
@@ -476,38 +311,29 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(SettingsSnapshot settings, ForecastSnapshot forecast) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
 
-        if ( displayNotifications ) {
+        if ( settings.areNotificationsEnabled() ) {
 
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (!forecast.isEmpty()) {
+                    int weatherId = forecast.getWeatherId(0);
+                    double high = forecast.getMaxTemp(0);
+                    double low = forecast.getMinTemp(0);
+                    String desc = forecast.getShortDesc(0);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+                    String artUrl = Utility.getArtUrlForWeatherCondition(settings.getArtPack(),
+                            weatherId);
 
                     // On Honeycomb and higher devices, we can retrieve the size of the large icon
                     // Prior to that, we use a fixed size
@@ -538,8 +364,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
                     // Define the text of the forecast.
                     String contentText = String.format(context.getString(R.string.format_notification),
                             desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
+                            Utility.formatTemperature(context, high, settings.isMetric()),
+                            Utility.formatTemperature(context, low, settings.isMetric()));
 
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
@@ -578,61 +404,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package throwrocks.digital_watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class TestSunshineWatchFaceRenderer extends AndroidTestCase {
+
+    private static final String LOG_TAG = TestSunshineWatchFaceRenderer.class.getSimpleName();
+
+    private static final int SIZE = 320;
+    // A day's worth of minutes, so every time and every relayout is drawn
+    private static final int FRAMES = 24 * 60;
+
+    private SunshineWatchFaceRenderer mRenderer;
+    private Canvas mCanvas;
+    private Rect mBounds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new SunshineWatchFaceRenderer(mContext.getResources());
+        mRenderer.setTextSizes(40, 36, 36, 20);
+        mRenderer.setWeather("21\u00B0", "12\u00B0", "Clear", 800);
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        mBounds = new Rect(0, 0, SIZE, SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRenderer.release();
+        super.tearDown();
+    }
+
+    public void testFramesDoNotAllocate() {
+        // Once through first, so nothing lazily set up on the first frame is counted
+        drawDay();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        drawDay();
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertEquals("Allocations drawing " + FRAMES + " frames", 0, allocations);
+    }
+
+    public void testAmbientFramesDoNotAllocate() {
+        mRenderer.setAmbientProperties(true, true);
+        mRenderer.setAmbient(true);
+        drawDay();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        drawDay();
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertEquals("Allocations drawing " + FRAMES + " ambient frames", 0, allocations);
+    }
+
+    /*
+        The same condition's icon is decoded once, however often the weather arrives.
+     */
+    public void testWeatherUpdateReusesIcon() {
+        drawDay();
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        mRenderer.setWeather("21\u00B0", "12\u00B0", "Clear", 800);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        assertEquals(0, allocations);
+    }
+
+    /*
+        A day of ticks draws the weather once; only what it shows, or how, draws it again.
+     */
+    public void testWeatherLayerDrawnOnlyOnChange() {
+        drawDay();
+        int builds = mRenderer.getLayerBuildCount();
+        assertEquals(1, builds);
+
+        drawDay();
+        assertEquals(builds, mRenderer.getLayerBuildCount());
+
+        mRenderer.setWeather("18\u00B0", "9\u00B0", "Rain", 501);
+        drawDay();
+        assertEquals(++builds, mRenderer.getLayerBuildCount());
+
+        mRenderer.setBackgroundColor(Color.DKGRAY);
+        drawDay();
+        assertEquals(++builds, mRenderer.getLayerBuildCount());
+
+        mRenderer.setTextSizes(44, 38, 38, 22);
+        drawDay();
+        assertEquals(++builds, mRenderer.getLayerBuildCount());
+
+        mRenderer.draw(mCanvas, new Rect(0, 0, SIZE / 2, SIZE / 2), 12, 0);
+        assertEquals(++builds, mRenderer.getLayerBuildCount());
+    }
+
+    /*
+        Ambient mode has its own layer, so going in and out of it draws neither again.
+     */
+    public void testAmbientToggleKeepsLayers() {
+        drawDay();
+        mRenderer.setAmbient(true);
+        drawDay();
+        mRenderer.setAmbient(false);
+        drawDay();
+        mRenderer.setAmbient(true);
+        drawDay();
+        assertEquals(1, mRenderer.getLayerBuildCount());
+        assertEquals(1, mRenderer.getAmbientRenderer().getLayerBuildCount());
+    }
+
+    /*
+        With burn-in protection the icon is left out of ambient frames.
+     */
+    public void testBurnInProtectionChangesAmbientFrame() {
+        mRenderer.setAmbient(true);
+        Bitmap withIcon = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mRenderer.draw(new Canvas(withIcon), mBounds, 9, 41);
+
+        mRenderer.setAmbientProperties(false, true);
+        Bitmap withoutIcon = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mRenderer.draw(new Canvas(withoutIcon), mBounds, 9, 41);
+
+        assertFalse(withIcon.sameAs(withoutIcon));
+    }
+
+    public void testFrameCost() {
+        drawDay();
+        long start = System.nanoTime();
+        drawDay();
+        long interactiveNanos = System.nanoTime() - start;
+
+        mRenderer.setAmbientProperties(true, false);
+        mRenderer.setAmbient(true);
+        drawDay();
+        start = System.nanoTime();
+        drawDay();
+        long ambientNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Interactive: " + interactiveNanos / FRAMES + " ns/frame; ambient: " +
+                ambientNanos / FRAMES + " ns/frame");
+        assertEquals(1, mRenderer.getAmbientRenderer().getLayerBuildCount());
+    }
+
+    /*
+        What a frame shows mustn't depend on whether the weather layer was drawn for it.
+     */
+    public void testLayeredFrameMatchesFreshRenderer() {
+        Bitmap cached = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        drawDay();
+        mRenderer.draw(new Canvas(cached), mBounds, 9, 41);
+
+        SunshineWatchFaceRenderer fresh = new SunshineWatchFaceRenderer(mContext.getResources());
+        fresh.setTextSizes(40, 36, 36, 20);
+        fresh.setWeather("21\u00B0", "12\u00B0", "Clear", 800);
+        Bitmap expected = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        fresh.draw(new Canvas(expected), mBounds, 9, 41);
+        fresh.release();
+
+        assertTrue(expected.sameAs(cached));
+    }
+
+    private void drawDay() {
+        for (int frame = 0; frame < FRAMES; frame++) {
+            mRenderer.draw(mCanvas, mBounds, frame / 60, frame % 60);
+        }
+    }
+}
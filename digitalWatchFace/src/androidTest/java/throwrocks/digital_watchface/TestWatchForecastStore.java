@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package throwrocks.digital_watchface;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.shared.ForecastPayload;
+import com.example.android.sunshine.shared.WeatherPayload;
+
+public class TestWatchForecastStore extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        WatchForecastStore.clear(mContext);
+        Time time = new Time();
+        time.setToNow();
+        mToday = Time.getJulianDay(time.toMillis(false), time.gmtoff);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        WatchForecastStore.clear(mContext);
+        super.tearDown();
+    }
+
+    public void testFullThenDelta() {
+        WatchForecastStore store = WatchForecastStore.getInstance(mContext);
+        assertNull(store.getToday());
+
+        ForecastPayload full = forecast(1, 20);
+        assertTrue(store.update(full.encode()));
+        assertEquals(full, store.getForecast());
+        assertEquals(20, store.getToday().getDisplayHigh());
+
+        ForecastPayload revised = forecast(2, 25);
+        assertTrue(store.update(ForecastPayload.diff(full, revised).encode()));
+        assertEquals(25, store.getToday().getDisplayHigh());
+        assertEquals(DAYS, store.getForecast().size());
+    }
+
+    /*
+        The data layer doesn't promise an order, so a delta can come before its full forecast.
+     */
+    public void testDeltaBeforeItsFull() {
+        WatchForecastStore store = WatchForecastStore.getInstance(mContext);
+        ForecastPayload full = forecast(7, 20);
+        assertFalse(store.update(ForecastPayload.diff(full, forecast(8, 22)).encode()));
+        assertNull(store.getForecast());
+
+        assertTrue(store.update(full.encode()));
+        assertEquals(22, store.getToday().getDisplayHigh());
+    }
+
+    public void testDeltaForOldFullIgnored() {
+        WatchForecastStore store = WatchForecastStore.getInstance(mContext);
+        ForecastPayload old = forecast(1, 20);
+        store.update(forecast(2, 15).encode());
+        assertFalse(store.update(ForecastPayload.diff(old, forecast(3, 30)).encode()));
+        assertEquals(15, store.getToday().getDisplayHigh());
+    }
+
+    /*
+        A delta made before the full forecast it names, say one held up in the data layer while
+        the phone sent the whole forecast again, would undo that forecast's newer days.
+     */
+    public void testDeltaOlderThanFullIgnored() {
+        WatchForecastStore store = WatchForecastStore.getInstance(mContext);
+        ForecastPayload full = forecast(3, 2000, 20);
+        assertTrue(store.update(full.encode()));
+
+        ForecastPayload delta = ForecastPayload.diff(forecast(3, 1000, 20), forecast(4, 1000, 30));
+        assertFalse(store.update(delta.encode()));
+        assertEquals(full, store.getForecast());
+    }
+
+    public void testNewerFullDropsDelta() {
+        WatchForecastStore store = WatchForecastStore.getInstance(mContext);
+        store.update(ForecastPayload.diff(forecast(3, 1000, 20), forecast(4, 1000, 30)).encode());
+        assertTrue(store.update(forecast(3, 2000, 20).encode()));
+        assertEquals(20, store.getToday().getDisplayHigh());
+
+        // Nor does it come back with the saved forecast
+        WatchForecastStore.clearInstance();
+        assertEquals(20, WatchForecastStore.getInstance(mContext).getToday().getDisplayHigh());
+    }
+
+    public void testUnchangedForecastIsNotAChange() {
+        WatchForecastStore store = WatchForecastStore.getInstance(mContext);
+        ForecastPayload full = forecast(1, 20);
+        assertTrue(store.update(full.encode()));
+        assertFalse(store.update(full.encode()));
+    }
+
+    /*
+        The face starts with whatever the phone sent last, without waiting for it to send more.
+     */
+    public void testForecastSurvivesRestart() {
+        ForecastPayload full = forecast(4, 20);
+        ForecastPayload delta = ForecastPayload.diff(full, forecast(5, 18));
+        WatchForecastStore store = WatchForecastStore.getInstance(mContext);
+        store.update(full.encode());
+        store.update(delta.encode());
+        ForecastPayload forecast = store.getForecast();
+
+        // A new process, as far as the store can tell
+        WatchForecastStore.clearInstance();
+        WatchForecastStore restarted = WatchForecastStore.getInstance(mContext);
+        assertNotSame(store, restarted);
+        assertEquals(forecast, restarted.getForecast());
+        WeatherPayload today = restarted.getToday();
+        assertEquals(18, today.getDisplayHigh());
+    }
+
+    private ForecastPayload forecast(int sequence, double todaysHigh) {
+        return forecast(sequence, System.currentTimeMillis(), todaysHigh);
+    }
+
+    private ForecastPayload forecast(int sequence, long timeMillis, double todaysHigh) {
+        int[] days = new int[DAYS];
+        int[] weatherIds = new int[DAYS];
+        double[] highs = new double[DAYS];
+        double[] lows = new double[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            days[i] = mToday + i;
+            weatherIds[i] = 800;
+            highs[i] = i == 0 ? todaysHigh : 20 + i;
+            lows[i] = 10;
+        }
+        return ForecastPayload.full(sequence, timeMillis, true, days, weatherIds, highs, lows);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package throwrocks.digital_watchface;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.shared.WeatherPayload;
+
+public class TestWeatherLabels extends AndroidTestCase {
+
+    private WeatherLabels mLabels;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLabels = new WeatherLabels(mContext.getResources());
+    }
+
+    public void testPayloadFormatsAsPhoneDid() {
+        WeatherPayload payload = WeatherPayload.decode(
+                new WeatherPayload(21.4, 9.6, 800, 0, true).encode());
+        assertEquals("21\u00B0", mLabels.getTemperature(payload.getDisplayHigh()));
+        assertEquals("10\u00B0", mLabels.getTemperature(payload.getDisplayLow()));
+        assertEquals("Clear", mLabels.getDescription(payload.getWeatherId()));
+
+        WeatherPayload imperial = WeatherPayload.decode(
+                new WeatherPayload(21.4, -9.6, 500, 0, false).encode());
+        assertEquals("71\u00B0", mLabels.getTemperature(imperial.getDisplayHigh()));
+        assertEquals("15\u00B0", mLabels.getTemperature(imperial.getDisplayLow()));
+        assertEquals("Light Rain", mLabels.getDescription(imperial.getWeatherId()));
+    }
+
+    /*
+        Once a temperature or a description has been shown, showing it again allocates nothing.
+     */
+    public void testRepeatedTemperaturesAreCached() {
+        String first = mLabels.getTemperature(-5);
+        mLabels.getDescription(800);
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        String second = mLabels.getTemperature(-5);
+        mLabels.getDescription(800);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        assertSame(first, second);
+        assertEquals(0, allocations);
+    }
+
+    public void testOutOfRangeTemperature() {
+        assertEquals("200\u00B0", mLabels.getTemperature(200));
+    }
+
+    /*
+        The face describes each condition as the phone does, not just by its kind of weather.
+     */
+    public void testDescriptionsMatchPhone() {
+        assertEquals("Freezing Rain", mLabels.getDescription(511));
+        assertEquals("Storm", mLabels.getDescription(211));
+        assertEquals("Dust", mLabels.getDescription(761));
+        assertEquals("Hurricane", mLabels.getDescription(962));
+    }
+
+    public void testUnknownConditionIsDescribed() {
+        assertEquals("Unknown (-1)", mLabels.getDescription(-1));
+        assertEquals("Unknown (100)", mLabels.getDescription(100));
+    }
+}
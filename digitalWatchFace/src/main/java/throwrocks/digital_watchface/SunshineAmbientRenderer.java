@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package throwrocks.digital_watchface;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.SparseArray;
+
+/**
+ * Draws the watch face in ambient mode, once a minute: the time, the high and the low on black,
+ * and the icon in shades of gray.  The description is left out.
+ *
+ * On screens with fewer bits per color in ambient mode the icon is reduced to one bit and
+ * nothing is anti-aliased.  On screens that need burn-in protection the icon is left out too,
+ * since it's the largest block of lit pixels the face has.
+ *
+ * As with the interactive face, the weather is drawn into an offscreen layer when it changes
+ * and the time is drawn over it, and each icon's ambient variant is made once.
+ */
+class SunshineAmbientRenderer {
+
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    // Room between the high and the low temperatures
+    private static final float TEMPERATURE_PADDING = 4;
+
+    // How opaque an icon's pixel has to be to stay lit with one bit
+    private static final int LOW_BIT_ALPHA_THRESHOLD = 128;
+
+    private final Paint mTimePaint;
+    private final Paint mWeatherHighPaint;
+    private final Paint mWeatherLowPaint;
+    private final Paint mIconPaint;
+
+    private final float mYOffset;
+    private boolean mLowBitAmbient;
+    private boolean mBurnInProtection;
+
+    private String mWeatherHigh = "";
+    private String mWeatherLow = "";
+    private int mWeatherIconId = -1;
+    private Bitmap mWeatherIcon;
+    private Bitmap mAmbientIcon;
+    // Ambient variants of the icons by resource id, made the first time each is needed
+    private final SparseArray<Bitmap> mGrayIcons = new SparseArray<>();
+    private final SparseArray<Bitmap> mLowBitIcons = new SparseArray<>();
+
+    private boolean mTimeLayoutValid;
+    private float mTimeX;
+
+    private Bitmap mLayer;
+    private final Canvas mLayerCanvas = new Canvas();
+    private boolean mLayerValid;
+    private final Rect mLayerBounds = new Rect();
+    private int mLayerBuilds;
+
+    SunshineAmbientRenderer(Resources resources) {
+        mTimePaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mWeatherHighPaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mWeatherLowPaint = createTextPaint(resources.getColor(R.color.ambient_low_text));
+
+        mIconPaint = new Paint();
+        ColorMatrix grayscale = new ColorMatrix();
+        grayscale.setSaturation(0);
+        mIconPaint.setColorFilter(new ColorMatrixColorFilter(grayscale));
+
+        mYOffset = resources.getDimension(R.dimen.digital_y_offset);
+    }
+
+    private static Paint createTextPaint(int textColor) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(NORMAL_TYPEFACE);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    void setTextSizes(float time, float weatherHigh, float weatherLow) {
+        mTimePaint.setTextSize(time);
+        mWeatherHighPaint.setTextSize(weatherHigh);
+        mWeatherLowPaint.setTextSize(weatherLow);
+        mTimeLayoutValid = false;
+        mLayerValid = false;
+    }
+
+    /**
+     * @param lowBitAmbient    whether the screen has fewer bits per color in ambient mode
+     * @param burnInProtection whether the screen needs protecting from burn-in
+     */
+    void setProperties(boolean lowBitAmbient, boolean burnInProtection) {
+        mLowBitAmbient = lowBitAmbient;
+        mBurnInProtection = burnInProtection;
+        mTimePaint.setAntiAlias(!lowBitAmbient);
+        mWeatherHighPaint.setAntiAlias(!lowBitAmbient);
+        mWeatherLowPaint.setAntiAlias(!lowBitAmbient);
+        mAmbientIcon = null;
+        mLayerValid = false;
+    }
+
+    /**
+     * @param iconId the icon's resource id, or -1 for none
+     * @param icon   the icon decoded in color, which the ambient variant is made from
+     */
+    void setWeather(String high, String low, int iconId, Bitmap icon) {
+        mWeatherHigh = high;
+        mWeatherLow = low;
+        mWeatherIconId = iconId;
+        mWeatherIcon = icon;
+        mAmbientIcon = null;
+        mLayerValid = false;
+    }
+
+    /**
+     * Has the time measured again before it's next drawn.
+     */
+    void invalidateTime() {
+        mTimeLayoutValid = false;
+    }
+
+    /**
+     * Lets go of the layer bitmap and the icon variants.
+     */
+    void release() {
+        if (mLayer != null) {
+            mLayer.recycle();
+            mLayer = null;
+        }
+        recycleAll(mGrayIcons);
+        recycleAll(mLowBitIcons);
+        mAmbientIcon = null;
+        mLayerValid = false;
+    }
+
+    private static void recycleAll(SparseArray<Bitmap> icons) {
+        for (int i = 0; i < icons.size(); i++) {
+            icons.valueAt(i).recycle();
+        }
+        icons.clear();
+    }
+
+    /**
+     * @return how many times the ambient weather layer has been drawn, for tests
+     */
+    int getLayerBuildCount() {
+        return mLayerBuilds;
+    }
+
+    void draw(Canvas canvas, Rect bounds, char[] time, int timeLength) {
+        if (!mLayerValid || !mLayerBounds.equals(bounds)) {
+            drawLayer(bounds);
+        }
+        canvas.drawBitmap(mLayer, 0, 0, null);
+
+        if (!mTimeLayoutValid) {
+            mTimeX = mLayerBounds.centerX() - mTimePaint.measureText(time, 0, timeLength) / 2;
+            mTimeLayoutValid = true;
+        }
+        canvas.drawText(time, 0, timeLength, mTimeX, mYOffset, mTimePaint);
+    }
+
+    private void drawLayer(Rect bounds) {
+        int width = bounds.width();
+        int height = bounds.height();
+        if (mLayer == null || mLayer.getWidth() != width || mLayer.getHeight() != height) {
+            if (mLayer != null) {
+                mLayer.recycle();
+            }
+            // Opaque and mostly black, so 16 bits a pixel is plenty
+            mLayer = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+            mLayerCanvas.setBitmap(mLayer);
+        }
+        mLayerBounds.set(bounds);
+        mTimeLayoutValid = false;
+        Canvas canvas = mLayerCanvas;
+
+        canvas.drawColor(Color.BLACK);
+
+        // Laid out as the interactive face is, so nothing moves when the mode changes
+        float centerX = bounds.centerX();
+        float highWidth = mWeatherHighPaint.measureText(mWeatherHigh) + TEMPERATURE_PADDING;
+        float lowWidth = mWeatherLowPaint.measureText(mWeatherLow) + TEMPERATURE_PADDING;
+        float highX = centerX - (highWidth + lowWidth) / 2;
+        float timeHeight = mTimePaint.getTextSize();
+        float temperatureY = mYOffset + timeHeight;
+        canvas.drawText(mWeatherHigh, highX, temperatureY, mWeatherHighPaint);
+        canvas.drawText(mWeatherLow, highX + highWidth, temperatureY, mWeatherLowPaint);
+
+        Bitmap icon = getAmbientIcon();
+        if (icon != null) {
+            canvas.drawBitmap(icon, centerX - icon.getWidth() / 2,
+                    temperatureY + mWeatherHighPaint.getTextSize(), null);
+        }
+
+        mLayerValid = true;
+        mLayerBuilds++;
+    }
+
+    private Bitmap getAmbientIcon() {
+        if (mBurnInProtection || mWeatherIcon == null) {
+            return null;
+        }
+        if (mAmbientIcon != null) {
+            return mAmbientIcon;
+        }
+        SparseArray<Bitmap> icons = mLowBitAmbient ? mLowBitIcons : mGrayIcons;
+        mAmbientIcon = icons.get(mWeatherIconId);
+        if (mAmbientIcon == null) {
+            mAmbientIcon = mLowBitAmbient ? toLowBit(mWeatherIcon) : toGray(mWeatherIcon);
+            icons.put(mWeatherIconId, mAmbientIcon);
+        }
+        return mAmbientIcon;
+    }
+
+    private Bitmap toGray(Bitmap icon) {
+        Bitmap gray = Bitmap.createBitmap(icon.getWidth(), icon.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        new Canvas(gray).drawBitmap(icon, 0, 0, mIconPaint);
+        return gray;
+    }
+
+    /**
+     * @return the icon's shape in white; its colors are too alike in brightness to keep apart
+     * with one bit
+     */
+    private Bitmap toLowBit(Bitmap icon) {
+        int width = icon.getWidth();
+        int height = icon.getHeight();
+        int[] pixels = new int[width * height];
+        icon.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = Color.alpha(pixels[i]) >= LOW_BIT_ALPHA_THRESHOLD
+                    ? Color.WHITE : Color.TRANSPARENT;
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -21,13 +21,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -38,10 +33,9 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.shared.WeatherPayload;
+
 import java.lang.ref.WeakReference;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
@@ -54,9 +48,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
     public final String LOG_TAG = SunshineWatchFace.class.getSimpleName();
 
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
@@ -96,14 +87,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
     private class Engine extends CanvasWatchFaceService.Engine {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
-        Paint mBackgroundPaint;
-
-        Paint mTimePaint;
-        // Jose: declared the weather paint objects
-        Paint mWeatherHighPaint;
-        Paint mWeatherLowPaint;
-        Paint mWeatherDescriptionPaint;
-
+        SunshineWatchFaceRenderer mRenderer;
 
         boolean mAmbient;
 
@@ -120,14 +104,13 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         int mTapCount;
 
         float mXOffset;
-        float mYOffset;
 
-        // Weather variables
-        String weather_temperature_high = "";
-        String weather_temperature_low = "";
-        String weather_description = "";
-        Bitmap weatherIcon;
-        int weather_id;
+        // Formats the weather the phone sends
+        WeatherLabels mWeatherLabels;
+        // What the face shows, so it's only laid out again when that changes
+        WeatherPayload mShownWeather;
+        // The julian day whose weather the face last looked up
+        int mShownJulianDay;
 
 
         //------------------------------------------------------------------------------------------
@@ -136,12 +119,17 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         final BroadcastReceiver mWeatherReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                Log.i(LOG_TAG, "onReceive - Weather Receiver");
-                weather_temperature_high = intent.getStringExtra("sunshine_temperature_high");
-                weather_temperature_low = intent.getStringExtra("sunshine_temperature_low");
-                weather_description = intent.getStringExtra("sunshine_temperature_description");
-                weather_id = intent.getIntExtra("sunshine_weather_id", 0);
-                Log.i(LOG_TAG, weather_temperature_high + ", " + weather_temperature_low);
+                WeatherPayload payload;
+                try {
+                    payload = WeatherPayload.decode(intent.getByteArrayExtra(
+                            SunshineWatchListenerService.EXTRA_WEATHER_PAYLOAD));
+                } catch (IllegalArgumentException e) {
+                    // From a phone app older or newer than this face
+                    Log.w(LOG_TAG, "Ignoring weather: " + e.getMessage());
+                    return;
+                }
+                showWeather(payload);
+                invalidate();
             }
         };
 
@@ -151,6 +139,12 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
          */
         boolean mLowBitAmbient;
 
+        /**
+         * Whether the display needs protecting from burn-in. When true, we leave the weather
+         * icon out in ambient mode.
+         */
+        boolean mBurnInProtection;
+
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
@@ -161,47 +155,47 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     .setShowSystemUiTime(false)
                     .setAcceptsTapEvents(true)
                     .build());
-            Resources resources = SunshineWatchFace.this.getResources();
-
-
-            mYOffset = resources.getDimension(R.dimen.digital_y_offset);
-
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.background));
-
-            mTimePaint = new Paint();
-            mTimePaint = createTextPaint(resources.getColor(R.color.digital_text));
-
-            // Jose: Create the weather Paint objects
-            mWeatherLowPaint = new Paint();
-            mWeatherLowPaint = createTextPaint(resources.getColor(R.color.weather_low_text));
-
-            mWeatherHighPaint = new Paint();
-            mWeatherHighPaint = createTextPaint(resources.getColor(R.color.digital_text));
-
-            mWeatherDescriptionPaint = new Paint();
-            mWeatherDescriptionPaint = createTextPaint(resources.getColor(R.color.weather_description_text));
-
+            mRenderer = new SunshineWatchFaceRenderer(SunshineWatchFace.this.getResources());
+            mWeatherLabels = new WeatherLabels(SunshineWatchFace.this.getResources());
 
+            mTime = new Time();
+            // Whatever the phone sent last, until it sends more
+            showStoredWeather();
+        }
 
+        /**
+         * Shows the stored forecast's weather for today, which is another day's once the date
+         * has changed since the face last looked.
+         */
+        private void showStoredWeather() {
+            mTime.setToNow();
+            mShownJulianDay = Time.getJulianDay(mTime.toMillis(false), mTime.gmtoff);
+            WeatherPayload today = WatchForecastStore.getInstance(SunshineWatchFace.this)
+                    .getToday();
+            if (today != null) {
+                showWeather(today);
+            }
+        }
 
-            mTime = new Time();
+        private void showWeather(WeatherPayload payload) {
+            if (payload.equals(mShownWeather)) {
+                return;
+            }
+            mShownWeather = payload;
+            int weatherId = payload.getWeatherId();
+            // Measured, decoded and drawn into the weather layer once, rather than every frame
+            mRenderer.setWeather(mWeatherLabels.getTemperature(payload.getDisplayHigh()),
+                    mWeatherLabels.getTemperature(payload.getDisplayLow()),
+                    mWeatherLabels.getDescription(weatherId), weatherId);
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mRenderer.release();
             super.onDestroy();
         }
 
-        private Paint createTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(NORMAL_TYPEFACE);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
@@ -209,9 +203,12 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             if (visible) {
                 registerReceiver();
 
-                // Update time zone in case it changed while we weren't visible.
+                // Update time zone and locale in case they changed while we weren't visible.
                 mTime.clear(TimeZone.getDefault().getID());
                 mTime.setToNow();
+                mRenderer.setLocale(Locale.getDefault());
+                // The forecast may have been updated, or the day have turned, while hidden
+                showStoredWeather();
             } else {
                 unregisterReceiver();
             }
@@ -232,7 +229,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             SunshineWatchFace.this.registerReceiver(mTimeZoneReceiver, filter);
 
             // Jose: Register the weather receiver
-            IntentFilter weatherFilter = new IntentFilter("ACTION_WEATHER_CHANGED");
+            IntentFilter weatherFilter = new IntentFilter(
+                    SunshineWatchListenerService.ACTION_WEATHER_CHANGED);
             SunshineWatchFace.this.registerReceiver(mWeatherReceiver, weatherFilter );
         }
 
@@ -266,21 +264,26 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             float weatherDescriptionTextSize = resources.getDimension(isRound
                     ? R.dimen.digital_weather_description_text_size_round : R.dimen.digital_weather_description_text_size);
 
-            mTimePaint.setTextSize(textSize);
-            mWeatherHighPaint.setTextSize(weatherHighTextSize);
-            mWeatherLowPaint.setTextSize(weatherLowTextSize);
-            mWeatherDescriptionPaint.setTextSize(weatherDescriptionTextSize);
+            mRenderer.setTextSizes(textSize, weatherHighTextSize, weatherLowTextSize,
+                    weatherDescriptionTextSize);
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            mRenderer.setAmbientProperties(mLowBitAmbient, mBurnInProtection);
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            mTime.setToNow();
+            if (Time.getJulianDay(mTime.toMillis(false), mTime.gmtoff) != mShownJulianDay) {
+                // Past midnight: on to the next day of the forecast
+                showStoredWeather();
+            }
             invalidate();
         }
 
@@ -289,11 +292,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTimePaint.setAntiAlias(!inAmbientMode);
-                    mWeatherHighPaint.setAntiAlias(!inAmbientMode);
-                    mWeatherLowPaint.setAntiAlias(!inAmbientMode);
-                }
+                mRenderer.setAmbient(inAmbientMode);
                 invalidate();
             }
 
@@ -319,7 +318,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 case TAP_TYPE_TAP:
                     // The user has completed the tap gesture.
                     mTapCount++;
-                    mBackgroundPaint.setColor(resources.getColor(mTapCount % 2 == 0 ?
+                    mRenderer.setBackgroundColor(resources.getColor(mTapCount % 2 == 0 ?
                             R.color.background : R.color.background2));
                     break;
             }
@@ -328,84 +327,11 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            }
-
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
+            // Draw H:MM AM/PM; nothing here allocates, since this runs every second
             mTime.setToNow();
-            String text = mAmbient
-                    ? String.format("%d:%02d", mTime.hour, mTime.minute)
-                    : String.format("%d:%02d", mTime.hour, mTime.minute);
-
-
-            // Jose: Format the time to 12 hours (ex: 8:00 AM)
-            try {
-                final SimpleDateFormat simpleDate = new SimpleDateFormat("h:mm", Locale.getDefault());
-                final Date time = simpleDate.parse(text);
-                text = new SimpleDateFormat("h:mm a", Locale.getDefault()).format(time);
-
-            } catch (final ParseException e) {
-                e.printStackTrace();
-            }
-
-            // Jose: Set variables to center all objects relative to each other
-            float mTimeHeight = mTimePaint.getTextSize();
-            float mTimeXCenter = bounds.centerX() - mTimePaint.measureText(text) / 2;
-
-            // Measure the temperature texts and pad them
-            float mWeatherHighMeasure = mWeatherHighPaint.measureText(weather_temperature_high) + 4;
-            float mWeatherLowMeasure = mWeatherLowPaint.measureText(weather_temperature_low) + 4;
-            // The total temperature text size
-            float mWeatherMeasure = mWeatherHighMeasure + mWeatherLowMeasure;
-            // The temperature height
-            float mWeatherHeight = mWeatherHighPaint.getTextSize();
-
-            // The description measure
-            float mWeatherDescriptionMeasure = mWeatherDescriptionPaint.measureText(weather_description);
-
-            // The relative x offsets
-            float mWeatherHighXCenter = bounds.centerX() - mWeatherMeasure / 2;
-            float mWeatherLowXCenter = bounds.centerX() - mWeatherMeasure / 2 + mWeatherHighMeasure;
-            float mWeatherIconXCenter = 0;
-            float mWeatherDescriptionXCenter =  bounds.centerX() - mWeatherDescriptionMeasure / 2 ;
-
-            // The relative y offsets
-            float mWeatherTemperatureYOffset = mYOffset + mTimeHeight;
-            float mWeatherTemperatureDisplayYOffset = mYOffset + mTimeHeight + mWeatherHeight;
-
-
-            // Jose: Get the weather icon's drawable id
-
-            int mWeatherIcon = SunshineWatchGetWeatherIcon.getIconResourceForWeatherCondition(weather_id);
-            if ( mWeatherIcon != -1 ) {
-                weatherIcon = BitmapFactory.decodeResource(getResources(), mWeatherIcon);
-                mWeatherIconXCenter = bounds.centerX() - weatherIcon.getWidth() / 2;
-            }
-
-            Log.d(LOG_TAG, "weather_id: " + Integer.toString(weather_id));
-            Log.d(LOG_TAG, "weathericon: " + Integer.toString(mWeatherIcon));
-
-            canvas.drawText(text, mTimeXCenter, mYOffset, mTimePaint);
-
-            // Jose: Draw the temperature
-            canvas.drawText(weather_temperature_high, mWeatherHighXCenter, mWeatherTemperatureYOffset, mWeatherHighPaint);
-            canvas.drawText(weather_temperature_low, mWeatherLowXCenter,mWeatherTemperatureYOffset, mWeatherLowPaint);
-            canvas.drawText(weather_description, mWeatherDescriptionXCenter, mWeatherTemperatureDisplayYOffset , mWeatherDescriptionPaint);
-
-            // Jose: Draw the weather icon
-            if ( mWeatherIcon != -1 && mWeatherIconXCenter != 0) {
-                canvas.drawBitmap(weatherIcon, mWeatherIconXCenter, mWeatherTemperatureDisplayYOffset, mTimePaint);
-            }
-
+            mRenderer.draw(canvas, bounds, mTime.hour, mTime.minute);
         }
 
-
-
         /**
          * Starts the {@link #mUpdateTimeHandler} timer if it should be running and isn't currently
          * or stops it if it shouldn't be running but currently is.
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package throwrocks.digital_watchface;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.SparseArray;
+
+import java.text.DateFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Draws the watch face: the time as "h:mm a", the day's high and low, its description and its
+ * icon.
+ *
+ * Everything a frame needs is prepared when it changes rather than when it's drawn.  The time
+ * is written into a char buffer, icons are decoded once per condition, and the text is only
+ * measured again when the weather, the text sizes, the bounds or the minute change, so drawing
+ * a frame allocates nothing.
+ *
+ * The face is drawn in two layers.  The background and the weather, which change every few
+ * hours at most, are drawn once into an offscreen bitmap, and drawn again only when the weather,
+ * the text sizes, the background, ambient mode or the bounds change.  A frame copies that bitmap
+ * and draws the time over it.
+ *
+ * In ambient mode drawing is handed to a {@link SunshineAmbientRenderer}, which keeps its own
+ * layer, so changing mode draws neither layer again.
+ */
+class SunshineWatchFaceRenderer {
+
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    // Room between the high and the low temperatures
+    private static final float TEMPERATURE_PADDING = 4;
+
+    private final Resources mResources;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mTimePaint;
+    private final Paint mWeatherHighPaint;
+    private final Paint mWeatherLowPaint;
+    private final Paint mWeatherDescriptionPaint;
+    private final SunshineAmbientRenderer mAmbientRenderer;
+
+    private float mYOffset;
+    private boolean mAmbient;
+
+    // "12:59 PM" and the like; long enough for any AM/PM string a locale has
+    private final char[] mTime = new char[32];
+    private int mTimeLength;
+    private int mHour = -1;
+    private int mMinute = -1;
+    private String mAm;
+    private String mPm;
+
+    private String mWeatherHigh = "";
+    private String mWeatherLow = "";
+    private String mWeatherDescription = "";
+    private Bitmap mWeatherIcon;
+    // Decoded icons by resource id; there are only a handful of them
+    private final SparseArray<Bitmap> mIcons = new SparseArray<>();
+
+    // Where the time goes, worked out again only when mTimeLayoutValid is cleared
+    private boolean mTimeLayoutValid;
+    private float mTimeX;
+
+    // The background and the weather, drawn again only when mLayerValid is cleared
+    private Bitmap mLayer;
+    private final Canvas mLayerCanvas = new Canvas();
+    private boolean mLayerValid;
+    private final Rect mLayerBounds = new Rect();
+    private int mLayerBuilds;
+
+    SunshineWatchFaceRenderer(Resources resources) {
+        mResources = resources;
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(resources.getColor(R.color.background));
+
+        mTimePaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mWeatherLowPaint = createTextPaint(resources.getColor(R.color.weather_low_text));
+        mWeatherHighPaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mWeatherDescriptionPaint =
+                createTextPaint(resources.getColor(R.color.weather_description_text));
+
+        mYOffset = resources.getDimension(R.dimen.digital_y_offset);
+        mAmbientRenderer = new SunshineAmbientRenderer(resources);
+        setLocale(Locale.getDefault());
+    }
+
+    private static Paint createTextPaint(int textColor) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(NORMAL_TYPEFACE);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    void setTextSizes(float time, float weatherHigh, float weatherLow, float weatherDescription) {
+        mTimePaint.setTextSize(time);
+        mWeatherHighPaint.setTextSize(weatherHigh);
+        mWeatherLowPaint.setTextSize(weatherLow);
+        mWeatherDescriptionPaint.setTextSize(weatherDescription);
+        mAmbientRenderer.setTextSizes(time, weatherHigh, weatherLow);
+        mTimeLayoutValid = false;
+        mLayerValid = false;
+    }
+
+    void setBackgroundColor(int color) {
+        mBackgroundPaint.setColor(color);
+        mLayerValid = false;
+    }
+
+    void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+    }
+
+    /**
+     * @param lowBitAmbient    whether the screen has fewer bits per color in ambient mode
+     * @param burnInProtection whether the screen needs protecting from burn-in
+     * @see SunshineAmbientRenderer
+     */
+    void setAmbientProperties(boolean lowBitAmbient, boolean burnInProtection) {
+        mAmbientRenderer.setProperties(lowBitAmbient, burnInProtection);
+    }
+
+    /**
+     * Picks up the locale's AM and PM.
+     */
+    void setLocale(Locale locale) {
+        String[] amPm = DateFormatSymbols.getInstance(locale).getAmPmStrings();
+        mAm = amPm[0];
+        mPm = amPm[1];
+        // Have the time written out again next frame
+        mHour = -1;
+    }
+
+    void setWeather(String high, String low, String description, int weatherId) {
+        mWeatherHigh = high != null ? high : "";
+        mWeatherLow = low != null ? low : "";
+        mWeatherDescription = description != null ? description : "";
+        int iconId = SunshineWatchGetWeatherIcon.getIconResourceForWeatherCondition(weatherId);
+        if (iconId == -1) {
+            mWeatherIcon = null;
+        } else {
+            mWeatherIcon = mIcons.get(iconId);
+            if (mWeatherIcon == null) {
+                mWeatherIcon = BitmapFactory.decodeResource(mResources, iconId);
+                mIcons.put(iconId, mWeatherIcon);
+            }
+        }
+        mAmbientRenderer.setWeather(mWeatherHigh, mWeatherLow, iconId, mWeatherIcon);
+        mLayerValid = false;
+    }
+
+    /**
+     * Lets go of the layer bitmap; the next frame makes a new one.
+     */
+    void release() {
+        if (mLayer != null) {
+            mLayer.recycle();
+            mLayer = null;
+        }
+        mLayerValid = false;
+        mAmbientRenderer.release();
+    }
+
+    /**
+     * @return how many times the background and weather layer has been drawn, for tests
+     */
+    int getLayerBuildCount() {
+        return mLayerBuilds;
+    }
+
+    SunshineAmbientRenderer getAmbientRenderer() {
+        return mAmbientRenderer;
+    }
+
+    /**
+     * @param hour   0 to 23
+     * @param minute 0 to 59
+     */
+    void draw(Canvas canvas, Rect bounds, int hour, int minute) {
+        if (hour != mHour || minute != mMinute) {
+            writeTime(hour, minute);
+            mTimeLayoutValid = false;
+            mAmbientRenderer.invalidateTime();
+        }
+        if (mAmbient) {
+            mAmbientRenderer.draw(canvas, bounds, mTime, mTimeLength);
+            return;
+        }
+
+        if (!mLayerValid || !mLayerBounds.equals(bounds)) {
+            drawLayer(bounds);
+        }
+        canvas.drawBitmap(mLayer, 0, 0, null);
+
+        if (!mTimeLayoutValid) {
+            mTimeX = mLayerBounds.centerX() - mTimePaint.measureText(mTime, 0, mTimeLength) / 2;
+            mTimeLayoutValid = true;
+        }
+        canvas.drawText(mTime, 0, mTimeLength, mTimeX, mYOffset, mTimePaint);
+    }
+
+    // Jose: Format the time to 12 hours (ex: 8:00 AM)
+    private void writeTime(int hour, int minute) {
+        mHour = hour;
+        mMinute = minute;
+        int hour12 = hour % 12 == 0 ? 12 : hour % 12;
+        int length = 0;
+        if (hour12 >= 10) {
+            mTime[length++] = (char) ('0' + hour12 / 10);
+        }
+        mTime[length++] = (char) ('0' + hour12 % 10);
+        mTime[length++] = ':';
+        mTime[length++] = (char) ('0' + minute / 10);
+        mTime[length++] = (char) ('0' + minute % 10);
+        mTime[length++] = ' ';
+        String amPm = hour < 12 ? mAm : mPm;
+        int amPmLength = Math.min(amPm.length(), mTime.length - length);
+        amPm.getChars(0, amPmLength, mTime, length);
+        mTimeLength = length + amPmLength;
+    }
+
+    // Jose: Draw the background, the temperature and the weather icon, centered relative to
+    // each other
+    private void drawLayer(Rect bounds) {
+        int width = bounds.width();
+        int height = bounds.height();
+        if (mLayer == null || mLayer.getWidth() != width || mLayer.getHeight() != height) {
+            if (mLayer != null) {
+                mLayer.recycle();
+            }
+            mLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mLayerCanvas.setBitmap(mLayer);
+        }
+        mLayerBounds.set(bounds);
+        // The time is centered on the same bounds
+        mTimeLayoutValid = false;
+        Canvas canvas = mLayerCanvas;
+
+        // Draw the background.
+        canvas.drawRect(0, 0, width, height, mBackgroundPaint);
+
+        float centerX = bounds.centerX();
+
+        // Measure the temperature texts and pad them
+        float highWidth = mWeatherHighPaint.measureText(mWeatherHigh) + TEMPERATURE_PADDING;
+        float lowWidth = mWeatherLowPaint.measureText(mWeatherLow) + TEMPERATURE_PADDING;
+        float temperatureWidth = highWidth + lowWidth;
+        float highX = centerX - temperatureWidth / 2;
+        float lowX = highX + highWidth;
+        float descriptionX =
+                centerX - mWeatherDescriptionPaint.measureText(mWeatherDescription) / 2;
+
+        // The relative y offsets
+        float timeHeight = mTimePaint.getTextSize();
+        float temperatureY = mYOffset + timeHeight;
+        float descriptionY = mYOffset + timeHeight + mWeatherHighPaint.getTextSize();
+
+        canvas.drawText(mWeatherHigh, highX, temperatureY, mWeatherHighPaint);
+        canvas.drawText(mWeatherLow, lowX, temperatureY, mWeatherLowPaint);
+        canvas.drawText(mWeatherDescription, descriptionX, descriptionY,
+                mWeatherDescriptionPaint);
+        if (mWeatherIcon != null) {
+            canvas.drawBitmap(mWeatherIcon, centerX - mWeatherIcon.getWidth() / 2, descriptionY,
+                    mTimePaint);
+        }
+
+        mLayerValid = true;
+        mLayerBuilds++;
+    }
+}
@@ -1,10 +1,11 @@
 package throwrocks.digital_watchface;
 
 import android.content.Intent;
-import android.graphics.Color;
 import android.os.Bundle;
 import android.util.Log;
 
+import com.example.android.sunshine.shared.ForecastPayload;
+import com.example.android.sunshine.shared.WeatherPayload;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -12,9 +13,6 @@ import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.DataItemBuffer;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
@@ -26,7 +24,11 @@ public class SunshineWatchListenerService extends WearableListenerService
         implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener, DataApi.DataListener {
 
     public final String LOG_TAG = SunshineWatchListenerService.class.getSimpleName();
-    private static final String WEARABLE_DATA_PATH = "/sunshine_data";
+
+    /** Broadcast to the face with the weather the phone sent. */
+    static final String ACTION_WEATHER_CHANGED = "ACTION_WEATHER_CHANGED";
+    /** Today's {@link WeatherPayload}'s bytes. */
+    static final String EXTRA_WEATHER_PAYLOAD = "sunshine_payload";
 
 
     GoogleApiClient mGoogleApiClient;
@@ -81,47 +83,31 @@ public class SunshineWatchListenerService extends WearableListenerService
      */
     @Override
     public void onDataChanged(DataEventBuffer dataEvents) {
-        Log.i(LOG_TAG, "onDataChanged");
-
-        DataMap dataMap;
+        WatchForecastStore store = WatchForecastStore.getInstance(this);
+        boolean changed = false;
         for (DataEvent event : dataEvents) {
 
             // Check the data type
             if (event.getType() == DataEvent.TYPE_CHANGED) {
-
-                // Get the data map
-                dataMap = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
-                Log.i(LOG_TAG, "DataMap received on watch: " + dataMap);
-
-                // Get the data map items
-                String sunshine_temperature_high = dataMap.getString("sunshine_temperature_high");
-                String sunshine_temperature_low = dataMap.getString("sunshine_temperature_low");
-                String  sunshine_temperature_description = dataMap.get("sunshine_temperature_description");
-                int sunshine_weather_id = dataMap.get("sunshine_weather_id");
-                Long sunshine_time_millis = dataMap.getLong("sunshine_time_millis");
-
-                Log.i(LOG_TAG, "Temperature: " + sunshine_temperature_high + ", " + sunshine_temperature_low);
-                Log.i(LOG_TAG, "Weather id: " + sunshine_weather_id);
-
-                // Create intent and broadcast it
-                Intent send_weather = new Intent("ACTION_WEATHER_CHANGED");
-                send_weather.putExtra("sunshine_temperature_high", sunshine_temperature_high);
-                send_weather.putExtra("sunshine_temperature_low", sunshine_temperature_low);
-                send_weather.putExtra("sunshine_temperature_description", sunshine_temperature_description);
-                send_weather.putExtra("sunshine_weather_id", sunshine_weather_id);
-                send_weather.putExtra("sunshine_time_millis", sunshine_time_millis);
-                sendBroadcast(send_weather);
-
-
+                DataItem item = event.getDataItem();
+                String path = item.getUri().getPath();
+                if (ForecastPayload.FULL_PATH.equals(path)
+                        || ForecastPayload.DELTA_PATH.equals(path)) {
+                    changed |= store.update(item.getData());
+                }
             }
             else if (event.getType() == DataEvent.TYPE_DELETED) {
                 // DataItem deleted
             }
 
         }
-    }
-
-
-
 
+        // Pass today's weather on to the face; it can read any other day from the store
+        WeatherPayload today = store.getToday();
+        if (changed && today != null) {
+            Intent send_weather = new Intent(ACTION_WEATHER_CHANGED);
+            send_weather.putExtra(EXTRA_WEATHER_PAYLOAD, today.encode());
+            sendBroadcast(send_weather);
+        }
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package throwrocks.digital_watchface;
+
+import android.content.Context;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.shared.ForecastPayload;
+import com.example.android.sunshine.shared.WeatherPayload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The forecast the phone has sent, kept on the watch so the face can show any day of it without
+ * asking the data layer again.
+ *
+ * The phone sends the full forecast now and then and the changes since it in between, see
+ * {@link ForecastPayload}.  Either can arrive first, so a delta for a full forecast that hasn't
+ * arrived yet is kept until it does.  A delta older than the full forecast is never applied to
+ * it, and is dropped once a newer full forecast arrives.  Both are saved to files as they arrive, so the forecast is
+ * there from the moment the face starts.
+ */
+final class WatchForecastStore {
+
+    private static final String LOG_TAG = WatchForecastStore.class.getSimpleName();
+
+    private static final String FULL_FILE = "forecast_full";
+    private static final String DELTA_FILE = "forecast_delta";
+
+    private static WatchForecastStore sInstance;
+
+    private final Context mContext;
+    private ForecastPayload mFull;
+    private ForecastPayload mDelta;
+    // mFull with mDelta applied, if it applies
+    private ForecastPayload mForecast;
+
+    private WatchForecastStore(Context context) {
+        mContext = context;
+        mFull = read(FULL_FILE);
+        mDelta = read(DELTA_FILE);
+        merge();
+    }
+
+    static synchronized WatchForecastStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WatchForecastStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Forgets the forecast and deletes its files, for tests.
+     */
+    static synchronized void clear(Context context) {
+        context.deleteFile(FULL_FILE);
+        context.deleteFile(DELTA_FILE);
+        sInstance = null;
+    }
+
+    /**
+     * Forgets the forecast but not its files, as a new process would, for tests.
+     */
+    static synchronized void clearInstance() {
+        sInstance = null;
+    }
+
+    /**
+     * @param bytes a data item's bytes from {@link ForecastPayload#FULL_PATH} or
+     *              {@link ForecastPayload#DELTA_PATH}
+     * @return whether the forecast has changed
+     */
+    synchronized boolean update(byte[] bytes) {
+        ForecastPayload payload;
+        try {
+            payload = ForecastPayload.decode(bytes);
+        } catch (IllegalArgumentException e) {
+            // From a phone app older or newer than this face
+            Log.w(LOG_TAG, "Ignoring forecast: " + e.getMessage());
+            return false;
+        }
+        if (payload.isFull()) {
+            mFull = payload;
+            write(FULL_FILE, bytes);
+            if (mDelta != null && mDelta.getTimeMillis() < mFull.getTimeMillis()) {
+                // Made before this forecast was, so whatever it changed this already has
+                mDelta = null;
+                mContext.deleteFile(DELTA_FILE);
+            }
+        } else {
+            mDelta = payload;
+            write(DELTA_FILE, bytes);
+        }
+        ForecastPayload forecast = mForecast;
+        merge();
+        return mForecast != null && !mForecast.equals(forecast);
+    }
+
+    private void merge() {
+        if (mFull == null) {
+            mForecast = null;
+        } else if (mDelta != null && mDelta.getSequence() == mFull.getSequence()
+                && mDelta.getTimeMillis() >= mFull.getTimeMillis()) {
+            mForecast = mFull.apply(mDelta);
+        } else {
+            // No changes yet, changes to a full forecast still on its way, or ones made before
+            // this full forecast was
+            mForecast = mFull;
+        }
+    }
+
+    /**
+     * @return the whole forecast, or null if the phone hasn't sent one
+     */
+    synchronized ForecastPayload getForecast() {
+        return mForecast;
+    }
+
+    /**
+     * @return today's weather, or that of the first day after it the forecast has, or null if
+     * there's no forecast for today on
+     */
+    synchronized WeatherPayload getToday() {
+        if (mForecast == null) {
+            return null;
+        }
+        Time time = new Time();
+        time.setToNow();
+        int row = mForecast.findDay(Time.getJulianDay(time.toMillis(false), time.gmtoff));
+        if (row == -1) {
+            return null;
+        }
+        return new WeatherPayload(mForecast.getHigh(row), mForecast.getLow(row),
+                mForecast.getWeatherId(row), mForecast.getTimeMillis(), mForecast.isMetric());
+    }
+
+    private ForecastPayload read(String name) {
+        FileInputStream in = null;
+        try {
+            in = mContext.openFileInput(name);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return ForecastPayload.decode(bytes.toByteArray());
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Couldn't read " + name, e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void write(String name, byte[] bytes) {
+        FileOutputStream out = null;
+        try {
+            out = mContext.openFileOutput(name, Context.MODE_PRIVATE);
+            out.write(bytes);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't save " + name, e);
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to be done
+            }
+        }
+    }
+}
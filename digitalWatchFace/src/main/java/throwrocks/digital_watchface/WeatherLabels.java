@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package throwrocks.digital_watchface;
+
+import android.content.res.Resources;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+/**
+ * The strings the face shows for the weather the phone sends: a temperature in whole degrees
+ * and the description the phone app gives the condition, looked up by its
+ * {@link WeatherConditions#getLabelCode label code}.  Each is formatted the first time it's
+ * needed and kept, so a weather update normally allocates no strings at all.
+ */
+class WeatherLabels {
+
+    // Temperatures outside this range are formatted each time
+    private static final int MIN_CACHED_DEGREES = -100;
+    private static final int MAX_CACHED_DEGREES = 150;
+
+    // Each WeatherConditions label code and its string, as the phone app has them
+    private static final int[] LABEL_STRINGS = {
+            200, R.string.condition_2xx,
+            300, R.string.condition_3xx,
+            500, R.string.condition_500,
+            501, R.string.condition_501,
+            502, R.string.condition_502,
+            503, R.string.condition_503,
+            504, R.string.condition_504,
+            511, R.string.condition_511,
+            520, R.string.condition_520,
+            531, R.string.condition_531,
+            600, R.string.condition_600,
+            601, R.string.condition_601,
+            602, R.string.condition_602,
+            611, R.string.condition_611,
+            612, R.string.condition_612,
+            615, R.string.condition_615,
+            616, R.string.condition_616,
+            620, R.string.condition_620,
+            621, R.string.condition_621,
+            622, R.string.condition_622,
+            701, R.string.condition_701,
+            711, R.string.condition_711,
+            721, R.string.condition_721,
+            731, R.string.condition_731,
+            741, R.string.condition_741,
+            751, R.string.condition_751,
+            761, R.string.condition_761,
+            762, R.string.condition_762,
+            771, R.string.condition_771,
+            781, R.string.condition_781,
+            800, R.string.condition_800,
+            801, R.string.condition_801,
+            802, R.string.condition_802,
+            803, R.string.condition_803,
+            804, R.string.condition_804,
+            900, R.string.condition_900,
+            901, R.string.condition_901,
+            902, R.string.condition_902,
+            903, R.string.condition_903,
+            904, R.string.condition_904,
+            905, R.string.condition_905,
+            906, R.string.condition_906,
+            951, R.string.condition_951,
+            952, R.string.condition_952,
+            953, R.string.condition_953,
+            954, R.string.condition_954,
+            955, R.string.condition_955,
+            956, R.string.condition_956,
+            957, R.string.condition_957,
+            958, R.string.condition_958,
+            959, R.string.condition_959,
+            960, R.string.condition_960,
+            961, R.string.condition_961,
+            962, R.string.condition_962
+    };
+
+    // LABEL_STRINGS spread out to be indexed by label code
+    private static final int[] CONDITION_LABELS = new int[WeatherConditions.MAX_ID + 1];
+
+    static {
+        for (int i = 0; i < LABEL_STRINGS.length; i += 2) {
+            CONDITION_LABELS[LABEL_STRINGS[i]] = LABEL_STRINGS[i + 1];
+        }
+    }
+
+    private final Resources mResources;
+    private final String mTemperatureFormat;
+    private final String[] mTemperatures =
+            new String[MAX_CACHED_DEGREES - MIN_CACHED_DEGREES + 1];
+    // Indexed by weather id
+    private final String[] mDescriptions = new String[WeatherConditions.MAX_ID + 1];
+
+    WeatherLabels(Resources resources) {
+        mResources = resources;
+        mTemperatureFormat = resources.getString(R.string.format_temperature);
+    }
+
+    /**
+     * @param degrees whole degrees in the user's units
+     */
+    String getTemperature(int degrees) {
+        if (degrees < MIN_CACHED_DEGREES || degrees > MAX_CACHED_DEGREES) {
+            return String.format(mTemperatureFormat, degrees);
+        }
+        int index = degrees - MIN_CACHED_DEGREES;
+        String temperature = mTemperatures[index];
+        if (temperature == null) {
+            temperature = String.format(mTemperatureFormat, degrees);
+            mTemperatures[index] = temperature;
+        }
+        return temperature;
+    }
+
+    /**
+     * @return the phone app's description of the condition, or "Unknown" and the id for an id
+     * it has none for
+     */
+    String getDescription(int weatherId) {
+        if (weatherId < 0 || weatherId > WeatherConditions.MAX_ID) {
+            return mResources.getString(R.string.condition_unknown, weatherId);
+        }
+        String description = mDescriptions[weatherId];
+        if (description == null) {
+            int labelCode = WeatherConditions.getLabelCode(weatherId);
+            description = labelCode == WeatherConditions.NO_LABEL
+                    ? mResources.getString(R.string.condition_unknown, weatherId)
+                    : mResources.getString(CONDITION_LABELS[labelCode]);
+            mDescriptions[weatherId] = description;
+        }
+        return description;
+    }
+}
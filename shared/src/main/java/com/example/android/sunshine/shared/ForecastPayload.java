@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The forecast the phone keeps the watch up to date with: a window of days, each with its
+ * condition id and its high and low, keyed by julian day.
+ *
+ * A payload is either full, holding every day in the window, or a delta, holding only the days
+ * that differ from a full one, see {@link #diff}.  Each full payload has a sequence number and
+ * a delta names the sequence of the full payload it applies to, so a watch that hasn't got that
+ * one yet can tell not to {@link #apply} it.  Since the data layer only keeps the latest item at
+ * a path, a delta always holds everything that has changed since its full payload, not since
+ * the delta before it.
+ *
+ * The encoding is big-endian:
+ * <pre>
+ *   byte   version, {@link #VERSION}
+ *   byte   type, full or delta
+ *   byte   flags, {@link #FLAG_METRIC} if the user wants Celsius
+ *   int    sequence; of the payload if full, of the one applied to if a delta
+ *   long   time sent, in milliseconds since the epoch
+ *   int    julian day the window starts on
+ *   byte   days in the window, at most {@link #MAX_DAYS}
+ *   byte   days that follow
+ *   then for each day, in date order
+ *   byte   days since the window started
+ *   short  weather id; in a delta, -1 for a day the window no longer has
+ *   short  high, in hundredths of a degree Celsius
+ *   short  low, in hundredths of a degree Celsius
+ * </pre>
+ * A decoder rejects any version but its own, so a change of layout has to come with a new one.
+ */
+public final class ForecastPayload {
+
+    /** The path of the data item the phone puts the full forecast in. */
+    public static final String FULL_PATH = "/sunshine_forecast";
+
+    /** The path of the data item the phone puts the changes since the full forecast in. */
+    public static final String DELTA_PATH = "/sunshine_forecast_delta";
+
+    public static final int VERSION = 2;
+
+    /** The most days a window can hold; later days are left out. */
+    public static final int MAX_DAYS = 64;
+
+    public static final int FLAG_METRIC = 1;
+
+    private static final int TYPE_FULL = 0;
+    private static final int TYPE_DELTA = 1;
+
+    private static final int HEADER_SIZE = 21;
+    private static final int DAY_SIZE = 7;
+
+    // The weather id of a day a delta takes out of the window
+    private static final int REMOVED = -1;
+
+    private final int mType;
+    private final int mSequence;
+    private final boolean mMetric;
+    private final long mTimeMillis;
+    private final int mFirstDay;
+    private final int mWindowDays;
+    private final int[] mDays;
+    private final int[] mWeatherIds;
+    private final short[] mHighs;
+    private final short[] mLows;
+
+    private ForecastPayload(int type, int sequence, boolean metric, long timeMillis,
+                            int firstDay, int windowDays, int[] days, int[] weatherIds,
+                            short[] highs, short[] lows) {
+        mType = type;
+        mSequence = sequence;
+        mMetric = metric;
+        mTimeMillis = timeMillis;
+        mFirstDay = firstDay;
+        mWindowDays = windowDays;
+        mDays = days;
+        mWeatherIds = weatherIds;
+        mHighs = highs;
+        mLows = lows;
+    }
+
+    /**
+     * @param days       julian days, in date order
+     * @param highs      and lows in degrees Celsius, which is how the forecast is stored
+     * @throws IllegalArgumentException if the days are out of order, or a temperature or a
+     *                                  weather id doesn't fit
+     */
+    public static ForecastPayload full(int sequence, long timeMillis, boolean metric, int[] days,
+                                       int[] weatherIds, double[] highs, double[] lows) {
+        int size = days.length;
+        if (weatherIds.length != size || highs.length != size || lows.length != size) {
+            throw new IllegalArgumentException("Every day needs an id, a high and a low");
+        }
+        int firstDay = size > 0 ? days[0] : 0;
+        while (size > 0 && days[size - 1] - firstDay >= MAX_DAYS) {
+            size--;
+        }
+        short[] fixedHighs = new short[size];
+        short[] fixedLows = new short[size];
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && days[i] <= days[i - 1]) {
+                throw new IllegalArgumentException("Days out of order: " + days[i - 1]
+                        + " then " + days[i]);
+            }
+            if (weatherIds[i] < 0 || weatherIds[i] > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Weather id out of range: " + weatherIds[i]);
+            }
+            fixedHighs[i] = WeatherPayload.toFixedPoint(highs[i]);
+            fixedLows[i] = WeatherPayload.toFixedPoint(lows[i]);
+        }
+        int windowDays = size > 0 ? days[size - 1] - firstDay + 1 : 0;
+        return new ForecastPayload(TYPE_FULL, sequence, metric, timeMillis, firstDay, windowDays,
+                Arrays.copyOf(days, size), Arrays.copyOf(weatherIds, size), fixedHighs,
+                fixedLows);
+    }
+
+    /**
+     * @return a delta that turns base into current when applied to it: current's window and
+     * settings, and the days of that window that base doesn't have or has differently
+     */
+    public static ForecastPayload diff(ForecastPayload base, ForecastPayload current) {
+        requireFull(base);
+        requireFull(current);
+        int capacity = current.mDays.length + base.mDays.length;
+        int[] days = new int[capacity];
+        int[] weatherIds = new int[capacity];
+        short[] highs = new short[capacity];
+        short[] lows = new short[capacity];
+        int size = 0;
+        int b = 0;
+        int c = 0;
+        while (b < base.mDays.length || c < current.mDays.length) {
+            int baseDay = b < base.mDays.length ? base.mDays[b] : Integer.MAX_VALUE;
+            int currentDay = c < current.mDays.length ? current.mDays[c] : Integer.MAX_VALUE;
+            if (currentDay < baseDay) {
+                // A day base doesn't have
+                copyDay(current, c, days, weatherIds, highs, lows, size++);
+                c++;
+            } else if (baseDay < currentDay) {
+                // A day current doesn't have; the window dropping it says as much already
+                if (current.inWindow(baseDay)) {
+                    days[size] = baseDay;
+                    weatherIds[size] = REMOVED;
+                    size++;
+                }
+                b++;
+            } else {
+                if (base.mWeatherIds[b] != current.mWeatherIds[c]
+                        || base.mHighs[b] != current.mHighs[c]
+                        || base.mLows[b] != current.mLows[c]) {
+                    copyDay(current, c, days, weatherIds, highs, lows, size++);
+                }
+                b++;
+                c++;
+            }
+        }
+        return new ForecastPayload(TYPE_DELTA, base.mSequence, current.mMetric,
+                current.mTimeMillis, current.mFirstDay, current.mWindowDays,
+                Arrays.copyOf(days, size), Arrays.copyOf(weatherIds, size),
+                Arrays.copyOf(highs, size), Arrays.copyOf(lows, size));
+    }
+
+    /**
+     * @return this full payload with a delta's changes made to it, under the same sequence
+     * @throws IllegalArgumentException if the delta isn't one for this payload
+     */
+    public ForecastPayload apply(ForecastPayload delta) {
+        requireFull(this);
+        if (delta.mType != TYPE_DELTA) {
+            throw new IllegalArgumentException("Not a delta");
+        }
+        if (delta.mSequence != mSequence) {
+            throw new IllegalArgumentException("Delta for " + delta.mSequence
+                    + " applied to " + mSequence);
+        }
+        int capacity = mDays.length + delta.mDays.length;
+        int[] days = new int[capacity];
+        int[] weatherIds = new int[capacity];
+        short[] highs = new short[capacity];
+        short[] lows = new short[capacity];
+        int size = 0;
+        int b = 0;
+        int d = 0;
+        while (b < mDays.length || d < delta.mDays.length) {
+            int baseDay = b < mDays.length ? mDays[b] : Integer.MAX_VALUE;
+            int deltaDay = d < delta.mDays.length ? delta.mDays[d] : Integer.MAX_VALUE;
+            if (baseDay < deltaDay) {
+                if (delta.inWindow(baseDay)) {
+                    copyDay(this, b, days, weatherIds, highs, lows, size++);
+                }
+                b++;
+            } else {
+                if (delta.mWeatherIds[d] != REMOVED) {
+                    copyDay(delta, d, days, weatherIds, highs, lows, size++);
+                }
+                if (baseDay == deltaDay) {
+                    b++;
+                }
+                d++;
+            }
+        }
+        return new ForecastPayload(TYPE_FULL, mSequence, delta.mMetric, delta.mTimeMillis,
+                delta.mFirstDay, delta.mWindowDays, Arrays.copyOf(days, size),
+                Arrays.copyOf(weatherIds, size), Arrays.copyOf(highs, size),
+                Arrays.copyOf(lows, size));
+    }
+
+    private static void requireFull(ForecastPayload payload) {
+        if (payload.mType != TYPE_FULL) {
+            throw new IllegalArgumentException("Not a full forecast");
+        }
+    }
+
+    private static void copyDay(ForecastPayload from, int index, int[] days, int[] weatherIds,
+                                short[] highs, short[] lows, int to) {
+        days[to] = from.mDays[index];
+        weatherIds[to] = from.mWeatherIds[index];
+        highs[to] = from.mHighs[index];
+        lows[to] = from.mLows[index];
+    }
+
+    private boolean inWindow(int day) {
+        return day >= mFirstDay && day < mFirstDay + mWindowDays;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes aren't a payload of this version
+     */
+    public static ForecastPayload decode(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Not a forecast payload: "
+                    + (bytes == null ? "null" : bytes.length + " bytes"));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown forecast payload version: " + version);
+        }
+        int type = buffer.get();
+        if (type != TYPE_FULL && type != TYPE_DELTA) {
+            throw new IllegalArgumentException("Unknown forecast payload type: " + type);
+        }
+        int flags = buffer.get();
+        int sequence = buffer.getInt();
+        long timeMillis = buffer.getLong();
+        int firstDay = buffer.getInt();
+        int windowDays = buffer.get() & 0xff;
+        int size = buffer.get() & 0xff;
+        if (bytes.length != HEADER_SIZE + size * DAY_SIZE) {
+            throw new IllegalArgumentException(size + " days in " + bytes.length + " bytes");
+        }
+        int[] days = new int[size];
+        int[] weatherIds = new int[size];
+        short[] highs = new short[size];
+        short[] lows = new short[size];
+        for (int i = 0; i < size; i++) {
+            days[i] = firstDay + (buffer.get() & 0xff);
+            weatherIds[i] = buffer.getShort();
+            highs[i] = buffer.getShort();
+            lows[i] = buffer.getShort();
+        }
+        return new ForecastPayload(type, sequence, (flags & FLAG_METRIC) != 0, timeMillis,
+                firstDay, windowDays, days, weatherIds, highs, lows);
+    }
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + mDays.length * DAY_SIZE)
+                .put((byte) VERSION)
+                .put((byte) mType)
+                .put((byte) (mMetric ? FLAG_METRIC : 0))
+                .putInt(mSequence)
+                .putLong(mTimeMillis)
+                .putInt(mFirstDay)
+                .put((byte) mWindowDays)
+                .put((byte) mDays.length);
+        for (int i = 0; i < mDays.length; i++) {
+            buffer.put((byte) (mDays[i] - mFirstDay))
+                    .putShort((short) mWeatherIds[i])
+                    .putShort(mHighs[i])
+                    .putShort(mLows[i]);
+        }
+        return buffer.array();
+    }
+
+    public boolean isFull() {
+        return mType == TYPE_FULL;
+    }
+
+    /**
+     * @return the payload's sequence if it's full, or that of the one it applies to if a delta
+     */
+    public int getSequence() {
+        return mSequence;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    /**
+     * @return the number of days this holds; for a delta, the number that changed
+     */
+    public int size() {
+        return mDays.length;
+    }
+
+    /**
+     * @return the julian day of a row
+     */
+    public int getDay(int row) {
+        return mDays[row];
+    }
+
+    /**
+     * @return the row of the first day on or after a julian day, or -1 if there isn't one
+     */
+    public int findDay(int julianDay) {
+        int row = Arrays.binarySearch(mDays, julianDay);
+        if (row < 0) {
+            row = -row - 1;
+        }
+        return row < mDays.length ? row : -1;
+    }
+
+    public int getWeatherId(int row) {
+        return mWeatherIds[row];
+    }
+
+    /**
+     * @return the high in degrees Celsius, to a hundredth of a degree
+     */
+    public double getHigh(int row) {
+        return WeatherPayload.fromFixedPoint(mHighs[row]);
+    }
+
+    /**
+     * @return the low in degrees Celsius, to a hundredth of a degree
+     */
+    public double getLow(int row) {
+        return WeatherPayload.fromFixedPoint(mLows[row]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastPayload)) {
+            return false;
+        }
+        ForecastPayload other = (ForecastPayload) o;
+        return mType == other.mType
+                && mSequence == other.mSequence
+                && mMetric == other.mMetric
+                && mTimeMillis == other.mTimeMillis
+                && mFirstDay == other.mFirstDay
+                && mWindowDays == other.mWindowDays
+                && Arrays.equals(mDays, other.mDays)
+                && Arrays.equals(mWeatherIds, other.mWeatherIds)
+                && Arrays.equals(mHighs, other.mHighs)
+                && Arrays.equals(mLows, other.mLows);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mType;
+        result = 31 * result + mSequence;
+        result = 31 * result + (mMetric ? 1 : 0);
+        result = 31 * result + (int) (mTimeMillis ^ (mTimeMillis >>> 32));
+        result = 31 * result + mFirstDay;
+        result = 31 * result + mWindowDays;
+        result = 31 * result + Arrays.hashCode(mDays);
+        result = 31 * result + Arrays.hashCode(mWeatherIds);
+        result = 31 * result + Arrays.hashCode(mHighs);
+        result = 31 * result + Arrays.hashCode(mLows);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ForecastPayload{" + (isFull() ? "full" : "delta") + ", sequence=" + mSequence
+                + ", days " + mFirstDay + " to " + (mFirstDay + mWindowDays - 1) + ", "
+                + mDays.length + (isFull() ? " days" : " changed") + ", metric=" + mMetric + "}";
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+/**
+ * What the phone app and the watch face show for each OpenWeatherMap condition id, looked up in
+ * tables built once over the whole id space rather than worked out with a chain of range checks
+ * on every call.
+ *
+ * Resources belong to the apps, so the lookups here return descriptors: a condition's
+ * {@link #getKind kind}, which each app maps to its own icon and art; the name of its art in an
+ * art pack; its photo; and the code of the label that describes it.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    /** The highest id the tables cover; anything outside 0 to this is unknown. */
+    public static final int MAX_ID = 999;
+
+    // Kinds of condition, each with an icon and an art of its own
+    public static final int KIND_UNKNOWN = 0;
+    public static final int KIND_STORM = 1;
+    public static final int KIND_LIGHT_RAIN = 2;
+    public static final int KIND_RAIN = 3;
+    public static final int KIND_SNOW = 4;
+    public static final int KIND_FOG = 5;
+    public static final int KIND_CLEAR = 6;
+    public static final int KIND_LIGHT_CLOUDS = 7;
+    public static final int KIND_CLOUDS = 8;
+    /** For sizing arrays indexed by kind. */
+    public static final int KIND_COUNT = 9;
+
+    /** The label code of an id no label describes. */
+    public static final int NO_LABEL = -1;
+
+    // Indexed by kind
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final int IMAGE_NONE = 0;
+    private static final int IMAGE_THUNDERSTORM = 1;
+    private static final int IMAGE_DRIZZLE = 2;
+    private static final int IMAGE_RAIN = 3;
+    private static final int IMAGE_SNOW = 4;
+    private static final int IMAGE_FOG = 5;
+    private static final int IMAGE_DUST = 6;
+    private static final int IMAGE_CLEAR = 7;
+    private static final int IMAGE_LIGHT_CLOUDS = 8;
+    private static final int IMAGE_CLOUDS = 9;
+
+    // Indexed by the IMAGE_ constants
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // The ids that have a label of their own; all of 2xx shares 200's and all of 3xx 300's
+    private static final int[] LABELLED_IDS = {
+            200, 300,
+            500, 501, 502, 503, 504, 511, 520, 531,
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            800, 801, 802, 803, 804,
+            900, 901, 902, 903, 904, 905, 906,
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962
+    };
+
+    private static final byte[] sKinds = new byte[MAX_ID + 1];
+    private static final byte[] sImages = new byte[MAX_ID + 1];
+    private static final short[] sLabels = new short[MAX_ID + 1];
+
+    static {
+        // Earlier ranges win where they overlap, so 761 is fog although it's listed with 781
+        fill(200, 232, KIND_STORM, IMAGE_THUNDERSTORM);
+        fill(300, 321, KIND_LIGHT_RAIN, IMAGE_DRIZZLE);
+        fill(500, 504, KIND_RAIN, IMAGE_RAIN);
+        fill(511, 511, KIND_SNOW, IMAGE_SNOW);
+        fill(520, 531, KIND_RAIN, IMAGE_RAIN);
+        fill(600, 622, KIND_SNOW, IMAGE_SNOW);
+        fill(701, 761, KIND_FOG, IMAGE_FOG);
+        fill(761, 761, KIND_STORM, IMAGE_DUST);
+        fill(781, 781, KIND_STORM, IMAGE_DUST);
+        fill(800, 800, KIND_CLEAR, IMAGE_CLEAR);
+        fill(801, 801, KIND_LIGHT_CLOUDS, IMAGE_LIGHT_CLOUDS);
+        fill(802, 804, KIND_CLOUDS, IMAGE_CLOUDS);
+
+        for (int id = 0; id <= MAX_ID; id++) {
+            sLabels[id] = NO_LABEL;
+        }
+        for (int id : LABELLED_IDS) {
+            sLabels[id] = (short) id;
+        }
+        for (int id = 201; id <= 232; id++) {
+            sLabels[id] = 200;
+        }
+        for (int id = 301; id <= 321; id++) {
+            sLabels[id] = 300;
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void fill(int from, int to, int kind, int image) {
+        for (int id = from; id <= to; id++) {
+            if (sKinds[id] == KIND_UNKNOWN) {
+                sKinds[id] = (byte) kind;
+                sImages[id] = (byte) image;
+            }
+        }
+    }
+
+    /**
+     * @return the kind of condition, one of the KIND_ constants; {@link #KIND_UNKNOWN} for an id
+     * with no icon
+     */
+    public static int getKind(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_ID) {
+            return KIND_UNKNOWN;
+        }
+        return sKinds[weatherId];
+    }
+
+    /**
+     * @return the condition's art's name in an art pack, which is what the pack's url format
+     * takes; null for an id with no art
+     */
+    public static String getArtName(int weatherId) {
+        return ART_NAMES[getKind(weatherId)];
+    }
+
+    /**
+     * @return a url to a photo of the condition, or null if there isn't one
+     */
+    public static String getImageUrl(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_ID) {
+            return null;
+        }
+        return IMAGE_URLS[sImages[weatherId]];
+    }
+
+    /**
+     * @return the id whose label describes the condition: the id itself, 200 for any 2xx
+     * thunderstorm, 300 for any 3xx drizzle, or {@link #NO_LABEL}
+     */
+    public static int getLabelCode(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_ID) {
+            return NO_LABEL;
+        }
+        return sLabels[weatherId];
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A day's weather as the watch face is given it: the raw high and low, the condition id, when
+ * the phone sent it and the units the user wants, in a fixed-size binary form rather than as
+ * strings formatted on the phone.  The face formats it itself.  The phone sends the days as a
+ * {@link ForecastPayload}, and the watch passes today's on to the face as one of these.
+ *
+ * The encoding is big-endian:
+ * <pre>
+ *   byte   version, {@link #VERSION}
+ *   byte   flags, {@link #FLAG_METRIC} if the user wants Celsius
+ *   short  weather id
+ *   short  high, in hundredths of a degree Celsius
+ *   short  low, in hundredths of a degree Celsius
+ *   long   time sent, in milliseconds since the epoch
+ * </pre>
+ * A decoder rejects any version but its own, so a change of layout has to come with a new one.
+ */
+public final class WeatherPayload {
+
+    public static final int VERSION = 2;
+
+    /** The size of an encoded payload, in bytes. */
+    public static final int SIZE = 16;
+
+    public static final int FLAG_METRIC = 1;
+
+    // Temperatures are sent as whole numbers of this fraction of a degree.  The forecast gives
+    // them to a hundredth, so they arrive as the phone has them and round to the same whole
+    // degrees; rounding to tenths on the way would round them twice, so 2.48 would show as 3
+    private static final int TEMPERATURE_SCALE = 100;
+
+    private final short mHigh;
+    private final short mLow;
+    private final int mWeatherId;
+    private final long mTimeMillis;
+    private final boolean mMetric;
+
+    /**
+     * @param high and low in degrees Celsius, which is how the forecast is stored
+     * @throws IllegalArgumentException if a temperature or the weather id doesn't fit
+     */
+    public WeatherPayload(double high, double low, int weatherId, long timeMillis,
+                          boolean metric) {
+        this(toFixedPoint(high), toFixedPoint(low), weatherId, timeMillis, metric);
+        if (weatherId < Short.MIN_VALUE || weatherId > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Weather id out of range: " + weatherId);
+        }
+    }
+
+    private WeatherPayload(short high, short low, int weatherId, long timeMillis,
+                           boolean metric) {
+        mHigh = high;
+        mLow = low;
+        mWeatherId = weatherId;
+        mTimeMillis = timeMillis;
+        mMetric = metric;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the temperature doesn't fit
+     */
+    static short toFixedPoint(double temperature) {
+        long scaled = Math.round(temperature * TEMPERATURE_SCALE);
+        if (scaled < Short.MIN_VALUE || scaled > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Temperature out of range: " + temperature);
+        }
+        return (short) scaled;
+    }
+
+    static double fromFixedPoint(short temperature) {
+        return (double) temperature / TEMPERATURE_SCALE;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes aren't a payload of this version
+     */
+    public static WeatherPayload decode(byte[] bytes) {
+        if (bytes == null || bytes.length != SIZE) {
+            throw new IllegalArgumentException("Not a weather payload: "
+                    + (bytes == null ? "null" : bytes.length + " bytes"));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown weather payload version: " + version);
+        }
+        int flags = buffer.get();
+        int weatherId = buffer.getShort();
+        short high = buffer.getShort();
+        short low = buffer.getShort();
+        long timeMillis = buffer.getLong();
+        return new WeatherPayload(high, low, weatherId, timeMillis,
+                (flags & FLAG_METRIC) != 0);
+    }
+
+    public byte[] encode() {
+        return ByteBuffer.allocate(SIZE)
+                .put((byte) VERSION)
+                .put((byte) (mMetric ? FLAG_METRIC : 0))
+                .putShort((short) mWeatherId)
+                .putShort(mHigh)
+                .putShort(mLow)
+                .putLong(mTimeMillis)
+                .array();
+    }
+
+    /**
+     * @return the high in degrees Celsius, to a hundredth of a degree
+     */
+    public double getHigh() {
+        return fromFixedPoint(mHigh);
+    }
+
+    /**
+     * @return the low in degrees Celsius, to a hundredth of a degree
+     */
+    public double getLow() {
+        return fromFixedPoint(mLow);
+    }
+
+    public int getWeatherId() {
+        return mWeatherId;
+    }
+
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the high in whole degrees of the user's units, rounded as the phone rounds it
+     */
+    public int getDisplayHigh() {
+        return toDisplayDegrees(getHigh(), mMetric);
+    }
+
+    /**
+     * @return the low in whole degrees of the user's units, rounded as the phone rounds it
+     */
+    public int getDisplayLow() {
+        return toDisplayDegrees(getLow(), mMetric);
+    }
+
+    /**
+     * Converts to Fahrenheit if need be and rounds half away from zero, as formatting with
+     * "%1.0f" does.
+     */
+    public static int toDisplayDegrees(double celsius, boolean metric) {
+        double degrees = metric ? celsius : celsius * 1.8 + 32;
+        double rounded = Math.floor(Math.abs(degrees) + 0.5);
+        return (int) (degrees < 0 ? -rounded : rounded);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WeatherPayload)) {
+            return false;
+        }
+        WeatherPayload other = (WeatherPayload) o;
+        return mHigh == other.mHigh
+                && mLow == other.mLow
+                && mWeatherId == other.mWeatherId
+                && mTimeMillis == other.mTimeMillis
+                && mMetric == other.mMetric;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mHigh;
+        result = 31 * result + mLow;
+        result = 31 * result + mWeatherId;
+        result = 31 * result + (int) (mTimeMillis ^ (mTimeMillis >>> 32));
+        result = 31 * result + (mMetric ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherPayload{high=" + getHigh() + ", low=" + getLow() + ", weatherId="
+                + mWeatherId + ", timeMillis=" + mTimeMillis + ", metric=" + mMetric + "}";
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import junit.framework.TestCase;
+
+public class ForecastPayloadTest extends TestCase {
+
+    private static final long TIME = 1457308800000L;
+    private static final int TODAY = 2457454;
+    private static final int DAYS = 14;
+
+    public void testFullRoundTrip() {
+        ForecastPayload full = forecast(1, TODAY, DAYS, 0);
+        byte[] bytes = full.encode();
+        assertEquals(21 + DAYS * 7, bytes.length);
+
+        ForecastPayload decoded = ForecastPayload.decode(bytes);
+        assertEquals(full, decoded);
+        assertTrue(decoded.isFull());
+        assertEquals(1, decoded.getSequence());
+        assertEquals(DAYS, decoded.size());
+        for (int row = 0; row < DAYS; row++) {
+            assertEquals(TODAY + row, decoded.getDay(row));
+            assertEquals(full.getWeatherId(row), decoded.getWeatherId(row));
+            assertEquals(full.getHigh(row), decoded.getHigh(row), 0.0001);
+            assertEquals(full.getLow(row), decoded.getLow(row), 0.0001);
+        }
+    }
+
+    public void testUnchangedForecastMakesEmptyDelta() {
+        ForecastPayload base = forecast(3, TODAY, DAYS, 0);
+        ForecastPayload delta = ForecastPayload.diff(base, forecast(4, TODAY, DAYS, 0));
+        assertFalse(delta.isFull());
+        assertEquals(3, delta.getSequence());
+        assertEquals(0, delta.size());
+        assertEquals(base, base.apply(delta));
+    }
+
+    /*
+        A day later: one day has dropped off the front and one been added at the end, and a
+        couple of days in between have been revised.
+     */
+    public void testDeltaHoldsOnlyChangedDays() {
+        ForecastPayload base = forecast(5, TODAY, DAYS, 0);
+        ForecastPayload current = revise(forecast(6, TODAY + 1, DAYS, 0), TODAY + 3, TODAY + 8);
+
+        ForecastPayload delta = ForecastPayload.diff(base, current);
+        assertEquals(3, delta.size());
+        assertEquals(TODAY + 3, delta.getDay(0));
+        assertEquals(TODAY + 8, delta.getDay(1));
+        assertEquals(TODAY + DAYS, delta.getDay(2));
+
+        ForecastPayload decoded = ForecastPayload.decode(delta.encode());
+        assertEquals(delta, decoded);
+        assertSameDays(current, base.apply(decoded));
+        assertTrue(delta.encode().length < current.encode().length / 2);
+    }
+
+    public void testDeltaRemovesMissingDay() {
+        ForecastPayload base = forecast(1, TODAY, 5, 0);
+        int[] days = {TODAY, TODAY + 1, TODAY + 3, TODAY + 4};
+        ForecastPayload current = ForecastPayload.full(2, TIME, true, days,
+                new int[]{800, 801, 803, 804}, new double[]{20, 21, 23, 24},
+                new double[]{10, 11, 13, 14});
+
+        ForecastPayload applied = base.apply(
+                ForecastPayload.decode(ForecastPayload.diff(base, current).encode()));
+        assertSameDays(current, applied);
+        assertEquals(2, applied.findDay(TODAY + 2));
+        assertEquals(TODAY + 3, applied.getDay(applied.findDay(TODAY + 2)));
+    }
+
+    public void testDeltaForOtherSequenceRejected() {
+        ForecastPayload base = forecast(1, TODAY, DAYS, 0);
+        ForecastPayload delta = ForecastPayload.diff(base, forecast(2, TODAY, DAYS, 1));
+        try {
+            forecast(2, TODAY, DAYS, 0).apply(delta);
+            fail("Applied a delta for sequence 1 to sequence 2");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testUnitsTravelWithDelta() {
+        ForecastPayload base = forecast(1, TODAY, DAYS, 0);
+        int[] days = days(TODAY, DAYS);
+        ForecastPayload imperial = ForecastPayload.full(2, TIME + 1, false, days, ids(days),
+                temperatures(days, 0), temperatures(days, -10));
+        ForecastPayload applied = base.apply(ForecastPayload.diff(base, imperial));
+        assertFalse(applied.isMetric());
+        assertEquals(TIME + 1, applied.getTimeMillis());
+    }
+
+    public void testWindowCappedAtMaxDays() {
+        int[] days = days(TODAY, ForecastPayload.MAX_DAYS + 5);
+        ForecastPayload full = ForecastPayload.full(1, TIME, true, days, ids(days),
+                temperatures(days, 0), temperatures(days, -10));
+        assertEquals(ForecastPayload.MAX_DAYS, full.size());
+        assertEquals(full, ForecastPayload.decode(full.encode()));
+    }
+
+    public void testFindDay() {
+        ForecastPayload full = forecast(1, TODAY, DAYS, 0);
+        assertEquals(0, full.findDay(TODAY - 3));
+        assertEquals(4, full.findDay(TODAY + 4));
+        assertEquals(-1, full.findDay(TODAY + DAYS));
+    }
+
+    public void testBadPayloadsRejected() {
+        byte[] bytes = forecast(1, TODAY, DAYS, 0).encode();
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+        assertRejected(new byte[3]);
+        assertRejected(null);
+        bytes[0] = ForecastPayload.VERSION + 1;
+        assertRejected(bytes);
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            ForecastPayload.decode(bytes);
+            fail("Decoded " + (bytes == null ? "null" : bytes.length + " bytes"));
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /*
+        The days, and what they hold, are the same; the sequence stays that of the base.
+     */
+    private static void assertSameDays(ForecastPayload expected, ForecastPayload actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.getDay(row), actual.getDay(row));
+            assertEquals(expected.getWeatherId(row), actual.getWeatherId(row));
+            assertEquals(expected.getHigh(row), actual.getHigh(row), 0.0001);
+            assertEquals(expected.getLow(row), actual.getLow(row), 0.0001);
+        }
+        assertEquals(expected.isMetric(), actual.isMetric());
+    }
+
+    private static ForecastPayload forecast(int sequence, int firstDay, int size, double shift) {
+        int[] days = days(firstDay, size);
+        return ForecastPayload.full(sequence, TIME, true, days, ids(days),
+                temperatures(days, 20 + shift), temperatures(days, 10 + shift));
+    }
+
+    /*
+        The same forecast with the given days' highs raised and their conditions changed.
+     */
+    private static ForecastPayload revise(ForecastPayload forecast, int... revisedDays) {
+        int size = forecast.size();
+        int[] days = new int[size];
+        int[] ids = new int[size];
+        double[] highs = new double[size];
+        double[] lows = new double[size];
+        for (int row = 0; row < size; row++) {
+            days[row] = forecast.getDay(row);
+            ids[row] = forecast.getWeatherId(row);
+            highs[row] = forecast.getHigh(row);
+            lows[row] = forecast.getLow(row);
+            for (int revised : revisedDays) {
+                if (days[row] == revised) {
+                    ids[row] = 500;
+                    highs[row] += 2.5;
+                }
+            }
+        }
+        return ForecastPayload.full(forecast.getSequence(), forecast.getTimeMillis(),
+                forecast.isMetric(), days, ids, highs, lows);
+    }
+
+    private static int[] days(int firstDay, int size) {
+        int[] days = new int[size];
+        for (int i = 0; i < size; i++) {
+            days[i] = firstDay + i;
+        }
+        return days;
+    }
+
+    /*
+        Each julian day gets the same weather whichever forecast it's in.
+     */
+    private static int[] ids(int[] days) {
+        int[] ids = new int[days.length];
+        for (int i = 0; i < days.length; i++) {
+            ids[i] = 800 + days[i] % 5;
+        }
+        return ids;
+    }
+
+    private static double[] temperatures(int[] days, double from) {
+        double[] temperatures = new double[days.length];
+        for (int i = 0; i < days.length; i++) {
+            temperatures[i] = from + (days[i] - TODAY) * 0.5;
+        }
+        return temperatures;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import junit.framework.TestCase;
+
+/*
+    Checks the tables against the range checks they replaced, for every id and a few either side.
+ */
+public class WeatherConditionsTest extends TestCase {
+
+    public void testKindOfEveryId() {
+        for (int id = -1; id <= WeatherConditions.MAX_ID + 1; id++) {
+            assertEquals("Kind of " + id, chainKind(id), WeatherConditions.getKind(id));
+        }
+    }
+
+    public void testArtNameOfEveryId() {
+        for (int id = -1; id <= WeatherConditions.MAX_ID + 1; id++) {
+            assertEquals("Art of " + id, chainArtName(id), WeatherConditions.getArtName(id));
+        }
+    }
+
+    public void testImageUrlOfEveryId() {
+        for (int id = -1; id <= WeatherConditions.MAX_ID + 1; id++) {
+            assertEquals("Image of " + id, chainImageUrl(id), WeatherConditions.getImageUrl(id));
+        }
+    }
+
+    public void testLabelCodeOfEveryId() {
+        for (int id = -1; id <= WeatherConditions.MAX_ID + 1; id++) {
+            assertEquals("Label of " + id, chainLabelCode(id),
+                    WeatherConditions.getLabelCode(id));
+        }
+    }
+
+    /*
+        761 is in both the fog range and the storm pair; the fog range came first.
+     */
+    public void testOverlapKeepsFirstMatch() {
+        assertEquals(WeatherConditions.KIND_FOG, WeatherConditions.getKind(761));
+        assertEquals(WeatherConditions.KIND_STORM, WeatherConditions.getKind(781));
+        assertEquals(761, WeatherConditions.getLabelCode(761));
+    }
+
+    public void testOutOfRangeIsUnknown() {
+        assertEquals(WeatherConditions.KIND_UNKNOWN, WeatherConditions.getKind(Integer.MIN_VALUE));
+        assertEquals(WeatherConditions.KIND_UNKNOWN, WeatherConditions.getKind(Integer.MAX_VALUE));
+        assertNull(WeatherConditions.getImageUrl(1000));
+        assertEquals(WeatherConditions.NO_LABEL, WeatherConditions.getLabelCode(-200));
+    }
+
+    // The range checks Utility used to make, one per lookup
+
+    private static int chainKind(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return WeatherConditions.KIND_STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return WeatherConditions.KIND_LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return WeatherConditions.KIND_RAIN;
+        } else if (weatherId == 511) {
+            return WeatherConditions.KIND_SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return WeatherConditions.KIND_RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return WeatherConditions.KIND_SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return WeatherConditions.KIND_FOG;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return WeatherConditions.KIND_STORM;
+        } else if (weatherId == 800) {
+            return WeatherConditions.KIND_CLEAR;
+        } else if (weatherId == 801) {
+            return WeatherConditions.KIND_LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return WeatherConditions.KIND_CLOUDS;
+        }
+        return WeatherConditions.KIND_UNKNOWN;
+    }
+
+    private static String chainArtName(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "light_rain";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "rain";
+        } else if (weatherId == 511) {
+            return "snow";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "rain";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "snow";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "fog";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "clear";
+        } else if (weatherId == 801) {
+            return "light_clouds";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "clouds";
+        }
+        return null;
+    }
+
+    private static String chainImageUrl(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId == 511) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+        } else if (weatherId == 800) {
+            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
+        } else if (weatherId == 801) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
+        }
+        return null;
+    }
+
+    private static int chainLabelCode(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return 200;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return 300;
+        } else switch (weatherId) {
+            case 500: case 501: case 502: case 503: case 504:
+            case 511: case 520: case 531:
+            case 600: case 601: case 602: case 611: case 612: case 615: case 616:
+            case 620: case 621: case 622:
+            case 701: case 711: case 721: case 731: case 741: case 751: case 761:
+            case 762: case 771: case 781:
+            case 800: case 801: case 802: case 803: case 804:
+            case 900: case 901: case 902: case 903: case 904: case 905: case 906:
+            case 951: case 952: case 953: case 954: case 955: case 956: case 957:
+            case 958: case 959: case 960: case 961: case 962:
+                return weatherId;
+            default:
+                return WeatherConditions.NO_LABEL;
+        }
+    }
+}
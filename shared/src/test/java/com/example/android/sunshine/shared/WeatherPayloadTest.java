@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class WeatherPayloadTest extends TestCase {
+
+    private static final long TIME = 1457308800000L;
+
+    public void testRoundTrip() {
+        WeatherPayload payload = new WeatherPayload(21.4, 9.6, 800, TIME, true);
+        byte[] bytes = payload.encode();
+        assertEquals(WeatherPayload.SIZE, bytes.length);
+
+        WeatherPayload decoded = WeatherPayload.decode(bytes);
+        assertEquals(payload, decoded);
+        assertEquals(21.4, decoded.getHigh(), 0.001);
+        assertEquals(9.6, decoded.getLow(), 0.001);
+        assertEquals(800, decoded.getWeatherId());
+        assertEquals(TIME, decoded.getTimeMillis());
+        assertTrue(decoded.isMetric());
+    }
+
+    public void testRoundTripImperialAndBelowZero() {
+        WeatherPayload payload = new WeatherPayload(-3.25, -17.8, 611, TIME, false);
+        WeatherPayload decoded = WeatherPayload.decode(payload.encode());
+        assertEquals(payload, decoded);
+        assertFalse(decoded.isMetric());
+        assertEquals(-17.8, decoded.getLow(), 0.001);
+    }
+
+    /*
+        Temperatures keep a hundredth of a degree, as the forecast gives them.
+     */
+    public void testTemperaturesKeepHundredths() {
+        for (int hundredths = -6000; hundredths <= 6000; hundredths++) {
+            double celsius = hundredths / 100.0;
+            WeatherPayload decoded = WeatherPayload.decode(
+                    new WeatherPayload(celsius, celsius, 800, TIME, true).encode());
+            assertEquals("High of " + celsius, celsius, decoded.getHigh(), 0.0001);
+        }
+    }
+
+    /*
+        The watch has to show what the phone shows: "%1.0f" of the temperature in the user's
+        units, except that the phone's "-0" is just 0.
+     */
+    public void testDisplayDegreesMatchPhoneFormatting() {
+        for (int tenths = -600; tenths <= 600; tenths++) {
+            double celsius = tenths / 10.0;
+            assertEquals(celsius + "C", phoneDegrees(celsius),
+                    WeatherPayload.toDisplayDegrees(celsius, true));
+            assertEquals(celsius + "F", phoneDegrees(celsius * 1.8 + 32),
+                    WeatherPayload.toDisplayDegrees(celsius, false));
+        }
+    }
+
+    /*
+        What the watch shows after the trip matches what the phone shows for the temperature it
+        has, for temperatures that aren't whole tenths too: 2.48 is 2, not 2.5 and then 3.
+     */
+    public void testSentDegreesMatchPhoneFormatting() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            double celsius = (random.nextInt(12001) - 6000) / 100.0;
+            WeatherPayload metric = WeatherPayload.decode(
+                    new WeatherPayload(celsius, celsius, 800, TIME, true).encode());
+            assertEquals(celsius + "C", phoneDegrees(celsius), metric.getDisplayHigh());
+            WeatherPayload imperial = WeatherPayload.decode(
+                    new WeatherPayload(celsius, celsius, 800, TIME, false).encode());
+            assertEquals(celsius + "F", phoneDegrees(celsius * 1.8 + 32),
+                    imperial.getDisplayLow());
+        }
+        assertEquals(2, WeatherPayload.decode(
+                new WeatherPayload(2.48, 2.48, 800, TIME, true).encode()).getDisplayHigh());
+    }
+
+    public void testUnknownVersionRejected() {
+        byte[] bytes = new WeatherPayload(20, 10, 800, TIME, true).encode();
+        bytes[0] = WeatherPayload.VERSION + 1;
+        try {
+            WeatherPayload.decode(bytes);
+            fail("Decoded version " + bytes[0]);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testWrongSizeRejected() {
+        try {
+            WeatherPayload.decode(new byte[WeatherPayload.SIZE - 1]);
+            fail("Decoded a short payload");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            WeatherPayload.decode(null);
+            fail("Decoded null");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testOutOfRangeTemperatureRejected() {
+        try {
+            new WeatherPayload(4000, 10, 800, TIME, true);
+            fail("Encoded 4000 degrees");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static int phoneDegrees(double degrees) {
+        return Integer.parseInt(String.format("%1.0f", degrees));
+    }
+}